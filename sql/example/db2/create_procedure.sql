@@ -0,0 +1,281 @@
+-- DBMeter stored procedures, one call per TPC-C transaction.
+-- Used by the slave when procedureTransactions is set, run with:
+--   db2 -td@ -vf create_procedure.sql
+-- The caller commits or rolls back. out_status: 1 = done, 2 = the expected
+-- illegal item id, roll back and count as done, 0 = failed, roll back.
+
+create or replace procedure dbm_csv_item (
+	in in_csv		varchar(256),
+	in in_pos		integer,
+	out out_value	integer)
+	language sql
+	deterministic
+	no external action
+begin
+	declare v_start integer default 1;
+	declare v_end integer;
+	declare v_i integer default 1;
+	while v_i < in_pos do
+		set v_start = locate(',', in_csv, v_start) + 1;
+		set v_i = v_i + 1;
+	end while;
+	set v_end = locate(',', in_csv, v_start);
+	if v_end = 0 then
+		set v_end = length(in_csv) + 1;
+	end if;
+	set out_value = integer(substr(in_csv, v_start, v_end - v_start));
+end@
+
+create or replace procedure dbm_new_order (
+	in in_w_id			integer,
+	in in_d_id			integer,
+	in in_c_id			integer,
+	in in_ol_cnt		integer,
+	in in_all_local		integer,
+	in in_item_ids		varchar(256),
+	in in_supply_w_ids	varchar(256),
+	in in_quantities	varchar(256),
+	out out_status		integer)
+	language sql
+p1: begin
+	declare v_c_discount	decimal(4,4);
+	declare v_c_last		varchar(16);
+	declare v_c_credit		char(2);
+	declare v_w_tax			decimal(4,4);
+	declare v_d_tax			decimal(4,4);
+	declare v_o_id			integer;
+	declare v_ol_number		integer default 1;
+	declare v_i_id			integer;
+	declare v_supply_w_id	integer;
+	declare v_quantity		integer;
+	declare v_i_price		decimal(5,2);
+	declare v_s_quantity	integer;
+	declare v_dist_info		char(24);
+	declare v_found			integer default 1;
+	declare continue handler for not found set v_found = 0;
+
+	set out_status = 0;
+
+	select c_discount, c_last, c_credit, w_tax
+	  into v_c_discount, v_c_last, v_c_credit, v_w_tax
+	  from customer, warehouse
+	 where w_id = in_w_id and w_id = c_w_id and c_d_id = in_d_id and c_id = in_c_id;
+
+	select d_next_o_id, d_tax into v_o_id, v_d_tax
+	  from final table (update district set d_next_o_id = d_next_o_id + 1
+						 where d_id = in_d_id and d_w_id = in_w_id);
+	set v_o_id = v_o_id - 1;
+
+	insert into new_order (no_o_id, no_d_id, no_w_id) values (v_o_id, in_d_id, in_w_id);
+	insert into oorder (o_id, o_d_id, o_w_id, o_c_id, o_entry_d, o_ol_cnt, o_all_local)
+		values (v_o_id, in_d_id, in_w_id, in_c_id, current timestamp, in_ol_cnt, in_all_local);
+
+	while v_ol_number <= in_ol_cnt do
+		call dbm_csv_item(in_item_ids, v_ol_number, v_i_id);
+		call dbm_csv_item(in_supply_w_ids, v_ol_number, v_supply_w_id);
+		call dbm_csv_item(in_quantities, v_ol_number, v_quantity);
+
+		-- the expected 1% illegal item id
+		if v_i_id = -12345 then
+			set out_status = 2;
+			leave p1;
+		end if;
+
+		select i_price into v_i_price from item where i_id = v_i_id;
+		if v_found = 0 then
+			leave p1;
+		end if;
+
+		select s_quantity,
+			   case in_d_id when 1 then s_dist_01 when 2 then s_dist_02 when 3 then s_dist_03
+							when 4 then s_dist_04 when 5 then s_dist_05 when 6 then s_dist_06
+							when 7 then s_dist_07 when 8 then s_dist_08 when 9 then s_dist_09
+							else s_dist_10 end
+		  into v_s_quantity, v_dist_info
+		  from stock where s_i_id = v_i_id and s_w_id = v_supply_w_id
+		  with rs use and keep update locks;
+		if v_found = 0 then
+			leave p1;
+		end if;
+
+		if v_s_quantity - v_quantity >= 10 then
+			set v_s_quantity = v_s_quantity - v_quantity;
+		else
+			set v_s_quantity = v_s_quantity - v_quantity + 91;
+		end if;
+
+		update stock set s_quantity = v_s_quantity, s_ytd = s_ytd + v_quantity,
+			   s_remote_cnt = s_remote_cnt + case when v_supply_w_id = in_w_id then 0 else 1 end
+		 where s_i_id = v_i_id and s_w_id = v_supply_w_id;
+
+		insert into order_line (ol_o_id, ol_d_id, ol_w_id, ol_number, ol_i_id, ol_supply_w_id,
+								ol_quantity, ol_amount, ol_dist_info)
+			values (v_o_id, in_d_id, in_w_id, v_ol_number, v_i_id, v_supply_w_id,
+					v_quantity, v_quantity * v_i_price, v_dist_info);
+
+		set v_ol_number = v_ol_number + 1;
+	end while;
+
+	set out_status = 1;
+end p1@
+
+create or replace procedure dbm_payment (
+	in in_w_id			integer,
+	in in_d_id			integer,
+	in in_c_w_id		integer,
+	in in_c_d_id		integer,
+	in in_c_id			integer,
+	in in_by_name		integer,
+	in in_c_last		varchar(16),
+	in in_h_amount		decimal(6,2),
+	out out_status		integer)
+	language sql
+p1: begin
+	declare v_w_name		varchar(10);
+	declare v_d_name		varchar(10);
+	declare v_c_id			integer;
+	declare v_namecnt		integer;
+	declare v_c_credit		char(2);
+	declare v_c_data		varchar(500);
+	declare v_found			integer default 1;
+	declare continue handler for not found set v_found = 0;
+
+	set out_status = 0;
+
+	select w_name into v_w_name
+	  from final table (update warehouse set w_ytd = w_ytd + in_h_amount where w_id = in_w_id);
+	select d_name into v_d_name
+	  from final table (update district set d_ytd = d_ytd + in_h_amount
+						 where d_w_id = in_w_id and d_id = in_d_id);
+
+	if in_by_name = 1 then
+		select count(c_id) into v_namecnt from customer
+		 where c_last = in_c_last and c_d_id = in_c_d_id and c_w_id = in_c_w_id;
+		-- the middle customer of the list
+		select c_id into v_c_id from (
+			select c_id, row_number() over (order by c_first) rn from customer
+			 where c_w_id = in_c_w_id and c_d_id = in_c_d_id and c_last = in_c_last) t
+		 where rn = max(integer(ceil(v_namecnt / 2.0)), 1);
+	else
+		set v_c_id = in_c_id;
+	end if;
+
+	select c_credit, c_data into v_c_credit, v_c_data
+	  from final table (update customer set c_balance = c_balance + in_h_amount
+						 where c_w_id = in_c_w_id and c_d_id = in_c_d_id and c_id = v_c_id);
+	if v_found = 0 then
+		leave p1;
+	end if;
+	if v_c_credit = 'BC' then
+		update customer set c_data = substr(char(v_c_id) || ' ' || char(in_c_d_id) || ' '
+				|| char(in_c_w_id) || ' ' || char(in_d_id) || ' ' || char(in_w_id) || ' '
+				|| char(in_h_amount) || ' |' || v_c_data, 1, 500)
+		 where c_w_id = in_c_w_id and c_d_id = in_c_d_id and c_id = v_c_id;
+	end if;
+
+	insert into history (h_c_d_id, h_c_w_id, h_c_id, h_d_id, h_w_id, h_date, h_amount, h_data)
+		values (in_c_d_id, in_c_w_id, v_c_id, in_d_id, in_w_id, current timestamp, in_h_amount,
+				v_w_name || '    ' || v_d_name);
+
+	set out_status = 1;
+end p1@
+
+create or replace procedure dbm_order_status (
+	in in_w_id			integer,
+	in in_d_id			integer,
+	in in_c_id			integer,
+	in in_by_name		integer,
+	in in_c_last		varchar(16),
+	out out_status		integer)
+	language sql
+	reads sql data
+begin
+	declare v_c_id			integer;
+	declare v_namecnt		integer default 0;
+	declare v_c_balance		decimal(12,2);
+	declare v_o_id			integer;
+	declare v_ol_count		integer;
+	declare v_ol_total		decimal(12,2);
+
+	set out_status = 0;
+	set v_c_id = in_c_id;
+
+	if in_by_name = 1 then
+		select count(*) into v_namecnt from customer
+		 where c_last = in_c_last and c_d_id = in_d_id and c_w_id = in_w_id;
+	end if;
+	if v_namecnt > 0 then
+		select c_id, c_balance into v_c_id, v_c_balance from (
+			select c_id, c_balance, row_number() over (order by c_first) rn from customer
+			 where c_last = in_c_last and c_d_id = in_d_id and c_w_id = in_w_id) t
+		 where rn = integer(ceil(v_namecnt / 2.0));
+	else
+		select c_balance into v_c_balance from customer
+		 where c_id = v_c_id and c_d_id = in_d_id and c_w_id = in_w_id;
+	end if;
+
+	select max(o_id) into v_o_id from oorder
+	 where o_w_id = in_w_id and o_d_id = in_d_id and o_c_id = v_c_id with ur;
+	select count(*), sum(ol_amount) into v_ol_count, v_ol_total from order_line
+	 where ol_o_id = v_o_id and ol_d_id = in_d_id and ol_w_id = in_w_id with ur;
+
+	set out_status = 1;
+end@
+
+create or replace procedure dbm_delivery (
+	in in_w_id			integer,
+	in in_o_carrier_id	integer,
+	in in_d_ids			varchar(64),
+	out out_delivered	integer)
+	language sql
+begin
+	declare v_i			integer default 1;
+	declare v_d_cnt		integer;
+	declare v_d_id		integer;
+	declare v_no_o_id	integer;
+	declare v_c_id		integer;
+	declare v_ol_total	decimal(12,2);
+
+	-- the districts are chosen by the caller, as in the interactive mode
+	set out_delivered = 0;
+	set v_d_cnt = length(in_d_ids) - length(replace(in_d_ids, ',', '')) + 1;
+	while v_i <= v_d_cnt do
+		call dbm_csv_item(in_d_ids, v_i, v_d_id);
+		set v_no_o_id = null;
+		select min(no_o_id) into v_no_o_id from new_order
+		 where no_d_id = v_d_id and no_w_id = in_w_id;
+		if v_no_o_id is not null then
+			delete from new_order where no_d_id = v_d_id and no_w_id = in_w_id and no_o_id = v_no_o_id;
+			select o_c_id into v_c_id
+			  from final table (update oorder set o_carrier_id = in_o_carrier_id
+								 where o_id = v_no_o_id and o_d_id = v_d_id and o_w_id = in_w_id);
+			update order_line set ol_delivery_d = current timestamp
+			 where ol_o_id = v_no_o_id and ol_d_id = v_d_id and ol_w_id = in_w_id;
+			select sum(ol_amount) into v_ol_total from order_line
+			 where ol_o_id = v_no_o_id and ol_d_id = v_d_id and ol_w_id = in_w_id;
+			update customer set c_balance = c_balance + v_ol_total, c_delivery_cnt = c_delivery_cnt + 1
+			 where c_id = v_c_id and c_d_id = v_d_id and c_w_id = in_w_id;
+		end if;
+		set out_delivered = out_delivered + 1;
+		set v_i = v_i + 1;
+	end while;
+end@
+
+create or replace procedure dbm_stock_level (
+	in in_w_id			integer,
+	in in_d_id			integer,
+	in in_threshold		integer,
+	out out_stock_count	integer)
+	language sql
+	reads sql data
+begin
+	declare v_o_id integer;
+
+	select d_next_o_id into v_o_id from district
+	 where d_w_id = in_w_id and d_id = in_d_id with ur;
+	select count(distinct (s_i_id)) into out_stock_count
+	  from order_line, stock
+	 where ol_w_id = in_w_id and ol_d_id = in_d_id
+	   and ol_o_id < v_o_id and ol_o_id >= v_o_id - 20
+	   and s_w_id = in_w_id and s_i_id = ol_i_id and s_quantity < in_threshold with ur;
+end@
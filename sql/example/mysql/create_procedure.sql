@@ -0,0 +1,277 @@
+-- DBMeter stored procedures, one call per TPC-C transaction.
+-- Used by the slave when procedureTransactions is set.
+-- The caller commits or rolls back. out_status: 1 = done, 2 = the expected
+-- illegal item id, roll back and count as done, 0 = failed, roll back.
+
+use tpcc;
+
+DELIMITER $$
+
+DROP PROCEDURE IF EXISTS dbm_new_order $$
+CREATE PROCEDURE dbm_new_order (
+  IN in_w_id          INT,
+  IN in_d_id          INT,
+  IN in_c_id          INT,
+  IN in_ol_cnt        INT,
+  IN in_all_local     INT,
+  IN in_item_ids      VARCHAR(256),
+  IN in_supply_w_ids  VARCHAR(256),
+  IN in_quantities    VARCHAR(256),
+  OUT out_status      INT)
+proc: BEGIN
+  DECLARE v_c_discount   DECIMAL(4,4);
+  DECLARE v_c_last       VARCHAR(16);
+  DECLARE v_c_credit     CHAR(2);
+  DECLARE v_w_tax        DECIMAL(4,4);
+  DECLARE v_d_tax        DECIMAL(4,4);
+  DECLARE v_o_id         INT;
+  DECLARE v_ol_number    INT DEFAULT 1;
+  DECLARE v_i_id         INT;
+  DECLARE v_supply_w_id  INT;
+  DECLARE v_quantity     INT;
+  DECLARE v_i_price      DECIMAL(5,2);
+  DECLARE v_i_name       VARCHAR(24);
+  DECLARE v_i_data       VARCHAR(50);
+  DECLARE v_s_quantity   INT;
+  DECLARE v_s_data       VARCHAR(50);
+  DECLARE v_dist_info    CHAR(24);
+  DECLARE v_found        INT DEFAULT 1;
+  DECLARE CONTINUE HANDLER FOR NOT FOUND SET v_found = 0;
+
+  SET out_status = 0;
+
+  SELECT c_discount, c_last, c_credit, w_tax
+    INTO v_c_discount, v_c_last, v_c_credit, v_w_tax
+    FROM customer, warehouse
+   WHERE w_id = in_w_id AND w_id = c_w_id AND c_d_id = in_d_id AND c_id = in_c_id;
+
+  SELECT d_next_o_id, d_tax INTO v_o_id, v_d_tax
+    FROM district WHERE d_id = in_d_id AND d_w_id = in_w_id FOR UPDATE;
+  UPDATE district SET d_next_o_id = d_next_o_id + 1
+   WHERE d_id = in_d_id AND d_w_id = in_w_id;
+
+  INSERT INTO new_order (no_o_id, no_d_id, no_w_id) VALUES (v_o_id, in_d_id, in_w_id);
+  INSERT INTO oorder (o_id, o_d_id, o_w_id, o_c_id, o_entry_d, o_ol_cnt, o_all_local)
+    VALUES (v_o_id, in_d_id, in_w_id, in_c_id, NOW(), in_ol_cnt, in_all_local);
+
+  WHILE v_ol_number <= in_ol_cnt DO
+    SET v_i_id = CAST(SUBSTRING_INDEX(SUBSTRING_INDEX(in_item_ids, ',', v_ol_number), ',', -1) AS SIGNED);
+    SET v_supply_w_id = CAST(SUBSTRING_INDEX(SUBSTRING_INDEX(in_supply_w_ids, ',', v_ol_number), ',', -1) AS SIGNED);
+    SET v_quantity = CAST(SUBSTRING_INDEX(SUBSTRING_INDEX(in_quantities, ',', v_ol_number), ',', -1) AS SIGNED);
+
+    -- the expected 1% illegal item id
+    IF v_i_id = -12345 THEN
+      SET out_status = 2;
+      LEAVE proc;
+    END IF;
+
+    SELECT i_price, i_name, i_data INTO v_i_price, v_i_name, v_i_data
+      FROM item WHERE i_id = v_i_id;
+    IF v_found = 0 THEN
+      LEAVE proc;
+    END IF;
+
+    SELECT s_quantity, s_data,
+           CASE in_d_id WHEN 1 THEN s_dist_01 WHEN 2 THEN s_dist_02 WHEN 3 THEN s_dist_03
+                        WHEN 4 THEN s_dist_04 WHEN 5 THEN s_dist_05 WHEN 6 THEN s_dist_06
+                        WHEN 7 THEN s_dist_07 WHEN 8 THEN s_dist_08 WHEN 9 THEN s_dist_09
+                        ELSE s_dist_10 END
+      INTO v_s_quantity, v_s_data, v_dist_info
+      FROM stock WHERE s_i_id = v_i_id AND s_w_id = v_supply_w_id FOR UPDATE;
+    IF v_found = 0 THEN
+      LEAVE proc;
+    END IF;
+
+    IF v_s_quantity - v_quantity >= 10 THEN
+      SET v_s_quantity = v_s_quantity - v_quantity;
+    ELSE
+      SET v_s_quantity = v_s_quantity - v_quantity + 91;
+    END IF;
+
+    UPDATE stock SET s_quantity = v_s_quantity, s_ytd = s_ytd + v_quantity,
+           s_remote_cnt = s_remote_cnt + CASE WHEN v_supply_w_id = in_w_id THEN 0 ELSE 1 END
+     WHERE s_i_id = v_i_id AND s_w_id = v_supply_w_id;
+
+    INSERT INTO order_line (ol_o_id, ol_d_id, ol_w_id, ol_number, ol_i_id, ol_supply_w_id,
+                            ol_quantity, ol_amount, ol_dist_info)
+      VALUES (v_o_id, in_d_id, in_w_id, v_ol_number, v_i_id, v_supply_w_id,
+              v_quantity, v_quantity * v_i_price, v_dist_info);
+
+    SET v_ol_number = v_ol_number + 1;
+  END WHILE;
+
+  SET out_status = 1;
+END $$
+
+DROP PROCEDURE IF EXISTS dbm_payment $$
+CREATE PROCEDURE dbm_payment (
+  IN in_w_id      INT,
+  IN in_d_id      INT,
+  IN in_c_w_id    INT,
+  IN in_c_d_id    INT,
+  IN in_c_id      INT,
+  IN in_by_name   INT,
+  IN in_c_last    VARCHAR(16),
+  IN in_h_amount  DECIMAL(6,2),
+  OUT out_status  INT)
+BEGIN
+  DECLARE v_w_name     VARCHAR(10);
+  DECLARE v_d_name     VARCHAR(10);
+  DECLARE v_c_id       INT;
+  DECLARE v_namecnt    INT;
+  DECLARE v_offset     INT;
+  DECLARE v_c_credit   CHAR(2);
+  DECLARE v_c_balance  DECIMAL(12,2);
+  DECLARE v_c_data     VARCHAR(500);
+  DECLARE v_found      INT DEFAULT 1;
+  DECLARE CONTINUE HANDLER FOR NOT FOUND SET v_found = 0;
+
+  SET out_status = 0;
+
+  UPDATE warehouse SET w_ytd = w_ytd + in_h_amount WHERE w_id = in_w_id;
+  SELECT w_name INTO v_w_name FROM warehouse WHERE w_id = in_w_id;
+
+  UPDATE district SET d_ytd = d_ytd + in_h_amount WHERE d_w_id = in_w_id AND d_id = in_d_id;
+  SELECT d_name INTO v_d_name FROM district WHERE d_w_id = in_w_id AND d_id = in_d_id;
+
+  IF in_by_name = 1 THEN
+    SELECT count(c_id) INTO v_namecnt FROM customer
+     WHERE c_last = in_c_last AND c_d_id = in_c_d_id AND c_w_id = in_c_w_id;
+    -- the middle customer of the list
+    SET v_offset = GREATEST(CEIL(v_namecnt / 2) - 1, 0);
+    SELECT c_id, c_credit, c_balance INTO v_c_id, v_c_credit, v_c_balance
+      FROM customer WHERE c_w_id = in_c_w_id AND c_d_id = in_c_d_id AND c_last = in_c_last
+     ORDER BY c_w_id, c_d_id, c_last, c_first LIMIT v_offset, 1;
+  ELSE
+    SET v_c_id = in_c_id;
+    SELECT c_credit, c_balance INTO v_c_credit, v_c_balance
+      FROM customer WHERE c_w_id = in_c_w_id AND c_d_id = in_c_d_id AND c_id = v_c_id;
+  END IF;
+
+  SET v_c_balance = v_c_balance + in_h_amount;
+  IF v_c_credit = 'BC' THEN
+    SELECT c_data INTO v_c_data FROM customer
+     WHERE c_w_id = in_c_w_id AND c_d_id = in_c_d_id AND c_id = v_c_id;
+    SET v_c_data = SUBSTRING(CONCAT(v_c_id, ' ', in_c_d_id, ' ', in_c_w_id, ' ', in_d_id, ' ',
+                                    in_w_id, ' ', in_h_amount, ' |', v_c_data), 1, 500);
+    UPDATE customer SET c_balance = v_c_balance, c_data = v_c_data
+     WHERE c_w_id = in_c_w_id AND c_d_id = in_c_d_id AND c_id = v_c_id;
+  ELSE
+    UPDATE customer SET c_balance = v_c_balance
+     WHERE c_w_id = in_c_w_id AND c_d_id = in_c_d_id AND c_id = v_c_id;
+  END IF;
+
+  INSERT INTO history (h_c_d_id, h_c_w_id, h_c_id, h_d_id, h_w_id, h_date, h_amount, h_data)
+    VALUES (in_c_d_id, in_c_w_id, v_c_id, in_d_id, in_w_id, NOW(), in_h_amount,
+            CONCAT(v_w_name, '    ', v_d_name));
+
+  SET out_status = 1;
+END $$
+
+DROP PROCEDURE IF EXISTS dbm_order_status $$
+CREATE PROCEDURE dbm_order_status (
+  IN in_w_id     INT,
+  IN in_d_id     INT,
+  IN in_c_id     INT,
+  IN in_by_name  INT,
+  IN in_c_last   VARCHAR(16),
+  OUT out_status INT)
+BEGIN
+  DECLARE v_c_id          INT;
+  DECLARE v_namecnt       INT DEFAULT 0;
+  DECLARE v_offset        INT;
+  DECLARE v_c_balance     DECIMAL(12,2);
+  DECLARE v_c_first       VARCHAR(16);
+  DECLARE v_o_id          INT;
+  DECLARE v_o_carrier_id  INT;
+  DECLARE v_o_entry_d     DATETIME;
+  DECLARE v_ol_count      INT;
+  DECLARE v_ol_total      DECIMAL(12,2);
+  DECLARE v_found         INT DEFAULT 1;
+  DECLARE CONTINUE HANDLER FOR NOT FOUND SET v_found = 0;
+
+  SET out_status = 0;
+  SET v_c_id = in_c_id;
+
+  IF in_by_name = 1 THEN
+    SELECT count(*) INTO v_namecnt FROM customer
+     WHERE c_last = in_c_last AND c_d_id = in_d_id AND c_w_id = in_w_id;
+  END IF;
+  IF v_namecnt > 0 THEN
+    SET v_offset = CEIL(v_namecnt / 2) - 1;
+    SELECT c_id, c_balance, c_first INTO v_c_id, v_c_balance, v_c_first
+      FROM customer WHERE c_last = in_c_last AND c_d_id = in_d_id AND c_w_id = in_w_id
+     ORDER BY c_w_id, c_d_id, c_last, c_first LIMIT v_offset, 1;
+  ELSE
+    SELECT c_balance, c_first INTO v_c_balance, v_c_first
+      FROM customer WHERE c_id = v_c_id AND c_d_id = in_d_id AND c_w_id = in_w_id;
+  END IF;
+
+  SELECT MAX(o_id) INTO v_o_id FROM oorder
+   WHERE o_w_id = in_w_id AND o_d_id = in_d_id AND o_c_id = v_c_id;
+  SELECT o_carrier_id, o_entry_d INTO v_o_carrier_id, v_o_entry_d FROM oorder
+   WHERE o_w_id = in_w_id AND o_d_id = in_d_id AND o_c_id = v_c_id AND o_id = v_o_id;
+  SELECT count(*), SUM(ol_amount) INTO v_ol_count, v_ol_total FROM order_line
+   WHERE ol_o_id = v_o_id AND ol_d_id = in_d_id AND ol_w_id = in_w_id;
+
+  SET out_status = 1;
+END $$
+
+DROP PROCEDURE IF EXISTS dbm_delivery $$
+CREATE PROCEDURE dbm_delivery (
+  IN in_w_id          INT,
+  IN in_o_carrier_id  INT,
+  IN in_d_ids         VARCHAR(64),
+  OUT out_delivered   INT)
+BEGIN
+  DECLARE v_i         INT DEFAULT 1;
+  DECLARE v_d_cnt     INT;
+  DECLARE v_d_id      INT;
+  DECLARE v_no_o_id   INT;
+  DECLARE v_c_id      INT;
+  DECLARE v_ol_total  DECIMAL(12,2);
+
+  -- the districts are chosen by the caller, as in the interactive mode
+  SET out_delivered = 0;
+  SET v_d_cnt = LENGTH(in_d_ids) - LENGTH(REPLACE(in_d_ids, ',', '')) + 1;
+  WHILE v_i <= v_d_cnt DO
+    SET v_d_id = CAST(SUBSTRING_INDEX(SUBSTRING_INDEX(in_d_ids, ',', v_i), ',', -1) AS SIGNED);
+    SET v_no_o_id = NULL;
+    SELECT MIN(no_o_id) INTO v_no_o_id FROM new_order
+     WHERE no_d_id = v_d_id AND no_w_id = in_w_id;
+    IF v_no_o_id IS NOT NULL THEN
+      DELETE FROM new_order WHERE no_d_id = v_d_id AND no_w_id = in_w_id AND no_o_id = v_no_o_id;
+      SELECT o_c_id INTO v_c_id FROM oorder
+       WHERE o_id = v_no_o_id AND o_d_id = v_d_id AND o_w_id = in_w_id;
+      UPDATE oorder SET o_carrier_id = in_o_carrier_id
+       WHERE o_id = v_no_o_id AND o_d_id = v_d_id AND o_w_id = in_w_id;
+      UPDATE order_line SET ol_delivery_d = NOW()
+       WHERE ol_o_id = v_no_o_id AND ol_d_id = v_d_id AND ol_w_id = in_w_id;
+      SELECT SUM(ol_amount) INTO v_ol_total FROM order_line
+       WHERE ol_o_id = v_no_o_id AND ol_d_id = v_d_id AND ol_w_id = in_w_id;
+      UPDATE customer SET c_balance = c_balance + v_ol_total, c_delivery_cnt = c_delivery_cnt + 1
+       WHERE c_id = v_c_id AND c_d_id = v_d_id AND c_w_id = in_w_id;
+    END IF;
+    SET out_delivered = out_delivered + 1;
+    SET v_i = v_i + 1;
+  END WHILE;
+END $$
+
+DROP PROCEDURE IF EXISTS dbm_stock_level $$
+CREATE PROCEDURE dbm_stock_level (
+  IN in_w_id          INT,
+  IN in_d_id          INT,
+  IN in_threshold     INT,
+  OUT out_stock_count INT)
+BEGIN
+  DECLARE v_o_id INT;
+
+  SELECT d_next_o_id INTO v_o_id FROM district WHERE d_w_id = in_w_id AND d_id = in_d_id;
+  SELECT COUNT(DISTINCT (s_i_id)) INTO out_stock_count
+    FROM order_line, stock
+   WHERE ol_w_id = in_w_id AND ol_d_id = in_d_id
+     AND ol_o_id < v_o_id AND ol_o_id >= v_o_id - 20
+     AND s_w_id = in_w_id AND s_i_id = ol_i_id AND s_quantity < in_threshold;
+END $$
+
+DELIMITER ;
@@ -0,0 +1,252 @@
+-- DBMeter stored procedures, one call per TPC-C transaction.
+-- Used by the slave when procedureTransactions is set.
+-- The caller commits or rolls back. out_status: 1 = done, 2 = the expected
+-- illegal item id, roll back and count as done, 0 = failed, roll back.
+
+create or replace function dbm_new_order (
+	in_w_id			integer,
+	in_d_id			integer,
+	in_c_id			integer,
+	in_ol_cnt		integer,
+	in_all_local	integer,
+	in_item_ids		varchar,
+	in_supply_w_ids	varchar,
+	in_quantities	varchar,
+	out out_status	integer)
+as $$
+declare
+	v_c_discount	numeric(4,4);
+	v_c_last		varchar(16);
+	v_c_credit		char(2);
+	v_w_tax			numeric(4,4);
+	v_d_tax			numeric(4,4);
+	v_o_id			integer;
+	v_item_ids		integer[];
+	v_supply_w_ids	integer[];
+	v_quantities	integer[];
+	v_i_id			integer;
+	v_supply_w_id	integer;
+	v_quantity		integer;
+	v_i_price		numeric(5,2);
+	v_s_quantity	integer;
+	v_dist_info		char(24);
+begin
+	out_status := 0;
+	v_item_ids := string_to_array(in_item_ids, ',')::integer[];
+	v_supply_w_ids := string_to_array(in_supply_w_ids, ',')::integer[];
+	v_quantities := string_to_array(in_quantities, ',')::integer[];
+
+	select c_discount, c_last, c_credit, w_tax
+	  into v_c_discount, v_c_last, v_c_credit, v_w_tax
+	  from customer, warehouse
+	 where w_id = in_w_id and w_id = c_w_id and c_d_id = in_d_id and c_id = in_c_id;
+
+	update district set d_next_o_id = d_next_o_id + 1
+	 where d_id = in_d_id and d_w_id = in_w_id
+	returning d_next_o_id - 1, d_tax into v_o_id, v_d_tax;
+	if not found then
+		return;
+	end if;
+
+	insert into new_order (no_o_id, no_d_id, no_w_id) values (v_o_id, in_d_id, in_w_id);
+	insert into oorder (o_id, o_d_id, o_w_id, o_c_id, o_entry_d, o_ol_cnt, o_all_local)
+		values (v_o_id, in_d_id, in_w_id, in_c_id, current_timestamp, in_ol_cnt, in_all_local);
+
+	for v_ol_number in 1 .. in_ol_cnt loop
+		v_i_id := v_item_ids[v_ol_number];
+		v_supply_w_id := v_supply_w_ids[v_ol_number];
+		v_quantity := v_quantities[v_ol_number];
+
+		-- the expected 1% illegal item id
+		if v_i_id = -12345 then
+			out_status := 2;
+			return;
+		end if;
+
+		select i_price into v_i_price from item where i_id = v_i_id;
+		if not found then
+			return;
+		end if;
+
+		select s_quantity,
+			   case in_d_id when 1 then s_dist_01 when 2 then s_dist_02 when 3 then s_dist_03
+							when 4 then s_dist_04 when 5 then s_dist_05 when 6 then s_dist_06
+							when 7 then s_dist_07 when 8 then s_dist_08 when 9 then s_dist_09
+							else s_dist_10 end
+		  into v_s_quantity, v_dist_info
+		  from stock where s_i_id = v_i_id and s_w_id = v_supply_w_id for update;
+		if not found then
+			return;
+		end if;
+
+		if v_s_quantity - v_quantity >= 10 then
+			v_s_quantity := v_s_quantity - v_quantity;
+		else
+			v_s_quantity := v_s_quantity - v_quantity + 91;
+		end if;
+
+		update stock set s_quantity = v_s_quantity, s_ytd = s_ytd + v_quantity,
+			   s_remote_cnt = s_remote_cnt + case when v_supply_w_id = in_w_id then 0 else 1 end
+		 where s_i_id = v_i_id and s_w_id = v_supply_w_id;
+
+		insert into order_line (ol_o_id, ol_d_id, ol_w_id, ol_number, ol_i_id, ol_supply_w_id,
+								ol_quantity, ol_amount, ol_dist_info)
+			values (v_o_id, in_d_id, in_w_id, v_ol_number, v_i_id, v_supply_w_id,
+					v_quantity, v_quantity * v_i_price, v_dist_info);
+	end loop;
+
+	out_status := 1;
+end;
+$$ language plpgsql;
+
+create or replace function dbm_payment (
+	in_w_id			integer,
+	in_d_id			integer,
+	in_c_w_id		integer,
+	in_c_d_id		integer,
+	in_c_id			integer,
+	in_by_name		integer,
+	in_c_last		varchar,
+	in_h_amount		real,
+	out out_status	integer)
+as $$
+declare
+	v_w_name		varchar(10);
+	v_d_name		varchar(10);
+	v_c_id			integer;
+	v_namecnt		integer;
+	v_c_credit		char(2);
+	v_c_data		varchar(500);
+begin
+	out_status := 0;
+
+	update warehouse set w_ytd = w_ytd + in_h_amount where w_id = in_w_id
+	returning w_name into v_w_name;
+	update district set d_ytd = d_ytd + in_h_amount where d_w_id = in_w_id and d_id = in_d_id
+	returning d_name into v_d_name;
+
+	if in_by_name = 1 then
+		select count(c_id) into v_namecnt from customer
+		 where c_last = in_c_last and c_d_id = in_c_d_id and c_w_id = in_c_w_id;
+		-- the middle customer of the list
+		select c_id into v_c_id from customer
+		 where c_w_id = in_c_w_id and c_d_id = in_c_d_id and c_last = in_c_last
+		 order by c_w_id, c_d_id, c_last, c_first
+		offset greatest(ceil(v_namecnt / 2.0) - 1, 0) limit 1;
+	else
+		v_c_id := in_c_id;
+	end if;
+
+	update customer set c_balance = c_balance + in_h_amount
+	 where c_w_id = in_c_w_id and c_d_id = in_c_d_id and c_id = v_c_id
+	returning c_credit, c_data into v_c_credit, v_c_data;
+	if not found then
+		return;
+	end if;
+	if v_c_credit = 'BC' then
+		update customer set c_data = substr(v_c_id || ' ' || in_c_d_id || ' ' || in_c_w_id || ' '
+				|| in_d_id || ' ' || in_w_id || ' ' || in_h_amount || ' |' || v_c_data, 1, 500)
+		 where c_w_id = in_c_w_id and c_d_id = in_c_d_id and c_id = v_c_id;
+	end if;
+
+	insert into history (h_c_d_id, h_c_w_id, h_c_id, h_d_id, h_w_id, h_date, h_amount, h_data)
+		values (in_c_d_id, in_c_w_id, v_c_id, in_d_id, in_w_id, current_timestamp, in_h_amount,
+				v_w_name || '    ' || v_d_name);
+
+	out_status := 1;
+end;
+$$ language plpgsql;
+
+create or replace function dbm_order_status (
+	in_w_id			integer,
+	in_d_id			integer,
+	in_c_id			integer,
+	in_by_name		integer,
+	in_c_last		varchar,
+	out out_status	integer)
+as $$
+declare
+	v_c_id			integer;
+	v_namecnt		integer := 0;
+	v_c_balance		numeric(12,2);
+	v_o_id			integer;
+	v_ol_count		integer;
+	v_ol_total		numeric(12,2);
+begin
+	out_status := 0;
+	v_c_id := in_c_id;
+
+	if in_by_name = 1 then
+		select count(*) into v_namecnt from customer
+		 where c_last = in_c_last and c_d_id = in_d_id and c_w_id = in_w_id;
+	end if;
+	if v_namecnt > 0 then
+		select c_id, c_balance into v_c_id, v_c_balance from customer
+		 where c_last = in_c_last and c_d_id = in_d_id and c_w_id = in_w_id
+		 order by c_w_id, c_d_id, c_last, c_first
+		offset ceil(v_namecnt / 2.0) - 1 limit 1;
+	else
+		select c_balance into v_c_balance from customer
+		 where c_id = v_c_id and c_d_id = in_d_id and c_w_id = in_w_id;
+	end if;
+
+	select max(o_id) into v_o_id from oorder
+	 where o_w_id = in_w_id and o_d_id = in_d_id and o_c_id = v_c_id;
+	select count(*), sum(ol_amount) into v_ol_count, v_ol_total from order_line
+	 where ol_o_id = v_o_id and ol_d_id = in_d_id and ol_w_id = in_w_id;
+
+	out_status := 1;
+end;
+$$ language plpgsql;
+
+create or replace function dbm_delivery (
+	in_w_id			integer,
+	in_o_carrier_id	integer,
+	in_d_ids		varchar,
+	out out_delivered integer)
+as $$
+declare
+	v_d_id			integer;
+	v_no_o_id		integer;
+	v_c_id			integer;
+	v_ol_total		numeric(12,2);
+begin
+	-- the districts are chosen by the caller, as in the interactive mode
+	out_delivered := 0;
+	foreach v_d_id in array string_to_array(in_d_ids, ',')::integer[] loop
+		select min(no_o_id) into v_no_o_id from new_order
+		 where no_d_id = v_d_id and no_w_id = in_w_id;
+		if v_no_o_id is not null then
+			delete from new_order where no_d_id = v_d_id and no_w_id = in_w_id and no_o_id = v_no_o_id;
+			update oorder set o_carrier_id = in_o_carrier_id
+			 where o_id = v_no_o_id and o_d_id = v_d_id and o_w_id = in_w_id
+			returning o_c_id into v_c_id;
+			update order_line set ol_delivery_d = current_timestamp
+			 where ol_o_id = v_no_o_id and ol_d_id = v_d_id and ol_w_id = in_w_id;
+			select sum(ol_amount) into v_ol_total from order_line
+			 where ol_o_id = v_no_o_id and ol_d_id = v_d_id and ol_w_id = in_w_id;
+			update customer set c_balance = c_balance + v_ol_total, c_delivery_cnt = c_delivery_cnt + 1
+			 where c_id = v_c_id and c_d_id = v_d_id and c_w_id = in_w_id;
+		end if;
+		out_delivered := out_delivered + 1;
+	end loop;
+end;
+$$ language plpgsql;
+
+create or replace function dbm_stock_level (
+	in_w_id			integer,
+	in_d_id			integer,
+	in_threshold	integer,
+	out out_stock_count integer)
+as $$
+declare
+	v_o_id			integer;
+begin
+	select d_next_o_id into v_o_id from district where d_w_id = in_w_id and d_id = in_d_id;
+	select count(distinct (s_i_id)) into out_stock_count
+	  from order_line, stock
+	 where ol_w_id = in_w_id and ol_d_id = in_d_id
+	   and ol_o_id < v_o_id and ol_o_id >= v_o_id - 20
+	   and s_w_id = in_w_id and s_i_id = ol_i_id and s_quantity < in_threshold;
+end;
+$$ language plpgsql;
@@ -0,0 +1,246 @@
+-- DBMeter stored procedures, one call per TPC-C transaction.
+-- Used by the slave when procedureTransactions is set.
+-- The caller commits or rolls back. @out_status: 1 = done, 2 = the expected
+-- illegal item id, roll back and count as done, 0 = failed, roll back.
+USE tpcc
+GO
+
+CREATE OR ALTER FUNCTION dbm_csv_item (@csv VARCHAR(256), @pos INT)
+RETURNS INT
+AS
+BEGIN
+  DECLARE @start INT = 1, @end INT, @i INT = 1
+  WHILE @i < @pos
+  BEGIN
+    SET @start = CHARINDEX(',', @csv, @start) + 1
+    SET @i = @i + 1
+  END
+  SET @end = CHARINDEX(',', @csv, @start)
+  IF @end = 0
+    SET @end = LEN(@csv) + 1
+  RETURN CAST(SUBSTRING(@csv, @start, @end - @start) AS INT)
+END
+GO
+
+CREATE OR ALTER PROCEDURE dbm_new_order
+  @w_id          INT,
+  @d_id          INT,
+  @c_id          INT,
+  @ol_cnt        INT,
+  @all_local     INT,
+  @item_ids      VARCHAR(256),
+  @supply_w_ids  VARCHAR(256),
+  @quantities    VARCHAR(256),
+  @out_status    INT OUTPUT
+AS
+BEGIN
+  SET NOCOUNT ON
+  DECLARE @c_discount DECIMAL(4,4), @c_last VARCHAR(16), @c_credit CHAR(2),
+          @w_tax DECIMAL(4,4), @d_tax DECIMAL(4,4), @o_id INT,
+          @ol_number INT = 1, @i_id INT, @supply_w_id INT, @quantity INT,
+          @i_price DECIMAL(5,2), @s_quantity INT, @dist_info CHAR(24)
+
+  SET @out_status = 0
+
+  SELECT @c_discount = c_discount, @c_last = c_last, @c_credit = c_credit, @w_tax = w_tax
+    FROM customer, warehouse
+   WHERE w_id = @w_id AND w_id = c_w_id AND c_d_id = @d_id AND c_id = @c_id
+
+  UPDATE district SET @o_id = d_next_o_id, @d_tax = d_tax, d_next_o_id = d_next_o_id + 1
+   WHERE d_id = @d_id AND d_w_id = @w_id
+  IF @@ROWCOUNT = 0
+    RETURN
+
+  INSERT INTO new_order (no_o_id, no_d_id, no_w_id) VALUES (@o_id, @d_id, @w_id)
+  INSERT INTO oorder (o_id, o_d_id, o_w_id, o_c_id, o_entry_d, o_ol_cnt, o_all_local)
+    VALUES (@o_id, @d_id, @w_id, @c_id, GETDATE(), @ol_cnt, @all_local)
+
+  WHILE @ol_number <= @ol_cnt
+  BEGIN
+    SET @i_id = dbo.dbm_csv_item(@item_ids, @ol_number)
+    SET @supply_w_id = dbo.dbm_csv_item(@supply_w_ids, @ol_number)
+    SET @quantity = dbo.dbm_csv_item(@quantities, @ol_number)
+
+    -- the expected 1% illegal item id
+    IF @i_id = -12345
+    BEGIN
+      SET @out_status = 2
+      RETURN
+    END
+
+    SELECT @i_price = i_price FROM item WHERE i_id = @i_id
+    IF @@ROWCOUNT = 0
+      RETURN
+
+    SELECT @s_quantity = s_quantity,
+           @dist_info = CASE @d_id WHEN 1 THEN s_dist_01 WHEN 2 THEN s_dist_02 WHEN 3 THEN s_dist_03
+                                   WHEN 4 THEN s_dist_04 WHEN 5 THEN s_dist_05 WHEN 6 THEN s_dist_06
+                                   WHEN 7 THEN s_dist_07 WHEN 8 THEN s_dist_08 WHEN 9 THEN s_dist_09
+                                   ELSE s_dist_10 END
+      FROM stock WITH (UPDLOCK) WHERE s_i_id = @i_id AND s_w_id = @supply_w_id
+    IF @@ROWCOUNT = 0
+      RETURN
+
+    IF @s_quantity - @quantity >= 10
+      SET @s_quantity = @s_quantity - @quantity
+    ELSE
+      SET @s_quantity = @s_quantity - @quantity + 91
+
+    UPDATE stock SET s_quantity = @s_quantity, s_ytd = s_ytd + @quantity,
+           s_remote_cnt = s_remote_cnt + CASE WHEN @supply_w_id = @w_id THEN 0 ELSE 1 END
+     WHERE s_i_id = @i_id AND s_w_id = @supply_w_id
+
+    INSERT INTO order_line (ol_o_id, ol_d_id, ol_w_id, ol_number, ol_i_id, ol_supply_w_id,
+                            ol_quantity, ol_amount, ol_dist_info)
+      VALUES (@o_id, @d_id, @w_id, @ol_number, @i_id, @supply_w_id,
+              @quantity, @quantity * @i_price, @dist_info)
+
+    SET @ol_number = @ol_number + 1
+  END
+
+  SET @out_status = 1
+END
+GO
+
+CREATE OR ALTER PROCEDURE dbm_payment
+  @w_id        INT,
+  @d_id        INT,
+  @c_w_id      INT,
+  @c_d_id      INT,
+  @c_id        INT,
+  @by_name     INT,
+  @c_last      VARCHAR(16),
+  @h_amount    DECIMAL(6,2),
+  @out_status  INT OUTPUT
+AS
+BEGIN
+  SET NOCOUNT ON
+  DECLARE @w_name VARCHAR(10), @d_name VARCHAR(10), @namecnt INT,
+          @c_credit CHAR(2), @c_data VARCHAR(500)
+
+  SET @out_status = 0
+
+  UPDATE warehouse SET @w_name = w_name, w_ytd = w_ytd + @h_amount WHERE w_id = @w_id
+  UPDATE district SET @d_name = d_name, d_ytd = d_ytd + @h_amount
+   WHERE d_w_id = @w_id AND d_id = @d_id
+
+  IF @by_name = 1
+  BEGIN
+    SELECT @namecnt = count(c_id) FROM customer
+     WHERE c_last = @c_last AND c_d_id = @c_d_id AND c_w_id = @c_w_id
+    -- the middle customer of the list
+    SELECT @c_id = c_id FROM customer
+     WHERE c_w_id = @c_w_id AND c_d_id = @c_d_id AND c_last = @c_last
+     ORDER BY c_first
+    OFFSET (CASE WHEN @namecnt > 1 THEN CEILING(@namecnt / 2.0) - 1 ELSE 0 END) ROWS
+     FETCH NEXT 1 ROWS ONLY
+  END
+
+  UPDATE customer SET @c_credit = c_credit, @c_data = c_data, c_balance = c_balance + @h_amount
+   WHERE c_w_id = @c_w_id AND c_d_id = @c_d_id AND c_id = @c_id
+  IF @@ROWCOUNT = 0
+    RETURN
+  IF @c_credit = 'BC'
+    UPDATE customer SET c_data = SUBSTRING(CONCAT(@c_id, ' ', @c_d_id, ' ', @c_w_id, ' ', @d_id, ' ',
+                                                  @w_id, ' ', @h_amount, ' |', @c_data), 1, 500)
+     WHERE c_w_id = @c_w_id AND c_d_id = @c_d_id AND c_id = @c_id
+
+  INSERT INTO history (h_c_d_id, h_c_w_id, h_c_id, h_d_id, h_w_id, h_date, h_amount, h_data)
+    VALUES (@c_d_id, @c_w_id, @c_id, @d_id, @w_id, GETDATE(), @h_amount,
+            CONCAT(@w_name, '    ', @d_name))
+
+  SET @out_status = 1
+END
+GO
+
+CREATE OR ALTER PROCEDURE dbm_order_status
+  @w_id        INT,
+  @d_id        INT,
+  @c_id        INT,
+  @by_name     INT,
+  @c_last      VARCHAR(16),
+  @out_status  INT OUTPUT
+AS
+BEGIN
+  SET NOCOUNT ON
+  DECLARE @namecnt INT = 0, @c_balance DECIMAL(12,2), @o_id INT,
+          @ol_count INT, @ol_total DECIMAL(12,2)
+
+  SET @out_status = 0
+
+  IF @by_name = 1
+    SELECT @namecnt = count(*) FROM customer
+     WHERE c_last = @c_last AND c_d_id = @d_id AND c_w_id = @w_id
+  IF @namecnt > 0
+    SELECT @c_id = c_id, @c_balance = c_balance FROM customer
+     WHERE c_last = @c_last AND c_d_id = @d_id AND c_w_id = @w_id
+     ORDER BY c_first
+    OFFSET CEILING(@namecnt / 2.0) - 1 ROWS FETCH NEXT 1 ROWS ONLY
+  ELSE
+    SELECT @c_balance = c_balance FROM customer
+     WHERE c_id = @c_id AND c_d_id = @d_id AND c_w_id = @w_id
+
+  SELECT @o_id = MAX(o_id) FROM oorder
+   WHERE o_w_id = @w_id AND o_d_id = @d_id AND o_c_id = @c_id
+  SELECT @ol_count = count(*), @ol_total = SUM(ol_amount) FROM order_line
+   WHERE ol_o_id = @o_id AND ol_d_id = @d_id AND ol_w_id = @w_id
+
+  SET @out_status = 1
+END
+GO
+
+CREATE OR ALTER PROCEDURE dbm_delivery
+  @w_id          INT,
+  @o_carrier_id  INT,
+  @d_ids         VARCHAR(64),
+  @out_delivered INT OUTPUT
+AS
+BEGIN
+  SET NOCOUNT ON
+  DECLARE @i INT = 1, @d_cnt INT, @d_id INT, @no_o_id INT, @c_id INT, @ol_total DECIMAL(12,2)
+
+  -- the districts are chosen by the caller, as in the interactive mode
+  SET @out_delivered = 0
+  SET @d_cnt = LEN(@d_ids) - LEN(REPLACE(@d_ids, ',', '')) + 1
+  WHILE @i <= @d_cnt
+  BEGIN
+    SET @d_id = dbo.dbm_csv_item(@d_ids, @i)
+    SET @no_o_id = NULL
+    SELECT @no_o_id = MIN(no_o_id) FROM new_order WITH (UPDLOCK)
+     WHERE no_d_id = @d_id AND no_w_id = @w_id
+    IF @no_o_id IS NOT NULL
+    BEGIN
+      DELETE FROM new_order WHERE no_d_id = @d_id AND no_w_id = @w_id AND no_o_id = @no_o_id
+      UPDATE oorder SET @c_id = o_c_id, o_carrier_id = @o_carrier_id
+       WHERE o_id = @no_o_id AND o_d_id = @d_id AND o_w_id = @w_id
+      UPDATE order_line SET ol_delivery_d = GETDATE()
+       WHERE ol_o_id = @no_o_id AND ol_d_id = @d_id AND ol_w_id = @w_id
+      SELECT @ol_total = SUM(ol_amount) FROM order_line
+       WHERE ol_o_id = @no_o_id AND ol_d_id = @d_id AND ol_w_id = @w_id
+      UPDATE customer SET c_balance = c_balance + @ol_total, c_delivery_cnt = c_delivery_cnt + 1
+       WHERE c_id = @c_id AND c_d_id = @d_id AND c_w_id = @w_id
+    END
+    SET @out_delivered = @out_delivered + 1
+    SET @i = @i + 1
+  END
+END
+GO
+
+CREATE OR ALTER PROCEDURE dbm_stock_level
+  @w_id            INT,
+  @d_id            INT,
+  @threshold       INT,
+  @out_stock_count INT OUTPUT
+AS
+BEGIN
+  SET NOCOUNT ON
+  DECLARE @o_id INT
+
+  SELECT @o_id = d_next_o_id FROM district WHERE d_w_id = @w_id AND d_id = @d_id
+  SELECT @out_stock_count = COUNT(DISTINCT (s_i_id))
+    FROM order_line, stock
+   WHERE ol_w_id = @w_id AND ol_d_id = @d_id
+     AND ol_o_id < @o_id AND ol_o_id >= @o_id - 20
+     AND s_w_id = @w_id AND s_i_id = ol_i_id AND s_quantity < @threshold
+END
+GO
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop arrival scheduler <BR>
+ *
+ * Generates transactions at a target rate per transaction type, with
+ * constant or Poisson (exponential) inter-arrival times, and queues them for
+ * the users. The rate does not depend on how fast the database answers: when
+ * it stalls, arrivals queue up, and the users measure response times from
+ * the intended start of each arrival, so the stall shows up in avg_rt and
+ * max_rt instead of lowering the offered load.
+ *
+ * @version 1.0
+ */
+public class ArrivalScheduler implements Config, Runnable {
+	public final static String CONSTANT = "constant", POISSON = "poisson";
+
+	/**
+	 * A transaction to run, intendedStart in nanoseconds as
+	 * System.nanoTime()
+	 */
+	public static final class Arrival {
+		public final int transaction;
+		public final long intendedStart;
+
+		private Arrival(int transaction, long intendedStart) {
+			this.transaction = transaction;
+			this.intendedStart = intendedStart;
+		}
+	}
+
+	/** mean inter-arrival time in ms, indexed by NEW_ORDER .. STOCK_LEVEL */
+	private double[] intervals = new double[STOCK_LEVEL + 1];
+	private boolean poisson;
+	private Random random = new Random(Util.genRandomSeed(System
+			.nanoTime()));
+	private LinkedBlockingQueue<Arrival> arrivals = new LinkedBlockingQueue<Arrival>();
+	private volatile boolean stopped = false;
+	private Thread thread = null;
+
+	/**
+	 * @param tpm
+	 *            target transactions per minute, indexed by NEW_ORDER ..
+	 *            STOCK_LEVEL, 0 for none
+	 * @param distribution
+	 *            CONSTANT or POISSON
+	 */
+	public ArrivalScheduler(double[] tpm, String distribution) {
+		for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+			intervals[i] = (tpm[i] > 0) ? 60000.0 / tpm[i] : 0;
+		}
+		this.poisson = !CONSTANT.equalsIgnoreCase(distribution);
+	}
+
+	public void start() {
+		thread = new Thread(this, "ArrivalScheduler");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() {
+		stopped = true;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * @return the next arrival, or null after timeoutMilliSecond
+	 */
+	public Arrival poll(long timeoutMilliSecond) throws InterruptedException {
+		return arrivals.poll(timeoutMilliSecond, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return arrivals waiting for a free user
+	 */
+	public int getBacklog() {
+		return arrivals.size();
+	}
+
+	public void run() {
+		// next arrivals in ms after start
+		long start = System.nanoTime();
+		double[] next = new double[STOCK_LEVEL + 1];
+		for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+			next[i] = nextInterval(i);
+		}
+		while (!stopped) {
+			int transaction = -1;
+			for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+				if (intervals[i] > 0
+						&& (transaction < 0 || next[i] < next[transaction])) {
+					transaction = i;
+				}
+			}
+			if (transaction < 0) {
+				return;
+			}
+			long intendedStart = start + (long) (next[transaction] * 1000000);
+			long wait = intendedStart - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+				continue;
+			}
+			// late arrivals keep their intended time, the schedule never drifts
+			arrivals.offer(new Arrival(transaction, intendedStart));
+			next[transaction] += nextInterval(transaction);
+		}
+	}
+
+	private double nextInterval(int transaction) {
+		if (!poisson) {
+			return intervals[transaction];
+		}
+		return -Math.log(1.0 - random.nextDouble()) * intervals[transaction];
+	}
+}
@@ -18,6 +18,10 @@ public interface Config {
 	public final static String VERSION = "1.0.0";
 	public final static int NEW_ORDER = 1, PAYMENT = 2, ORDER_STATUS = 3,
 			DELIVERY = 4, STOCK_LEVEL = 5;
+	public final static String[] transactionNames = { null, "New-Order",
+			"Payment", "Order-Status", "Delivery", "Stock-Level" };
+	/* New-Order item and stock reads: one row per query, IN-lists, or both compared */
+	public final static int LOOKUP_ROW = 0, LOOKUP_SET = 1, LOOKUP_VERIFY = 2;
 
 	public final static String[] nameTokens = { "BAR", "OUGHT", "ABLE", "PRI",
 			"PRES", "ESE", "ANTI", "CALLY", "ATION", "EING" };
@@ -34,21 +38,38 @@ public interface Config {
 	public final static int configDistPerWhse = 10;
 	public final static int configCustPerDist = 3000;
 
-	/* Interactive commands between the master and the slaves */
-	public final static String SOCK_GET_SLAVE_NAME = "SOCK_GET_SLAVE_NAME";
-	public final static String SOCK_GET_SLAVE_NAME_OK = "SOCK_GET_SLAVE_NAME_OK";
-	public final static String SOCK_GET_SLAVE_NAME_ERROR = "SOCK_GET_SLAVE_NAME_ERROR";
+	/* Interactive commands between the master and the slaves, the type of a Frame */
+	public final static byte SOCK_GET_SLAVE_NAME = 1;
+	public final static byte SOCK_GET_SLAVE_NAME_OK = 2;
+	public final static byte SOCK_GET_SLAVE_NAME_ERROR = 3;
 
-	public final static String SOCK_GET_USER_AND_WAREHOUSE = "SOCK_GET_USER_AND_WAREHOUSE";
-	public final static String SOCK_GET_USER_AND_WAREHOUSE_OK = "SOCK_GET_USER_AND_WAREHOUSE_OK";
-	public final static String SOCK_GET_USER_AND_WAREHOUSE_ERROR = "SOCK_GET_USER_AND_WAREHOUSE_ERROR";
+	public final static byte SOCK_GET_USER_AND_WAREHOUSE = 4;
+	public final static byte SOCK_GET_USER_AND_WAREHOUSE_OK = 5;
+	public final static byte SOCK_GET_USER_AND_WAREHOUSE_ERROR = 6;
 
-	public final static String SOCK_SEND_TRANSACTION_CONFIGS = "SOCK_SEND_TRANSACTION_CONFIGS";
-	public final static String SOCK_START_TRANSACTION = "SOCK_START_TRANSACTION";
-	public final static String SOCK_GET_TRANSACTION_COUNTERS = "SOCK_GET_TRANSACTION_COUNTERS";
-	public final static String SOCK_SIGNAL_WARMUP_PHASE_END = "SOCK_SIGNAL_WARMUP_PHASE_END";
-	public final static String SOCK_SIGNAL_RUN_END = "SOCK_SIGNAL_RUN_END";
+	public final static byte SOCK_SEND_TRANSACTION_CONFIGS = 7;
+	public final static byte SOCK_START_TRANSACTION = 8;
+	public final static byte SOCK_GET_TRANSACTION_COUNTERS = 9;
+	public final static byte SOCK_SIGNAL_WARMUP_PHASE_END = 10;
+	public final static byte SOCK_SIGNAL_RUN_END = 11;
+	/** pushed by the slaves, interval samples as IntervalSampler.getSamples() */
+	public final static byte SOCK_PUSH_SAMPLES = 12;
+	/** clock sync at the handshake, answered with the local time as a long */
+	public final static byte SOCK_SYNC_CLOCK = 13;
+	/** active users, then percents and think times, see LoadProfile.Stage */
+	public final static byte SOCK_SET_LOAD = 14;
+	/** open the pools, answered with the ms it took, connections open, size */
+	public final static byte SOCK_READY = 15;
 
-	public final static String REPORT_HEADER = "              timestamp          type         tpm      avg_rt      max_rt   avg_db_rt   max_db_rt\n";
-	public final static String REPORT_VALUE = "%23s  %12s  %10.2f  %10.2f  %10d  %10.2f  %10d\n";
+	/* Report rows, response times in milliseconds, percentiles of rt */
+	public final static String[] reportTypes = { "total", "new_order",
+			"payment", "order_status", "delivery", "stock_level" };
+	public final static String REPORT_HEADER = "              timestamp          type         tpm      avg_rt      max_rt   avg_db_rt   max_db_rt      p50_rt      p95_rt      p99_rt    p99.9_rt\n";
+	public final static String REPORT_VALUE = "%23s  %12s  %10.2f  %10.2f  %10.2f  %10.2f  %10.2f  %10.2f  %10.2f  %10.2f  %10.2f\n";
+	/* Connection pool rows of the same report, waits in milliseconds */
+	public final static String POOL_HEADER = "              timestamp    acquired    avg_wait    max_wait    p95_wait    p99_wait      in_use        idle     waiters        size    timeouts      broken\n";
+	public final static String POOL_VALUE = "%23s  %10d  %10.2f  %10.2f  %10.2f  %10.2f  %10d  %10d  %10d  %10d  %10d  %10d\n";
+	/* Time series rows of the report interval, comma separated */
+	public final static String SERIES_HEADER = "timestamp,type,tpm,avg_rt,max_rt,avg_db_rt,max_db_rt,p50_rt,p95_rt,p99_rt,p99.9_rt\n";
+	public final static String SERIES_VALUE = "%s,%s,%.2f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f\n";
 }
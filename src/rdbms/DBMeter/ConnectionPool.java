@@ -11,16 +11,38 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.LinkedList;
-import java.util.NoSuchElementException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Database Connection Pool <BR>
- * 
+ *
+ * The idle connections are kept in a lock-free queue, the checked out ones in
+ * a concurrent set, so both checkout and recycle are O(1). A fair semaphore
+ * holds one permit per connection: waiters are served in FIFO order and may
+ * give up after a timeout. Every connection may carry a prepared statement
+ * cache, see getStatementCache().
+ *
+ * Broken connections are replaced, so a run survives a database restart or
+ * failover: a connection returned after a failed transaction is validated
+ * and closed when dead, and once one is found dead every connection is
+ * validated at its next checkout. A health check thread validates the idle
+ * connections every healthCheckMilliSecond. New connections are opened on
+ * demand, or all at once by warmUp(); after a failed connect the next
+ * attempt waits, doubling from RECONNECT_MIN_MILLISECOND up to
+ * reconnectMaxMilliSecond, and only one thread at a time makes it.
+ *
  * NOTE: invoke destroy() before program termination
- * 
+ *
  * @version 1.0
- * 
+ *
  */
 public class ConnectionPool {
 	private String className;
@@ -28,92 +50,503 @@ public class ConnectionPool {
 	private String userName;
 	private String password;
 	private int maxConnections;
-	private int currentConnections = 0;
+	private long timeoutMilliSecond = 0;
+	private int statementCacheSize = 0;
+	private AtomicInteger currentConnections = new AtomicInteger(0);
+	private AtomicLong timeouts = new AtomicLong(0);
+	private AtomicLong broken = new AtomicLong(0);
+
+	private final static long RECONNECT_MIN_MILLISECOND = 100;
+	private final static int VALIDATION_TIMEOUT_SECOND = 5;
+	private long reconnectMaxMilliSecond = 5000;
+	/** 0 while connects succeed */
+	private volatile long reconnectBackoff = 0;
+	/** no connect attempt before, in ms */
+	private volatile long nextConnectTime = 0;
+	/** set while one thread probes the database after a failed connect */
+	private AtomicBoolean probing = new AtomicBoolean(false);
+	/** of the last failed connect, null when none failed */
+	private volatile String lastConnectError = null;
+
+	/** bumped when a dead connection is found, see validatedEpochs */
+	private AtomicLong brokenEpoch = new AtomicLong(0);
+	private ConcurrentHashMap<Connection, Long> validatedEpochs = new ConcurrentHashMap<Connection, Long>();
+	private Thread healthCheck = null;
 
 	/** store the connections recycled */
-	private LinkedList<Connection> pool = new LinkedList<Connection>();
+	private ConcurrentLinkedQueue<Connection> pool = new ConcurrentLinkedQueue<Connection>();
 
 	/** store the connections coming out of this pool */
-	private LinkedList<Connection> out = new LinkedList<Connection>();
+	private Set<Connection> out = Collections
+			.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+
+	/** one permit per connection not coming out of this pool, FIFO fair */
+	private Semaphore permits;
+
+	/** prepared statement cache of each connection */
+	private ConcurrentHashMap<Connection, StatementCache> statementCaches = new ConcurrentHashMap<Connection, StatementCache>();
 
 	public ConnectionPool(String className, String url, String userName,
 			String password, int maxConns) throws ClassNotFoundException {
+		this(className, url, userName, password, maxConns, 0, 0);
+	}
+
+	/**
+	 * @param timeoutMilliSecond
+	 *            how long getConnection() waits for a free connection, 0
+	 *            waits forever
+	 * @param statementCacheSize
+	 *            prepared statements cached per connection, 0 disables the
+	 *            cache
+	 */
+	public ConnectionPool(String className, String url, String userName,
+			String password, int maxConns, long timeoutMilliSecond,
+			int statementCacheSize) throws ClassNotFoundException {
 		Class.forName(className);
 		this.className = className;
 		this.url = url;
 		this.userName = userName;
 		this.password = password;
 		this.maxConnections = maxConns;
+		this.timeoutMilliSecond = timeoutMilliSecond;
+		this.statementCacheSize = statementCacheSize;
+		this.permits = new Semaphore(maxConns, true);
 	}
 
 	public Connection getConnection() {
-		Connection conn = null;
-		synchronized (pool) {
-			if (pool.size() > 0) {
-				conn = pool.remove();
+		return getConnection(timeoutMilliSecond);
+	}
+
+	/**
+	 * Get a connection, waiting at most timeoutMilliSecond (0 waits forever).
+	 *
+	 * @return the connection, or null when timed out or the connection can't
+	 *         be created
+	 */
+	public Connection getConnection(long timeoutMilliSecond) {
+		long deadline = System.currentTimeMillis() + timeoutMilliSecond;
+		try {
+			if (timeoutMilliSecond > 0) {
+				if (!permits.tryAcquire(timeoutMilliSecond,
+						TimeUnit.MILLISECONDS)) {
+					timeouts.incrementAndGet();
+					System.err.println(Thread.currentThread().getName()
+							+ " - Pool timeout after " + timeoutMilliSecond
+							+ " ms, Pool Size: " + maxConnections);
+					return null;
+				}
 			} else {
-				if (this.currentConnections < this.maxConnections) {
-					try {
-						conn = DriverManager.getConnection(url, userName,
-								password);
-						conn.setAutoCommit(false);		
-						if (className.endsWith("IfxDriver")) {
-							Statement stmt = conn.createStatement();
-							//COMMITTED READ;  DIRTY READ
-							stmt.execute("SET ISOLATION TO COMMITTED READ");
-							stmt.execute("SET LOCK MODE TO WAIT 15");
-							stmt.close();
-						}
-						this.currentConnections++;
-					} catch (SQLException e) {
-						System.out.println(e);
+				permits.acquire();
+			}
+		} catch (InterruptedException e) {
+			System.err.println(e);
+			Thread.currentThread().interrupt();
+			return null;
+		}
+
+		// holding a permit, so either an idle connection is queued or
+		// currentConnections < maxConnections
+		Connection conn = pool.poll();
+		while (conn != null && !isCurrent(conn)) {
+			conn = pool.poll();
+		}
+		if (conn == null) {
+			// the backoff may take what is left of the timeout
+			conn = newConnection(timeoutMilliSecond > 0 ? Math.max(1, deadline
+					- System.currentTimeMillis()) : 0);
+			if (conn == null) {
+				permits.release();
+				return null;
+			}
+		}
+		out.add(conn);
+		return conn;
+	}
+
+	/**
+	 * @return whether an idle connection can be used, validated if it may
+	 *         be broken; a dead one is closed
+	 */
+	private boolean isCurrent(Connection conn) {
+		long epoch = brokenEpoch.get();
+		Long validated = validatedEpochs.get(conn);
+		if (validated != null && validated.longValue() == epoch) {
+			return true;
+		}
+		if (!isValid(conn)) {
+			discard(conn);
+			return false;
+		}
+		validatedEpochs.put(conn, epoch);
+		return true;
+	}
+
+	private static boolean isValid(Connection conn) {
+		try {
+			return conn.isValid(VALIDATION_TIMEOUT_SECOND);
+		} catch (SQLException e) {
+			return false;
+		} catch (AbstractMethodError e) {
+			// a driver before JDBC 4
+			try {
+				return !conn.isClosed();
+			} catch (SQLException e1) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Close a dead connection, the next checkouts validate theirs.
+	 */
+	private void discard(Connection conn) {
+		broken.incrementAndGet();
+		brokenEpoch.incrementAndGet();
+		validatedEpochs.remove(conn);
+		StatementCache cache = statementCaches.remove(conn);
+		try {
+			if (cache != null) {
+				cache.close();
+			}
+			conn.close();
+		} catch (Exception e) {
+			// dead anyway
+		}
+		currentConnections.decrementAndGet();
+		System.err.println(Thread.currentThread().getName()
+				+ " - Pool closed a broken connection, open: "
+				+ currentConnections.get());
+	}
+
+	/**
+	 * Open a connection. After a failed connect one thread at a time probes
+	 * the database when the backoff is over, the others wait for it to
+	 * succeed, so a failover is not met by every user at once.
+	 *
+	 * @param timeoutMilliSecond
+	 *            how long to wait for the backoff and the probes of other
+	 *            threads, 0 waits until a connect succeeds; giving up counts
+	 *            as a timeout
+	 */
+	private Connection newConnection(long timeoutMilliSecond) {
+		long deadline = System.currentTimeMillis() + timeoutMilliSecond;
+		while (reconnectBackoff > 0) {
+			long now = System.currentTimeMillis();
+			if (now >= nextConnectTime && probing.compareAndSet(false, true)) {
+				try {
+					return connect();
+				} finally {
+					synchronized (probing) {
+						probing.set(false);
+						probing.notifyAll();
 					}
+				}
+			}
+			long wait = Math.max(1, nextConnectTime - now);
+			if (timeoutMilliSecond > 0) {
+				if (now >= deadline) {
+					timeouts.incrementAndGet();
+					System.err.println(Thread.currentThread().getName()
+							+ " - Pool timeout in the reconnect backoff, next connect in "
+							+ (nextConnectTime - now) + " ms");
+					return null;
+				}
+				wait = Math.min(wait, deadline - now);
+			}
+			try {
+				synchronized (probing) {
+					// woken by the end of a probe
+					probing.wait(wait);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		return connect();
+	}
+
+	/**
+	 * Connect, a failure starts or doubles the reconnect backoff.
+	 *
+	 * @return the connection, null when the connect failed
+	 */
+	private Connection connect() {
+		try {
+			Connection conn = openConnection();
+			reconnectBackoff = 0;
+			return conn;
+		} catch (SQLException e) {
+			long backoff;
+			synchronized (probing) {
+				long now = System.currentTimeMillis();
+				if (reconnectBackoff > 0 && now < nextConnectTime) {
+					// failed with others before the backoff they started
+					backoff = nextConnectTime - now;
 				} else {
-					try {
-						while (pool.size() <= 0) {
-							pool.wait();
+					backoff = Math.min(reconnectMaxMilliSecond, Math.max(
+							RECONNECT_MIN_MILLISECOND, reconnectBackoff * 2));
+					reconnectBackoff = backoff;
+					nextConnectTime = now + backoff;
+				}
+			}
+			System.out.println(e + ", next connect in " + backoff + " ms");
+			return null;
+		}
+	}
+
+	/**
+	 * Open a connection with its session setup and statement cache.
+	 */
+	private Connection openConnection() throws SQLException {
+		Connection conn = null;
+		try {
+			conn = DriverManager.getConnection(url, userName, password);
+			conn.setAutoCommit(false);
+			if (className.endsWith("IfxDriver")) {
+				Statement stmt = conn.createStatement();
+				//COMMITTED READ;  DIRTY READ
+				stmt.execute("SET ISOLATION TO COMMITTED READ");
+				stmt.execute("SET LOCK MODE TO WAIT 15");
+				stmt.close();
+			}
+			if (statementCacheSize > 0) {
+				statementCaches.put(conn, new StatementCache(conn,
+						statementCacheSize));
+			}
+			validatedEpochs.put(conn, brokenEpoch.get());
+			this.currentConnections.incrementAndGet();
+			return conn;
+		} catch (SQLException e) {
+			lastConnectError = e.toString();
+			if (conn != null) {
+				try {
+					conn.close();
+				} catch (SQLException e1) {
+					// not usable anyway
+				}
+			}
+			throw e;
+		}
+	}
+
+	public boolean recycle(Connection conn) {
+		return recycle(conn, false);
+	}
+
+	/**
+	 * Open the connections missing up to maxConnections with threads in
+	 * parallel, each with its session setup and statement cache, and keep
+	 * them idle. Warm-up does not wait for the reconnect backoff: a failed
+	 * connect is logged and not retried, the connection is opened on demand
+	 * later, and once as many connects failed in a row as there are
+	 * threads, the rest is given up.
+	 *
+	 * Only valid before the users start: the connections are queued idle
+	 * without taking permits, a concurrent getConnection() could open more
+	 * than maxConnections.
+	 *
+	 * @return connections open
+	 */
+	public int warmUp(int threads) throws InterruptedException {
+		if (!out.isEmpty()) {
+			throw new IllegalStateException(
+					"Pool warm-up with connections in use");
+		}
+		final AtomicInteger missing = new AtomicInteger(maxConnections
+				- currentConnections.get());
+		final AtomicInteger failedInRow = new AtomicInteger(0);
+		final Thread[] workers = new Thread[Math.max(1, Math.min(threads,
+				missing.get()))];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					while (missing.getAndDecrement() > 0) {
+						try {
+							pool.offer(openConnection());
+							failedInRow.set(0);
+						} catch (SQLException e) {
+							System.err.println(Thread.currentThread()
+									.getName()
+									+ " - Pool warm-up connect failed: " + e);
+							if (failedInRow.incrementAndGet() >= workers.length) {
+								missing.set(0);
+							}
 						}
-						conn = pool.remove();
-					} catch (InterruptedException e) {
-						System.err.println(e);
-					} catch (NoSuchElementException e1) {
-						System.err.println(Thread.currentThread().getName()
-								+ " - Pool Size: " + pool.size());
 					}
 				}
+			}, "PoolWarmUp-" + i);
+			workers[i].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		if (failedInRow.get() >= workers.length) {
+			System.err.println("Pool warm-up given up after "
+					+ failedInRow.get() + " failed connects in a row, "
+					+ currentConnections.get() + " of " + maxConnections
+					+ " connection(s) open");
+		}
+		return currentConnections.get();
+	}
+
+	/**
+	 * @param failed
+	 *            the transaction failed, validate the connection
+	 */
+	public boolean recycle(Connection conn, boolean failed) {
+		if (conn != null && out.remove(conn)) {
+			if (failed && !isValid(conn)) {
+				discard(conn);
+			} else {
+				pool.offer(conn);
 			}
-			out.add(conn);
-			return conn;
+			permits.release();
+			return true;
+		} else {
+			return false;
 		}
+	}
 
+	/**
+	 * Validate the idle connections every periodMilliSecond in a daemon
+	 * thread, until destroy().
+	 *
+	 * @param reconnectMaxMilliSecond
+	 *            longest wait between failed connects
+	 */
+	public void startHealthCheck(final long periodMilliSecond,
+			long reconnectMaxMilliSecond) {
+		this.reconnectMaxMilliSecond = Math.max(RECONNECT_MIN_MILLISECOND,
+				reconnectMaxMilliSecond);
+		if (periodMilliSecond <= 0) {
+			return;
+		}
+		healthCheck = new Thread(new Runnable() {
+			public void run() {
+				while (!Thread.currentThread().isInterrupted()) {
+					try {
+						Thread.sleep(periodMilliSecond);
+					} catch (InterruptedException e) {
+						break;
+					}
+					checkIdle();
+				}
+			}
+		}, "PoolHealthCheck");
+		healthCheck.setDaemon(true);
+		healthCheck.start();
 	}
 
-	public boolean recycle(Connection conn) {
-		synchronized (pool) {
-			if (out.remove(conn) == true) {
-				pool.add(conn);
-				pool.notify();
-				return true;
+	/**
+	 * Validate each idle connection once, holding a permit for it so the
+	 * users never open more than maxConnections meanwhile.
+	 */
+	private void checkIdle() {
+		for (int i = pool.size(); i > 0; i--) {
+			if (!permits.tryAcquire()) {
+				return;
+			}
+			Connection conn = pool.poll();
+			if (conn == null) {
+				permits.release();
+				return;
+			}
+			if (isValid(conn)) {
+				validatedEpochs.put(conn, brokenEpoch.get());
+				pool.offer(conn);
 			} else {
-				return false;
+				discard(conn);
 			}
+			permits.release();
 		}
 	}
 
+	/**
+	 * @return the error of the last failed connect, null when none failed
+	 */
+	public String getLastConnectError() {
+		return lastConnectError;
+	}
+
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	/**
+	 * @return connections closed as broken
+	 */
+	public long getBroken() {
+		return broken.get();
+	}
+
+	/**
+	 * @return connections coming out of this pool now
+	 */
+	public int getInUse() {
+		return out.size();
+	}
+
+	/**
+	 * @return connections recycled and not taken again
+	 */
+	public int getIdle() {
+		return pool.size();
+	}
+
+	/**
+	 * @return threads waiting for a connection, an estimate
+	 */
+	public int getWaiters() {
+		return permits.getQueueLength();
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * @return the statement cache of a connection coming out of this pool, or
+	 *         null when the cache is disabled
+	 */
+	public StatementCache getStatementCache(Connection conn) {
+		return statementCaches.get(conn);
+	}
+
+	/**
+	 * @return hits, misses and evictions summed over all statement caches
+	 */
+	public long[] getStatementCacheCounters() {
+		long[] counters = new long[3];
+		for (StatementCache cache : statementCaches.values()) {
+			counters[0] += cache.getHits();
+			counters[1] += cache.getMisses();
+			counters[2] += cache.getEvictions();
+		}
+		return counters;
+	}
+
 	public synchronized void destroy() {
+		if (healthCheck != null) {
+			healthCheck.interrupt();
+		}
 		Connection conn = null;
 		try {
-			while (this.currentConnections > 0) {
-				if (pool.size() > 0) {
-					// 2020-3-08 should rollback before close(); 
+			while (this.currentConnections.get() > 0) {
+				conn = pool.poll();
+				if (conn != null) {
+					// 2020-3-08 should rollback before close();
 					// Raise error: com.ibm.db2.jcc.am.SqlException: [jcc][t4][10251][10308][4.24.92] java.sql.Connection.close() requested while a transaction is in progress on the connection.
-					// pool.remove().close(); 
-					conn = pool.remove();
+					// pool.remove().close();
 					conn.rollback();
+					StatementCache cache = statementCaches.remove(conn);
+					if (cache != null) {
+						cache.close();
+					}
 					conn.close();
-					this.currentConnections--;
+					this.currentConnections.decrementAndGet();
 				} else {
-					//this.wait(); //not synchronized this.currentConnections maybe >0
+					//connections still out of the pool are left to their users
 					break;
 				}
 			}
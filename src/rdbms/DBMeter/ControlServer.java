@@ -0,0 +1,567 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Control plane of the master <BR>
+ *
+ * One selector thread serves all slave connections, there is no thread per
+ * slave. Every connection has a small read buffer that grows only for a
+ * large frame and shrinks again, and a write queue limited to
+ * MAX_QUEUED_BYTES; a slave that lets it overflow is disconnected.
+ *
+ * The master threads talk to the slaves with request(), which sends the
+ * frames of one round to all slaves at once and gathers the responses by
+ * the round id as they arrive, so the slowest slave and not the sum of all
+ * slaves bounds a poll. A round may have a deadline; a response that comes
+ * after it is passed to the Listener like any frame nobody waits for.
+ *
+ * Slaves of the same process connect through two pipes on the same
+ * selector instead of a socket, see connectLocal().
+ *
+ * @version 1.0
+ */
+public class ControlServer implements Runnable {
+	private final static int READ_BUFFER = 8 * 1024;
+	private final static int MAX_QUEUED_BYTES = 2 * Frame.MAX_LENGTH;
+	private final static int SYNC_ROUNDS = 8;
+
+	/**
+	 * A slave connection
+	 */
+	public static final class Connection {
+		private ReadableByteChannel in;
+		private WritableByteChannel out;
+		/** the key of in, and of out, the same one for a socket */
+		private SelectionKey key;
+		private SelectionKey writeKey;
+		private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER);
+		private ArrayDeque<ByteBuffer> writes = new ArrayDeque<ByteBuffer>();
+		private int queuedBytes = 0;
+		private volatile boolean open = true;
+		private String address;
+
+		private Connection(SocketChannel channel) {
+			this.in = channel;
+			this.out = channel;
+			this.address = String.valueOf(channel.socket()
+					.getRemoteSocketAddress());
+		}
+
+		private Connection(Pipe.SourceChannel in, Pipe.SinkChannel out,
+				String address) {
+			this.in = in;
+			this.out = out;
+			this.address = address;
+		}
+
+		public boolean isOpen() {
+			return open;
+		}
+
+		public String toString() {
+			return address;
+		}
+	}
+
+	/**
+	 * Receives the frames that no request waits for, on the selector thread
+	 */
+	public interface Listener {
+		public void received(Connection connection, Frame frame);
+	}
+
+	/**
+	 * The side of a local connection the slave uses, blocking
+	 */
+	private static final class LocalChannel implements ByteChannel {
+		private Pipe.SourceChannel in;
+		private Pipe.SinkChannel out;
+
+		private LocalChannel(Pipe.SourceChannel in, Pipe.SinkChannel out) {
+			this.in = in;
+			this.out = out;
+		}
+
+		public int read(ByteBuffer buffer) throws IOException {
+			return in.read(buffer);
+		}
+
+		public int write(ByteBuffer buffer) throws IOException {
+			return out.write(buffer);
+		}
+
+		public boolean isOpen() {
+			return in.isOpen() && out.isOpen();
+		}
+
+		public void close() throws IOException {
+			in.close();
+			out.close();
+		}
+	}
+
+	/**
+	 * The responses to one request of a round
+	 */
+	private static final class Round {
+		private Set<Connection> waiting;
+		private Map<Connection, Frame> responses = new HashMap<Connection, Frame>();
+
+		private Round(Collection<Connection> connections) {
+			waiting = new HashSet<Connection>(connections);
+		}
+
+		/**
+		 * @return false when the round does not wait for the connection
+		 */
+		private synchronized boolean deliver(Connection connection,
+				Frame frame) {
+			if (waiting.remove(connection)) {
+				responses.put(connection, frame);
+				notifyAll();
+				return true;
+			}
+			return false;
+		}
+
+		private synchronized void closed(Connection connection) {
+			if (waiting.remove(connection)) {
+				notifyAll();
+			}
+		}
+
+		/**
+		 * @param deadline
+		 *            System.nanoTime() to give up at, 0 waits for all
+		 */
+		private synchronized Map<Connection, Frame> await(long deadline)
+				throws InterruptedException {
+			while (!waiting.isEmpty()) {
+				if (deadline == 0) {
+					wait();
+					continue;
+				}
+				long left = deadline - System.nanoTime();
+				if (left <= 0) {
+					break;
+				}
+				wait(left / 1000000, (int) (left % 1000000));
+			}
+			// responses arriving from now on go to the listener
+			waiting.clear();
+			return new HashMap<Connection, Frame>(responses);
+		}
+	}
+
+	private Selector selector;
+	private ServerSocketChannel server;
+	private Thread thread = null;
+	private volatile boolean stopped = false;
+
+	private LinkedBlockingQueue<Connection> accepted = new LinkedBlockingQueue<Connection>();
+	/** local connections to register on the selector thread */
+	private ConcurrentLinkedQueue<Connection> registering = new ConcurrentLinkedQueue<Connection>();
+	private AtomicInteger locals = new AtomicInteger(0);
+	private ConcurrentLinkedQueue<Connection> writable = new ConcurrentLinkedQueue<Connection>();
+	private ConcurrentHashMap<Integer, Round> rounds = new ConcurrentHashMap<Integer, Round>();
+	private AtomicInteger nextId = new AtomicInteger(0);
+	private volatile Listener listener = null;
+
+	/**
+	 * @param port
+	 *            below 0 listens on no port, for local connections only
+	 */
+	public ControlServer(int port) throws IOException {
+		selector = Selector.open();
+		if (port < 0) {
+			return;
+		}
+		server = ServerSocketChannel.open();
+		server.socket().setReuseAddress(true);
+		server.socket().bind(new InetSocketAddress(port));
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	public void start() {
+		thread = new Thread(this, "ControlServer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void shutdown() {
+		stopped = true;
+		selector.wakeup();
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return the next new connection
+	 */
+	public Connection accept() throws InterruptedException {
+		return accepted.take();
+	}
+
+	/**
+	 * Connect a slave of the same process through two pipes, accept()
+	 * returns the connection like one of a socket.
+	 *
+	 * @return the blocking channel of the slave side
+	 */
+	public ByteChannel connectLocal() throws IOException {
+		Pipe down = Pipe.open();
+		Pipe up = Pipe.open();
+		up.source().configureBlocking(false);
+		down.sink().configureBlocking(false);
+		registering.add(new Connection(up.source(), down.sink(), "local-"
+				+ locals.incrementAndGet()));
+		selector.wakeup();
+		return new LocalChannel(down.source(), up.sink());
+	}
+
+	/**
+	 * Send a frame nobody waits a response for.
+	 */
+	public void send(Connection connection, Frame frame) {
+		enqueue(connection, frame.toByteBuffer(0));
+	}
+
+	public void send(Collection<Connection> connections, Frame frame) {
+		ByteBuffer buffer = frame.toByteBuffer(0);
+		for (Connection connection : connections) {
+			enqueue(connection, buffer.duplicate());
+		}
+	}
+
+	/**
+	 * Send one request and wait for its response.
+	 *
+	 * @return null when the connection closed first
+	 */
+	public Frame request(Connection connection, Frame frame)
+			throws InterruptedException {
+		HashMap<Connection, Frame> requests = new HashMap<Connection, Frame>();
+		requests.put(connection, frame);
+		return request(requests).get(connection);
+	}
+
+	/**
+	 * Send the same request to all connections, wait for all responses.
+	 *
+	 * @return the responses, closed connections are missing
+	 */
+	public Map<Connection, Frame> request(Collection<Connection> connections,
+			Frame frame) throws InterruptedException {
+		return request(connections, frame, 0);
+	}
+
+	/**
+	 * Send the same request to all connections, wait for the responses until
+	 * the timeout.
+	 *
+	 * @return the responses in time, late and closed connections are missing
+	 */
+	public Map<Connection, Frame> request(Collection<Connection> connections,
+			Frame frame, long timeoutMilliSecond) throws InterruptedException {
+		HashMap<Connection, Frame> requests = new HashMap<Connection, Frame>();
+		for (Connection connection : connections) {
+			requests.put(connection, frame);
+		}
+		return request(requests, timeoutMilliSecond);
+	}
+
+	/**
+	 * Send a request per connection as one round, wait for all responses.
+	 *
+	 * @return the responses, closed connections are missing
+	 */
+	public Map<Connection, Frame> request(Map<Connection, Frame> requests)
+			throws InterruptedException {
+		return request(requests, 0);
+	}
+
+	/**
+	 * Send a request per connection as one round, wait for the responses
+	 * until the timeout.
+	 *
+	 * @param timeoutMilliSecond
+	 *            0 waits for all responses
+	 * @return the responses in time, late and closed connections are missing
+	 */
+	public Map<Connection, Frame> request(Map<Connection, Frame> requests,
+			long timeoutMilliSecond) throws InterruptedException {
+		long deadline = timeoutMilliSecond <= 0 ? 0 : System.nanoTime()
+				+ timeoutMilliSecond * 1000000L;
+		int id = nextId.incrementAndGet();
+		if (id == 0) {
+			id = nextId.incrementAndGet();
+		}
+		Round round = new Round(requests.keySet());
+		rounds.put(id, round);
+		try {
+			HashMap<Frame, ByteBuffer> buffers = new HashMap<Frame, ByteBuffer>();
+			for (Map.Entry<Connection, Frame> request : requests.entrySet()) {
+				ByteBuffer buffer = buffers.get(request.getValue());
+				if (buffer == null) {
+					buffer = request.getValue().toByteBuffer(id);
+					buffers.put(request.getValue(), buffer);
+				}
+				if (!enqueue(request.getKey(), buffer.duplicate())) {
+					round.closed(request.getKey());
+				}
+			}
+			return round.await(deadline);
+		} finally {
+			rounds.remove(id);
+		}
+	}
+
+	/**
+	 * NTP-style estimate of the clock of the other side: SYNC_ROUNDS
+	 * SOCK_SYNC_CLOCK requests, the one with the shortest round trip wins and
+	 * its answer is taken as read half way through it.
+	 *
+	 * @return remote clock minus local clock in milliseconds
+	 */
+	public long measureClockOffset(Connection connection)
+			throws InterruptedException, IOException {
+		long bestRoundTrip = Long.MAX_VALUE;
+		long offset = 0;
+		for (int i = 0; i < SYNC_ROUNDS; i++) {
+			long sentMillis = System.currentTimeMillis();
+			long sent = System.nanoTime();
+			Frame response = request(connection, new Frame(
+					Config.SOCK_SYNC_CLOCK));
+			long roundTrip = System.nanoTime() - sent;
+			if (response == null) {
+				throw new IOException("Connection " + connection
+						+ " closed during clock sync");
+			}
+			long remote = response.getLong();
+			if (roundTrip < bestRoundTrip) {
+				bestRoundTrip = roundTrip;
+				offset = remote - (sentMillis + roundTrip / 2000000);
+			}
+		}
+		return offset;
+	}
+
+	public void close(Connection connection) {
+		synchronized (connection) {
+			connection.open = false;
+		}
+		writable.add(connection);
+		selector.wakeup();
+	}
+
+	public void run() {
+		while (!stopped) {
+			try {
+				selector.select();
+				Connection connection;
+				while ((connection = registering.poll()) != null) {
+					connection.key = ((SelectableChannel) connection.in)
+							.register(selector, SelectionKey.OP_READ,
+									connection);
+					connection.writeKey = ((SelectableChannel) connection.out)
+							.register(selector, 0, connection);
+					accepted.add(connection);
+				}
+				while ((connection = writable.poll()) != null) {
+					if (!connection.open) {
+						closeNow(connection);
+					} else if (connection.writeKey != null
+							&& connection.writeKey.isValid()) {
+						setWriting(connection, true);
+					}
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						acceptNow();
+						continue;
+					}
+					connection = (Connection) key.attachment();
+					try {
+						if (key.isReadable()) {
+							readNow(connection);
+						}
+						if (key.isValid() && key.isWritable()) {
+							writeNow(connection);
+						}
+					} catch (IOException e) {
+						System.err.println("Slave " + connection + ": "
+								+ e.getMessage());
+						closeNow(connection);
+					}
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		try {
+			for (SelectionKey key : selector.keys()) {
+				key.channel().close();
+			}
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return false when the connection is closed
+	 */
+	private boolean enqueue(Connection connection, ByteBuffer buffer) {
+		synchronized (connection) {
+			if (!connection.open) {
+				return false;
+			}
+			connection.queuedBytes += buffer.remaining();
+			if (connection.queuedBytes > MAX_QUEUED_BYTES) {
+				System.err.println("Slave " + connection
+						+ " does not read, disconnect it");
+				connection.open = false;
+			} else {
+				connection.writes.add(buffer);
+			}
+		}
+		writable.add(connection);
+		selector.wakeup();
+		return connection.open;
+	}
+
+	private void acceptNow() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Connection connection = new Connection(channel);
+		connection.key = channel.register(selector, SelectionKey.OP_READ,
+				connection);
+		connection.writeKey = connection.key;
+		accepted.add(connection);
+	}
+
+	private void readNow(Connection connection) throws IOException {
+		if (connection.in.read(connection.readBuffer) < 0) {
+			closeNow(connection);
+			return;
+		}
+		ByteBuffer buffer = connection.readBuffer;
+		buffer.flip();
+		Frame frame;
+		while ((frame = Frame.parse(buffer)) != null) {
+			Round round = frame.getId() == 0 ? null : rounds.get(frame
+					.getId());
+			if (round == null || !round.deliver(connection, frame)) {
+				Listener current = listener;
+				if (current != null) {
+					current.received(connection, frame);
+				}
+			}
+		}
+		int needed = Frame.frameSize(buffer);
+		if (needed > buffer.capacity()) {
+			// grow for one large frame only
+			ByteBuffer grown = ByteBuffer.allocate(needed);
+			grown.put(buffer);
+			connection.readBuffer = grown;
+		} else if (buffer.capacity() > READ_BUFFER && needed <= READ_BUFFER
+				&& buffer.remaining() <= READ_BUFFER) {
+			ByteBuffer shrunk = ByteBuffer.allocate(READ_BUFFER);
+			shrunk.put(buffer);
+			connection.readBuffer = shrunk;
+		} else {
+			buffer.compact();
+		}
+	}
+
+	private void writeNow(Connection connection) throws IOException {
+		synchronized (connection) {
+			while (!connection.writes.isEmpty()) {
+				ByteBuffer buffer = connection.writes.peek();
+				int written = connection.out.write(buffer);
+				connection.queuedBytes -= written;
+				if (buffer.hasRemaining()) {
+					return;
+				}
+				connection.writes.poll();
+			}
+			setWriting(connection, false);
+		}
+	}
+
+	private void setWriting(Connection connection, boolean writing) {
+		int write = writing ? SelectionKey.OP_WRITE : 0;
+		if (connection.writeKey == connection.key) {
+			connection.key.interestOps(SelectionKey.OP_READ | write);
+		} else {
+			connection.writeKey.interestOps(write);
+		}
+	}
+
+	private void closeNow(Connection connection) {
+		synchronized (connection) {
+			connection.open = false;
+			connection.writes.clear();
+			connection.queuedBytes = 0;
+		}
+		if (connection.key != null) {
+			connection.key.cancel();
+		}
+		if (connection.writeKey != null) {
+			connection.writeKey.cancel();
+		}
+		try {
+			connection.in.close();
+			connection.out.close();
+		} catch (IOException e) {
+			// already closed
+		}
+		for (Round round : rounds.values()) {
+			round.closed(connection);
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.io.IOException;
+import java.nio.channels.ByteChannel;
+import java.util.Properties;
+
+/**
+ * Master and slaves in one process <BR>
+ *
+ * Runs the master and a slave per slave properties file in the same JVM,
+ * connected through in-memory pipes of the ControlServer instead of
+ * sockets. The protocol, the users, the connection pools and the reports
+ * are the same as with separate processes; masterAddress, masterPort and
+ * listenPort are not used.
+ *
+ * @version 1.0
+ */
+public class Embedded {
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err
+					.println("USAGE: java DBMeter.Embedded [master properties file] [slave properties file]...");
+			System.exit(-1);
+		}
+		try {
+			Properties masterProperties = Util.loadProperties(args[0]);
+			ControlServer controlServer = new ControlServer(-1);
+			for (int i = 1; i < args.length; i++) {
+				final Properties slaveProperties = Util.loadProperties(args[i]);
+				final ByteChannel channel = controlServer.connectLocal();
+				// the constructor talks to the master, which starts below
+				new Thread(new Runnable() {
+					public void run() {
+						try {
+							new Slave(slaveProperties, channel).run();
+						} catch (IOException e) {
+							e.printStackTrace();
+						} catch (ClassNotFoundException e) {
+							e.printStackTrace();
+						}
+					}
+				}, "Slave-" + slaveProperties.getProperty("name")).start();
+			}
+			new Thread(new Master(masterProperties, controlServer), "Master")
+					.start();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.Timestamp;
+import java.util.Locale;
+
+/**
+ * Results appended to a local CSV file <BR>
+ *
+ * One line per result in the column order of DBMETER_RESULT. The file is
+ * only appended to and flushed per result, a report is a few lines a
+ * minute.
+ *
+ * @version 1.0
+ */
+public class FileResultSink extends ResultSink {
+	private final static String HEADER = "s_slave,s_phase,t_time,s_type,tpm,avg_rt,max_rt,num_total,warmup_total";
+
+	private String fileName;
+	private PrintStream printStream;
+
+	public FileResultSink(String fileName) throws IOException {
+		this.fileName = fileName;
+		this.printStream = new PrintStream(new FileOutputStream(fileName,
+				true));
+		printStream.println(HEADER);
+	}
+
+	public void add(String slave, String phase, Timestamp time, String type,
+			double tpm, double avgRt, double maxRt, long numTotal,
+			long warmupTotal) throws IOException {
+		printStream.println(String.format(Locale.US,
+				"%s,%s,%s,%s,%.2f,%.3f,%.3f,%d,%d", slave, phase, time, type,
+				tpm, avgRt, maxRt, numTotal, warmupTotal));
+		if (printStream.checkError()) {
+			throw new IOException("Cannot write " + fileName);
+		}
+	}
+
+	public void close() {
+		printStream.close();
+	}
+}
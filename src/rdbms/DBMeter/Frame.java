@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary frame of the master/slave protocol <BR>
+ *
+ * int length of the rest of the frame, byte VERSION, byte type (one of the
+ * SOCK_ commands of Config), int id, payload. A response carries the id of
+ * its request, 0 is a frame nobody waits for. Numbers in the payload are
+ * fixed size ints and longs or unsigned LEB128 varints, strings are a varint
+ * length and UTF-8 bytes.
+ *
+ * A frame is written once and read once; do not reuse a frame for another
+ * request while it may still be queued.
+ *
+ * @version 1.0
+ */
+public class Frame {
+	public final static byte VERSION = 1;
+	/** largest length field accepted, bounds the buffers */
+	public final static int MAX_LENGTH = 4 << 20;
+	/** length, version, type, id */
+	final static int HEADER = 10;
+
+	private byte type;
+	private int id = 0;
+	private byte[] bytes;
+	private int position;
+	private int limit;
+
+	public Frame(byte type) {
+		this.type = type;
+		this.bytes = new byte[64];
+		this.position = HEADER;
+	}
+
+	private Frame(byte type, int id, byte[] bytes) {
+		this.type = type;
+		this.id = id;
+		this.bytes = bytes;
+		this.position = 0;
+		this.limit = bytes.length;
+	}
+
+	public byte getType() {
+		return type;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public Frame putByte(int value) {
+		ensure(1);
+		bytes[position++] = (byte) value;
+		return this;
+	}
+
+	public Frame putInt(int value) {
+		ensure(4);
+		for (int shift = 24; shift >= 0; shift -= 8) {
+			bytes[position++] = (byte) (value >>> shift);
+		}
+		return this;
+	}
+
+	public Frame putLong(long value) {
+		ensure(8);
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			bytes[position++] = (byte) (value >>> shift);
+		}
+		return this;
+	}
+
+	public Frame putVarLong(long value) {
+		ensure(10);
+		while ((value & ~0x7FL) != 0) {
+			bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[position++] = (byte) value;
+		return this;
+	}
+
+	public Frame putDouble(double value) {
+		return putLong(Double.doubleToLongBits(value));
+	}
+
+	public Frame putString(String value) {
+		byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+		putVarLong(utf8.length);
+		ensure(utf8.length);
+		System.arraycopy(utf8, 0, bytes, position, utf8.length);
+		position += utf8.length;
+		return this;
+	}
+
+	/**
+	 * Append the unread payload of a received frame, to forward it. The
+	 * other frame can still be read.
+	 */
+	public Frame putRemaining(Frame other) {
+		int n = other.limit - other.position;
+		ensure(n);
+		System.arraycopy(other.bytes, other.position, bytes, position, n);
+		position += n;
+		return this;
+	}
+
+	public int getByte() throws IOException {
+		need(1);
+		return bytes[position++];
+	}
+
+	public int getInt() throws IOException {
+		need(4);
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			value = (value << 8) | (bytes[position++] & 0xFF);
+		}
+		return value;
+	}
+
+	public long getLong() throws IOException {
+		need(8);
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = (value << 8) | (bytes[position++] & 0xFF);
+		}
+		return value;
+	}
+
+	public long getVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			need(1);
+			byte b = bytes[position++];
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint in frame " + type);
+	}
+
+	public double getDouble() throws IOException {
+		return Double.longBitsToDouble(getLong());
+	}
+
+	public String getString() throws IOException {
+		long length = getVarLong();
+		if (length < 0 || length > limit - position) {
+			throw new IOException("Bad string length " + length
+					+ " in frame " + type);
+		}
+		String value = new String(bytes, position, (int) length,
+				StandardCharsets.UTF_8);
+		position += (int) length;
+		return value;
+	}
+
+	public boolean hasRemaining() {
+		return position < limit;
+	}
+
+	/**
+	 * @return the whole frame, header filled in with id
+	 */
+	ByteBuffer toByteBuffer(int id) {
+		this.id = id;
+		int length = position - 4;
+		int at = 0;
+		for (int shift = 24; shift >= 0; shift -= 8) {
+			bytes[at++] = (byte) (length >>> shift);
+		}
+		bytes[at++] = VERSION;
+		bytes[at++] = type;
+		for (int shift = 24; shift >= 0; shift -= 8) {
+			bytes[at++] = (byte) (id >>> shift);
+		}
+		return ByteBuffer.wrap(bytes, 0, position);
+	}
+
+	/**
+	 * Write the frame to a blocking stream and flush it.
+	 */
+	public void writeTo(OutputStream out, int id) throws IOException {
+		ByteBuffer buffer = toByteBuffer(id);
+		out.write(buffer.array(), 0, buffer.limit());
+		out.flush();
+	}
+
+	/**
+	 * Read the next frame from a blocking stream.
+	 */
+	public static Frame readFrom(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		checkLength(length);
+		byte version = in.readByte();
+		checkVersion(version);
+		byte type = in.readByte();
+		int id = in.readInt();
+		byte[] payload = new byte[length - (HEADER - 4)];
+		in.readFully(payload);
+		return new Frame(type, id, payload);
+	}
+
+	/**
+	 * Take the next frame out of a buffer in read mode.
+	 *
+	 * @return null when the frame is not complete yet, buffer unchanged
+	 */
+	static Frame parse(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < 4) {
+			return null;
+		}
+		int length = buffer.getInt(buffer.position());
+		checkLength(length);
+		if (buffer.remaining() < 4 + length) {
+			return null;
+		}
+		buffer.getInt();
+		checkVersion(buffer.get());
+		byte type = buffer.get();
+		int id = buffer.getInt();
+		byte[] payload = new byte[length - (HEADER - 4)];
+		buffer.get(payload);
+		return new Frame(type, id, payload);
+	}
+
+	/**
+	 * @return bytes needed for the frame starting at the buffer position, 0
+	 *         when the length is not there yet
+	 */
+	static int frameSize(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < 4) {
+			return 0;
+		}
+		int length = buffer.getInt(buffer.position());
+		checkLength(length);
+		return 4 + length;
+	}
+
+	private static void checkLength(int length) throws IOException {
+		if (length < HEADER - 4 || length > MAX_LENGTH) {
+			throw new IOException("Bad frame length " + length);
+		}
+	}
+
+	private static void checkVersion(byte version) throws IOException {
+		if (version != VERSION) {
+			throw new IOException("Unsupported frame version " + version);
+		}
+	}
+
+	private void ensure(int n) {
+		if (position + n > bytes.length) {
+			byte[] grown = new byte[Math.max(bytes.length * 2, position + n)];
+			System.arraycopy(bytes, 0, grown, 0, position);
+			bytes = grown;
+		}
+	}
+
+	private void need(int n) throws IOException {
+		if (position + n > limit) {
+			throw new IOException("Short frame " + type);
+		}
+	}
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+/**
+ * A wrong property or message of the slave and the relay <BR>
+ *
+ * @version 1.0
+ */
+class InteractiveException extends Exception {
+	private static final long serialVersionUID = -479663584643889568L;
+
+	public InteractiveException(String errorMessage) {
+		super(errorMessage);
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Interval sampler of a slave <BR>
+ *
+ * Runs on the clock of the master, the local clock minus the offset
+ * measured at the handshake. Takes the transaction counters at every
+ * multiple of the report interval, so the samples of all slaves line up,
+ * and keeps the last ones in a fixed-size ring buffer. A pusher thread
+ * sends the new samples to the master as SOCK_PUSH_SAMPLES frames; a slow
+ * connection delays the push but not the sampling, up to the size of the
+ * ring.
+ *
+ * The minutes are cut the same way, at every whole minute after the start
+ * instant, whether or not the interval sampling runs. takeMinute() returns
+ * the minutes cut up to the boundary the master asks for, so every slave
+ * reports exactly the same window however late the request arrives.
+ *
+ * @version 1.0
+ */
+public class IntervalSampler implements Config, Runnable {
+	private TransactionCounters counters;
+	private long intervalMilliSecond;
+
+	private TransactionCounters.Snapshot collected = new TransactionCounters.Snapshot();
+	private TransactionCounters.Snapshot open = new TransactionCounters.Snapshot();
+	private TransactionCounters.Snapshot minute = new TransactionCounters.Snapshot();
+	/** minutes cut and not taken yet */
+	private TransactionCounters.Snapshot closed = new TransactionCounters.Snapshot();
+	private long closedUntil = 0;
+	private long nextMinute = Long.MAX_VALUE;
+	/** local clock minus master clock */
+	private long offsetMilliSecond = 0;
+	/** closed samples, the latest at (sequence - 1) % ring.length */
+	private TransactionCounters.Snapshot[] ring;
+	private long sequence = 0;
+
+	/** timestamp of the last sample pushed */
+	private long pushed = 0;
+	private OutputStream out = null;
+
+	private volatile boolean stopped = false;
+	private Thread thread = null;
+	private Thread pusher = null;
+
+	/**
+	 * @param ringSize
+	 *            samples kept, 0 disables the interval sampling
+	 */
+	public IntervalSampler(TransactionCounters counters,
+			int intervalMilliSecond, int ringSize) {
+		this.counters = counters;
+		this.intervalMilliSecond = intervalMilliSecond;
+		this.ring = new TransactionCounters.Snapshot[ringSize];
+		for (int i = 0; i < ringSize; i++) {
+			ring[i] = new TransactionCounters.Snapshot();
+		}
+	}
+
+	/**
+	 * @param offsetMilliSecond
+	 *            local clock minus master clock
+	 */
+	public void setClock(long offsetMilliSecond) {
+		this.offsetMilliSecond = offsetMilliSecond;
+	}
+
+	/**
+	 * @return now on the clock of the master
+	 */
+	public long currentTimeMillis() {
+		return System.currentTimeMillis() - offsetMilliSecond;
+	}
+
+	/**
+	 * @param startTimestamp
+	 *            the start instant of the run on the clock of the master,
+	 *            minutes are cut every 60 seconds after it
+	 */
+	public void start(long startTimestamp) {
+		synchronized (this) {
+			closedUntil = startTimestamp;
+			nextMinute = startTimestamp + 60 * 1000L;
+		}
+		thread = new Thread(this, "IntervalSampler");
+		thread.setDaemon(true);
+		thread.start();
+		if (out != null && ring.length > 0) {
+			pusher = new Thread(new Runnable() {
+				public void run() {
+					push();
+				}
+			}, "IntervalSampler-push");
+			pusher.setDaemon(true);
+			pusher.start();
+		}
+	}
+
+	public void stop() {
+		stopped = true;
+		synchronized (this) {
+			notifyAll();
+		}
+		if (thread != null) {
+			thread.interrupt();
+		}
+		if (pusher != null) {
+			pusher.interrupt();
+		}
+	}
+
+	/**
+	 * @param out
+	 *            the master connection, written while holding its monitor
+	 */
+	public void setOutput(OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Wait until the minute ending at boundary is cut.
+	 *
+	 * @param spare
+	 *            a snapshot no longer used, taken over by the sampler
+	 * @param boundary
+	 *            end of the minute on the clock of the master
+	 * @return the counters of the minutes cut since the last call, the
+	 *         timestamp is the end of the last one
+	 */
+	public synchronized TransactionCounters.Snapshot takeMinute(
+			TransactionCounters.Snapshot spare, long boundary)
+			throws InterruptedException {
+		while (closedUntil < boundary && !stopped) {
+			wait();
+		}
+		TransactionCounters.Snapshot taken = closed;
+		taken.timestamp = closedUntil;
+		spare.reset();
+		closed = spare;
+		return taken;
+	}
+
+	/**
+	 * Write the number of samples after since, then each of them, oldest
+	 * first: the timestamp as a long and TransactionCounters.Snapshot
+	 * writeTo().
+	 *
+	 * @return the timestamp of the last sample written, or since
+	 */
+	public synchronized long getSamples(long since, Frame frame) {
+		long first = Math.max(0, sequence - ring.length);
+		int count = 0;
+		for (long i = first; i < sequence; i++) {
+			if (ring[(int) (i % ring.length)].timestamp > since) {
+				count++;
+			}
+		}
+		frame.putInt(count);
+		for (long i = first; i < sequence; i++) {
+			TransactionCounters.Snapshot sample = ring[(int) (i % ring.length)];
+			if (sample.timestamp > since) {
+				frame.putLong(sample.timestamp);
+				sample.writeTo(frame);
+				since = sample.timestamp;
+			}
+		}
+		return since;
+	}
+
+	public void run() {
+		long nextSample = ring.length == 0 ? Long.MAX_VALUE
+				: (currentTimeMillis() / intervalMilliSecond + 1)
+						* intervalMilliSecond;
+		while (!stopped) {
+			long now = currentTimeMillis();
+			long next = Math.min(nextSample, nextMinute);
+			if (next > now) {
+				try {
+					Thread.sleep(next - now);
+				} catch (InterruptedException e) {
+					return;
+				}
+				continue;
+			}
+			synchronized (this) {
+				collect();
+				if (nextSample <= now) {
+					open.timestamp = nextSample;
+					int slot = (int) (sequence % ring.length);
+					TransactionCounters.Snapshot free = ring[slot];
+					ring[slot] = open;
+					free.reset();
+					open = free;
+					sequence++;
+				}
+				if (nextMinute <= now) {
+					closed.add(minute);
+					minute.reset();
+					// after a stall, the minutes missed are cut together
+					while (nextMinute <= now) {
+						closedUntil = nextMinute;
+						nextMinute += 60 * 1000L;
+					}
+				}
+				notifyAll();
+			}
+			// after a stall, skip the boundaries that were missed
+			while (nextSample <= now) {
+				nextSample += intervalMilliSecond;
+			}
+		}
+	}
+
+	private void push() {
+		while (!stopped) {
+			Frame frame = new Frame(SOCK_PUSH_SAMPLES);
+			synchronized (this) {
+				try {
+					while (!stopped
+							&& (sequence == 0 || ring[(int) ((sequence - 1) % ring.length)].timestamp <= pushed)) {
+						wait();
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				pushed = getSamples(pushed, frame);
+			}
+			try {
+				synchronized (out) {
+					frame.writeTo(out, 0);
+				}
+			} catch (IOException e) {
+				// the master is gone, the slave notices it on its own
+				return;
+			}
+		}
+	}
+
+	private void collect() {
+		counters.snapshot(collected);
+		open.add(collected);
+		minute.add(collected);
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.io.IOException;
+
+/**
+ * Log-bucketed latency histogram <BR>
+ *
+ * Values are microseconds. Values below 64 get one bucket each, above that
+ * every power of two is split into 32 buckets, so a percentile is at most
+ * 1/32 (about 3%) above the true value. The buckets are allocated once and
+ * record() allocates nothing; values above MAX_VALUE (about 38 hours) are
+ * counted as MAX_VALUE.
+ *
+ * Not thread safe, the owner synchronizes. Histograms merge losslessly with
+ * add(), which is how the master sums the slaves.
+ *
+ * @version 1.0
+ */
+public class LatencyHistogram {
+	private final static int SUB_BITS = 5;
+	private final static int SUB_COUNT = 1 << SUB_BITS;
+	private final static int HIGHEST_BIT = 36;
+	public final static long MAX_VALUE = (1L << (HIGHEST_BIT + 1)) - 1;
+	final static int BUCKETS = ((HIGHEST_BIT - SUB_BITS) << SUB_BITS)
+			+ 2 * SUB_COUNT;
+
+	private long[] counts = new long[BUCKETS];
+	private long count = 0;
+
+	/**
+	 * @return empty histograms, e.g. one per entry of Config.reportTypes
+	 */
+	public static LatencyHistogram[] newArray(int length) {
+		LatencyHistogram[] histograms = new LatencyHistogram[length];
+		for (int i = 0; i < length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+		return histograms;
+	}
+
+	public void record(long value) {
+		counts[bucket(value)]++;
+		count++;
+	}
+
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+	}
+
+	/**
+	 * Add n values to a bucket, for recorders that count the buckets
+	 * themselves, see TransactionCounters.
+	 */
+	void addBucket(int bucket, long n) {
+		counts[bucket] += n;
+		count += n;
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = 0;
+		}
+		count = 0;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @param percentile
+	 *            0 .. 100, e.g. 99.9
+	 * @return upper bound of the bucket holding the percentile, 0 when empty
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile / 100.0 * count);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return upperBound(i);
+			}
+		}
+		return MAX_VALUE;
+	}
+
+	/**
+	 * Write the non-empty buckets: their number, then per bucket the distance
+	 * to the previous one and the count, all varints.
+	 */
+	public void writeTo(Frame frame) {
+		int buckets = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			if (counts[i] != 0) {
+				buckets++;
+			}
+		}
+		frame.putVarLong(buckets);
+		int previous = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			if (counts[i] != 0) {
+				frame.putVarLong(i - previous).putVarLong(counts[i]);
+				previous = i;
+			}
+		}
+	}
+
+	/**
+	 * Add a histogram written by writeTo().
+	 */
+	public void addFrom(Frame frame) throws IOException {
+		long buckets = frame.getVarLong();
+		int bucket = 0;
+		for (long i = 0; i < buckets; i++) {
+			bucket += (int) frame.getVarLong();
+			if (bucket >= BUCKETS) {
+				throw new IOException("Bad histogram bucket " + bucket);
+			}
+			addBucket(bucket, frame.getVarLong());
+		}
+	}
+
+	static int bucket(long value) {
+		if (value < 0) {
+			value = 0;
+		} else if (value > MAX_VALUE) {
+			value = MAX_VALUE;
+		}
+		if (value < 2 * SUB_COUNT) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return (shift << SUB_BITS) + (int) (value >>> shift);
+	}
+
+	private static long upperBound(int bucket) {
+		if (bucket < 2 * SUB_COUNT) {
+			return bucket;
+		}
+		int shift = (bucket >>> SUB_BITS) - 1;
+		long mantissa = bucket - (shift << SUB_BITS);
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Load profile of a run <BR>
+ *
+ * Stages separated by ";", each a minute since the start and commands
+ * separated by ",":
+ *
+ * users=N, users=+N, users=-N: active users of all slaves
+ *
+ * ramp=TO/STEP/MINUTES: STEP more users every MINUTES minutes up to TO,
+ * until a later users, pause, resume or ramp
+ *
+ * pause, resume: no active users, back to the users before the pause
+ *
+ * mix=NO/PAY/OS/DEL/SL: transaction percents
+ *
+ * think=NO/PAY/OS/DEL/SL: think times in milliseconds
+ *
+ * For example "0:users=50;2:ramp=300/50/2;14:mix=60/30/4/3/3". A stage
+ * starts at its minute boundary and keeps the state of the stage before
+ * for what it does not change. Percents and think times are in the order
+ * of SOCK_SEND_TRANSACTION_CONFIGS: New-Order, Payment, Order-Status,
+ * Delivery, Stock-Level.
+ *
+ * @version 1.0
+ */
+public class LoadProfile implements Config {
+
+	/**
+	 * The load from a minute on
+	 */
+	public static final class Stage {
+		public final int number;
+		public final int minute;
+		public final int users;
+		public final int[] percents;
+		public final int[] thinks;
+
+		private Stage(int number, int minute, int users, int[] percents,
+				int[] thinks) {
+			this.number = number;
+			this.minute = minute;
+			this.users = users;
+			this.percents = percents.clone();
+			this.thinks = thinks.clone();
+		}
+
+		/**
+		 * @return the next stage, the same but for the active users
+		 */
+		public Stage withUsers(int users, int minute) {
+			return new Stage(number + 1, minute, users, percents, thinks);
+		}
+
+		/**
+		 * @return a SOCK_SET_LOAD frame for a slave running users of the
+		 *         active users
+		 */
+		public Frame toFrame(int users) {
+			Frame frame = new Frame(SOCK_SET_LOAD).putInt(users);
+			for (int percent : percents) {
+				frame.putInt(percent);
+			}
+			for (int think : thinks) {
+				frame.putInt(think);
+			}
+			return frame;
+		}
+
+		public String toString() {
+			return "stage " + number + " from minute " + minute + ": users="
+					+ users + ", mix=" + join(percents) + ", think="
+					+ join(thinks);
+		}
+	}
+
+	private ArrayList<Stage> stages = new ArrayList<Stage>();
+
+	/**
+	 * @param users
+	 *            users of all slaves, the most that can be active
+	 * @param percents
+	 *            and thinks, the configured ones of the first stage
+	 * @throws IllegalArgumentException
+	 *             for a malformed profile
+	 */
+	public LoadProfile(String profile, int users, int[] percents,
+			int[] thinks, int runMinutes) {
+		// one event per minute and command
+		ArrayList<String[]> events = new ArrayList<String[]>();
+		for (String stage : profile.split(";")) {
+			stage = stage.trim();
+			if (stage.length() == 0) {
+				continue;
+			}
+			int colon = stage.indexOf(':');
+			if (colon < 0) {
+				throw new IllegalArgumentException("No minute in stage "
+						+ stage);
+			}
+			int minute = Integer.parseInt(stage.substring(0, colon).trim());
+			for (String command : stage.substring(colon + 1).split(",")) {
+				events.add(new String[] { String.valueOf(minute),
+						command.trim() });
+			}
+		}
+		// stable, the commands of one minute keep their order
+		Collections.sort(events, new Comparator<String[]>() {
+			public int compare(String[] a, String[] b) {
+				return Integer.parseInt(a[0]) - Integer.parseInt(b[0]);
+			}
+		});
+
+		int active = users, beforePause = users;
+		int[] mix = percents.clone(), think = thinks.clone();
+		// the ramp going on, until TO or the next users, pause, resume or
+		// ramp; rampStep 0 without one
+		int rampTo = 0, rampStep = 0, rampMinutes = 0, rampNext = 0;
+		int i = 0;
+		int minute = 0;
+		while (true) {
+			while (i < events.size() && Integer.parseInt(events.get(i)[0]) == minute) {
+				String command = events.get(i++)[1];
+				if (command.startsWith("users=")) {
+					String value = command.substring(6).trim();
+					if (value.startsWith("+") || value.startsWith("-")) {
+						active += Integer.parseInt(value.replace("+", ""));
+					} else {
+						active = Integer.parseInt(value);
+					}
+					rampStep = 0;
+				} else if (command.startsWith("ramp=")) {
+					int[] ramp = parseNumbers(command.substring(5), 3);
+					if (ramp[1] <= 0 || ramp[2] <= 0) {
+						throw new IllegalArgumentException("Bad " + command);
+					}
+					rampTo = Math.min(users, ramp[0]);
+					rampStep = ramp[1];
+					rampMinutes = ramp[2];
+					rampNext = minute;
+				} else if (command.equals("pause")) {
+					beforePause = active;
+					active = 0;
+					rampStep = 0;
+				} else if (command.equals("resume")) {
+					active = beforePause;
+					rampStep = 0;
+				} else if (command.startsWith("mix=")) {
+					mix = parseNumbers(command.substring(4), 5);
+					int sum = 0;
+					for (int percent : mix) {
+						sum += percent;
+					}
+					if (sum != 100) {
+						throw new IllegalArgumentException(command
+								+ " does not add up to 100");
+					}
+				} else if (command.startsWith("think=")) {
+					think = parseNumbers(command.substring(6), 5);
+				} else {
+					throw new IllegalArgumentException("Unknown command "
+							+ command);
+				}
+			}
+			if (rampStep > 0 && rampNext == minute) {
+				if (active < rampTo) {
+					active = Math.min(rampTo, active + rampStep);
+				}
+				rampNext = minute + rampMinutes;
+				if (active >= rampTo) {
+					rampStep = 0;
+				}
+			}
+			active = Math.max(0, Math.min(users, active));
+			// a ramp at its end changes nothing, no stage for it
+			Stage last = stages.isEmpty() ? null : stages.get(stages.size() - 1);
+			if (last == null || last.users != active
+					|| !Arrays.equals(last.percents, mix)
+					|| !Arrays.equals(last.thinks, think)) {
+				stages.add(new Stage(stages.size() + 1, minute, active, mix,
+						think));
+			}
+			int next = Integer.MAX_VALUE;
+			if (i < events.size()) {
+				next = Integer.parseInt(events.get(i)[0]);
+			}
+			if (rampStep > 0) {
+				next = Math.min(next, rampNext);
+			}
+			if (next == Integer.MAX_VALUE || next >= runMinutes) {
+				break;
+			}
+			minute = next;
+		}
+	}
+
+	/**
+	 * @return the stage starting at the minute boundary, null if none
+	 */
+	public Stage getStage(int minute) {
+		for (Stage stage : stages) {
+			if (stage.minute == minute) {
+				return stage;
+			}
+		}
+		return null;
+	}
+
+	public ArrayList<Stage> getStages() {
+		return stages;
+	}
+
+	/**
+	 * Split active users over the slaves in proportion to the users they
+	 * have, the rest one by one to the slaves with the most left over.
+	 */
+	public static <K> Map<K, Integer> split(int active, Map<K, Integer> users) {
+		HashMap<K, Integer> shares = new HashMap<K, Integer>();
+		int total = 0;
+		for (int count : users.values()) {
+			total += count;
+		}
+		int left = active;
+		for (Map.Entry<K, Integer> slave : users.entrySet()) {
+			int share = total == 0 ? 0 : (int) ((long) active
+					* slave.getValue() / total);
+			shares.put(slave.getKey(), share);
+			left -= share;
+		}
+		while (left > 0) {
+			K most = null;
+			for (Map.Entry<K, Integer> slave : users.entrySet()) {
+				int free = slave.getValue() - shares.get(slave.getKey());
+				if (free > 0
+						&& (most == null || free > users.get(most)
+								- shares.get(most))) {
+					most = slave.getKey();
+				}
+			}
+			if (most == null) {
+				break;
+			}
+			shares.put(most, shares.get(most) + 1);
+			left--;
+		}
+		return shares;
+	}
+
+	private static int[] parseNumbers(String value, int count) {
+		String[] parts = value.split("/");
+		if (parts.length != count) {
+			throw new IllegalArgumentException("Expect " + count
+					+ " numbers separated by / in " + value);
+		}
+		int[] numbers = new int[count];
+		for (int i = 0; i < count; i++) {
+			numbers[i] = Integer.parseInt(parts[i].trim());
+			if (numbers[i] < 0) {
+				throw new IllegalArgumentException("Negative number in "
+						+ value);
+			}
+		}
+		return numbers;
+	}
+
+	private static String join(int[] values) {
+		StringBuilder joined = new StringBuilder();
+		for (int value : values) {
+			if (joined.length() > 0) {
+				joined.append('/');
+			}
+			joined.append(value);
+		}
+		return joined.toString();
+	}
+}
@@ -7,18 +7,17 @@
  */
 package rdbms.DBMeter;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.PrintStream;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.sql.Timestamp;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Master thread to control over slaves
@@ -29,11 +28,11 @@ public class Master implements Config, Runnable {
 
 	private PrintStream printStreamLogs = null;
 
-	private ServerSocket master = null;
+	private ControlServer controlServer = null;
 
 	// Configuration
 
-	private HashMap<String, Socket> slaves = null;
+	private HashMap<String, ControlServer.Connection> slaves = null;
 
 	private int userCount = 0;
 	private int warehousesCount = 0;
@@ -43,6 +42,48 @@ public class Master implements Config, Runnable {
 	private long startTimestamp = 0;
 	private long warmupTimestamp = 0;
 	private int executeMinutes = 0;
+	private int reportIntervalMilliSecond = 60 * 1000;
+	private volatile SeriesCollector seriesCollector = null;
+	/** null without metricsPort */
+	private MetricsServer metricsServer = null;
+	/** null with an empty resultsDir */
+	private ResultWriter resultWriter = null;
+	/** null with outagePercent=0 */
+	private RecoveryMonitor recoveryMonitor = null;
+	private int pollTimeoutMilliSecond = 5000;
+	/** time the slaves get between SOCK_START_TRANSACTION and the start */
+	private final static long START_LEAD_MILLISECOND = 2000;
+
+	/** cumulative counters last received per slave, as readCounters() */
+	private HashMap<ControlServer.Connection, long[]> slaveCounters = new HashMap<ControlServer.Connection, long[]>();
+	/** the last connection pool statistics of each slave */
+	private HashMap<ControlServer.Connection, PoolStats> slavePools = new HashMap<ControlServer.Connection, PoolStats>();
+	/** of the last minute, the minute before and the warmup end */
+	private PoolStats pool = new PoolStats();
+	private PoolStats poolLast = new PoolStats();
+	private PoolStats poolWarmup = new PoolStats();
+	/** waits for a pooled connection of the run phase */
+	private PoolStats poolRun = new PoolStats();
+	/** counters responses received after the deadline of their poll */
+	private ConcurrentLinkedQueue<Map.Entry<ControlServer.Connection, Frame>> lateResponses = new ConcurrentLinkedQueue<Map.Entry<ControlServer.Connection, Frame>>();
+	/** users per slave, to split the active users of a load stage */
+	private HashMap<ControlServer.Connection, Integer> slaveUsers = new HashMap<ControlServer.Connection, Integer>();
+
+	/** null without a loadProfile */
+	private LoadProfile loadProfile = null;
+	private LoadProfile.Stage stage = null;
+	/** the minute boundary the stage is measured from */
+	private int stageFrom = 0;
+	/** null without searchStepMinutes, then the stages are chosen by it */
+	private SaturationSearch saturationSearch = null;
+	private int searchStepMinutes = 0;
+	private int slaType = 0;
+	private double slaPercentile = 95;
+	/** counters at the start of the stage and maximums since, as readCounters() */
+	private long[] stageStart = null;
+	private long[] stageMax = new long[30];
+	private LatencyHistogram[] rt_histograms_stage = LatencyHistogram
+			.newArray(reportTypes.length);
 
 	private int newOrderPercent = 0;
 	private int paymentPercent = 0;
@@ -146,78 +187,141 @@ public class Master implements Config, Runnable {
 	private long new_order_dbtime_total_last = 0;
 	private long new_order_dbtime_max_last = 0;
 
+	// Failed transactions of payment, stock_level, order_status, delivery
+	// and new_order
+
+	private long[] failed_total = new long[5];
+	private long[] failed_warmup = new long[5];
+	private long[] failed_total_last = new long[5];
+
 	private long trans_total = 0, warmup_total = 0, run_total = 0;
 
+	/** response times in microseconds of all slaves, of the last minute and of the run phase, indexed by reportTypes */
+	private LatencyHistogram[] rt_histograms_last = LatencyHistogram
+			.newArray(reportTypes.length);
+	private LatencyHistogram[] rt_histograms_run = LatencyHistogram
+			.newArray(reportTypes.length);
+
 	private void logMessage(String message) {
 		printStreamLogs.println(message);
 		System.out.println(message);
 	}
 
 	public Master(String propertiesFile) throws IOException {
+		this(Util.loadProperties(propertiesFile), null);
+	}
+
+	/**
+	 * @param controlServer
+	 *            with the slaves of the same process connected, see
+	 *            Embedded, null listens on listenPort
+	 */
+	public Master(Properties properties, ControlServer controlServer)
+			throws IOException {
 
 		this.printStreamLogs = new PrintStream(new FileOutputStream(
 				"log/log_master_" + Util.getFileNameSuffix() + ".txt"));
 
-		// Create properties
-		Properties properties = new Properties();
-		properties.load(new FileInputStream(propertiesFile));
-
 		// Create Listen Socket
-		logMessage("Creating listen socket");
-		int listenPort = Integer.parseInt(properties.getProperty("listenPort"));
-		this.master = new ServerSocket(listenPort);
-		logMessage("Listening on " + listenPort);
-
-		// Connect to Slaves
-		logMessage("Waiting slaves to be connected.");
-		String[] slaveNames = properties.getProperty("slaves").split(",");
-		this.slaves = new HashMap<String, Socket>();
-		while (this.slaves.size() != slaveNames.length) {
-			Socket slave = master.accept();
-			BufferedReader response = new BufferedReader(new InputStreamReader(
-					slave.getInputStream()));
-			DataOutputStream request = new DataOutputStream(slave
-					.getOutputStream());
-			request.writeBytes(SOCK_GET_SLAVE_NAME + "\n");
-			String name = response.readLine();
-			boolean rightName = false;
-			for (String slaveName : slaveNames) {
-				if (slaveName.equalsIgnoreCase(name)) {
-					rightName = true;
-					break;
+		if (controlServer == null) {
+			logMessage("Creating listen socket");
+			int listenPort = Integer.parseInt(properties
+					.getProperty("listenPort"));
+			controlServer = new ControlServer(listenPort);
+			logMessage("Listening on " + listenPort);
+		}
+		this.controlServer = controlServer;
+		controlServer.setListener(new ControlServer.Listener() {
+			public void received(ControlServer.Connection connection,
+					Frame frame) {
+				if (frame.getType() == SOCK_GET_TRANSACTION_COUNTERS) {
+					lateResponses
+							.add(new AbstractMap.SimpleEntry<ControlServer.Connection, Frame>(
+									connection, frame));
+				} else if (frame.getType() == SOCK_PUSH_SAMPLES) {
+					SeriesCollector collector = seriesCollector;
+					if (collector != null) {
+						try {
+							collector.received(connection, frame);
+						} catch (IOException e) {
+							System.err.println("Series: " + e.getMessage());
+						}
+					}
 				}
 			}
-			if (rightName == true && !slaves.containsKey(name)) {
-				slaves.put(name, slave);
-				request.writeBytes(SOCK_GET_SLAVE_NAME_OK + "\n");
-				logMessage(name + " connected.");
-				request.writeBytes(properties.getProperty("runMinutes") + "\n");
-				request.writeBytes(properties.getProperty("warmupMinutes") + "\n");
-			} else {
-				request.writeBytes(SOCK_GET_SLAVE_NAME_ERROR + "\n");
-				response.close();
-				request.close();
-				slave.close();
+		});
+		controlServer.start();
+
+		try {
+			// Connect to Slaves
+			logMessage("Waiting slaves to be connected.");
+			String[] slaveNames = properties.getProperty("slaves").split(",");
+			this.slaves = new HashMap<String, ControlServer.Connection>();
+			while (this.slaves.size() != slaveNames.length) {
+				ControlServer.Connection slave = controlServer.accept();
+				Frame response = controlServer.request(slave, new Frame(
+						SOCK_GET_SLAVE_NAME));
+				if (response == null) {
+					continue;
+				}
+				String name = response.getString();
+				boolean rightName = false;
+				for (String slaveName : slaveNames) {
+					if (slaveName.equalsIgnoreCase(name)) {
+						rightName = true;
+						break;
+					}
+				}
+				if (rightName == true && !slaves.containsKey(name)) {
+					long offset;
+					try {
+						offset = controlServer.measureClockOffset(slave);
+					} catch (IOException e) {
+						logMessage(e.getMessage());
+						controlServer.send(slave, new Frame(
+								SOCK_GET_SLAVE_NAME_ERROR));
+						controlServer.close(slave);
+						continue;
+					}
+					slaves.put(name, slave);
+					controlServer.send(slave, new Frame(SOCK_GET_SLAVE_NAME_OK)
+							.putInt(Integer.parseInt(properties
+									.getProperty("runMinutes")))
+							.putInt(Integer.parseInt(properties
+									.getProperty("warmupMinutes")))
+							.putLong(offset));
+					logMessage(name + " connected, clock offset " + offset
+							+ " ms.");
+				} else {
+					controlServer.send(slave, new Frame(
+							SOCK_GET_SLAVE_NAME_ERROR));
+					controlServer.close(slave);
+				}
 			}
-		}
-		logMessage("All slaves are connected");
-
-		// Get user and warehouse properties
-		logMessage("Sync properties with slaves");
-		for (Socket slave : this.slaves.values()) {
-			BufferedReader response = new BufferedReader(new InputStreamReader(
-					slave.getInputStream()));
-			DataOutputStream request = new DataOutputStream(slave
-					.getOutputStream());
-			request.writeBytes(SOCK_GET_USER_AND_WAREHOUSE + "\n");
-			String[] counts = response.readLine().split(",");
-			if (counts.length == 2) {
-				this.userCount += Integer.parseInt(counts[0]);
-				this.warehousesCount += Integer.parseInt(counts[1]);
-				request.writeBytes(SOCK_GET_USER_AND_WAREHOUSE_OK + "\n");
-			} else {
-				request.writeBytes(SOCK_GET_USER_AND_WAREHOUSE_ERROR + "\n");
+			logMessage("All slaves are connected");
+
+			// Get user and warehouse properties
+			logMessage("Sync properties with slaves");
+			Map<ControlServer.Connection, Frame> responses = controlServer
+					.request(this.slaves.values(), new Frame(
+							SOCK_GET_USER_AND_WAREHOUSE));
+			for (Map.Entry<ControlServer.Connection, Frame> response : responses
+					.entrySet()) {
+				try {
+					int users = response.getValue().getInt();
+					int warehouses = response.getValue().getInt();
+					this.userCount += users;
+					this.warehousesCount += warehouses;
+					slaveUsers.put(response.getKey(), users);
+					controlServer.send(response.getKey(), new Frame(
+							SOCK_GET_USER_AND_WAREHOUSE_OK));
+				} catch (IOException e) {
+					controlServer.send(response.getKey(), new Frame(
+							SOCK_GET_USER_AND_WAREHOUSE_ERROR));
+				}
 			}
+		} catch (InterruptedException e) {
+			throw new IOException(e);
 		}
 
 		// get run time properties
@@ -246,54 +350,164 @@ public class Master implements Config, Runnable {
 				.getProperty("deliveryThinkMilliSecond"));
 		this.stockLevelThinkMilliSecond = Integer.parseInt(properties
 				.getProperty("stockLevelThinkMilliSecond"));
-		String transactionConfig = String.format(
-				"%d,%d,%d,%d,%d,%d,%d,%d,%d,%d", this.newOrderPercent,
-				this.paymentPercent, this.orderStatusPercent,
-				this.deliveryPercent, this.stockLevelPercent,
-				this.newOrderThinkMilliSecond, this.paymentThinkMilliSecond,
-				this.orderStatusThinkMilliSecond, this.deliveryThinkMilliSecond,
-				this.stockLevelThinkMilliSecond);
-		for (Socket slave : this.slaves.values()) {
-			DataOutputStream request = new DataOutputStream(slave
-					.getOutputStream());
-			request.writeBytes(SOCK_SEND_TRANSACTION_CONFIGS + ","
-					+ transactionConfig + "\n");
-		}
-
-		// Start Transaction
-		logMessage("Start transactions");
-		for (Socket slave : this.slaves.values()) {
-			DataOutputStream request = new DataOutputStream(slave
-					.getOutputStream());
-			request.writeBytes(SOCK_START_TRANSACTION + "\n");
-		}
-
-		this.startTimestamp = System.currentTimeMillis();
-		logMessage("Transactions started at " + new Timestamp(startTimestamp));
+		this.reportIntervalMilliSecond = (int) Math.round(Double
+				.parseDouble(properties.getProperty("reportIntervalSeconds",
+						"60").trim()) * 1000);
+		if (reportIntervalMilliSecond < 100
+				|| reportIntervalMilliSecond > 60 * 1000
+				|| 60 * 1000 % reportIntervalMilliSecond != 0) {
+			logMessage("reportIntervalSeconds must divide 60 and be at least 0.1, use 60.");
+			reportIntervalMilliSecond = 60 * 1000;
+		}
+		this.pollTimeoutMilliSecond = Integer.parseInt(properties.getProperty(
+				"pollTimeoutMilliSecond", "5000").trim());
+		if (pollTimeoutMilliSecond < 1 || pollTimeoutMilliSecond >= 60 * 1000) {
+			logMessage("pollTimeoutMilliSecond must be below a minute, use 5000.");
+			pollTimeoutMilliSecond = 5000;
+		}
+		int metricsPort = Integer.parseInt(properties.getProperty(
+				"metricsPort", "0").trim());
+		if (metricsPort > 0) {
+			String metricsAddress = properties.getProperty("metricsAddress",
+					"127.0.0.1").trim();
+			metricsServer = new MetricsServer(metricsAddress, metricsPort);
+			metricsServer.start();
+			logMessage("Metrics on http://" + metricsAddress + ":"
+					+ metricsPort + "/metrics");
+		}
+		Frame transactionConfig = new Frame(SOCK_SEND_TRANSACTION_CONFIGS)
+				.putInt(this.newOrderPercent).putInt(this.paymentPercent)
+				.putInt(this.orderStatusPercent).putInt(this.deliveryPercent)
+				.putInt(this.stockLevelPercent)
+				.putInt(this.newOrderThinkMilliSecond)
+				.putInt(this.paymentThinkMilliSecond)
+				.putInt(this.orderStatusThinkMilliSecond)
+				.putInt(this.deliveryThinkMilliSecond)
+				.putInt(this.stockLevelThinkMilliSecond)
+				.putInt(this.reportIntervalMilliSecond);
+		controlServer.send(this.slaves.values(), transactionConfig);
+
+		String resultsDir = properties.getProperty("resultsDir", "results")
+				.trim();
+		if (resultsDir.length() > 0) {
+			String runId = Util.getFileNameSuffix();
+			resultWriter = createResultWriter(resultsDir, runId, properties);
+			resultWriter.start();
+			logMessage("Results in " + resultsDir + "/run_" + runId
+					+ ".jsonl and .csv");
+		}
+
+		double outagePercent = Double.parseDouble(properties.getProperty(
+				"outagePercent", "50").trim());
+		if (outagePercent > 0) {
+			recoveryMonitor = new RecoveryMonitor(outagePercent, Double
+					.parseDouble(properties.getProperty("recoveryPercent",
+							"90").trim()),
+					reportIntervalMilliSecond < 60 * 1000 ? reportIntervalMilliSecond
+							: 60 * 1000);
+		}
+
+		// the slaves push samples from the start on
+		if (reportIntervalMilliSecond < 60 * 1000) {
+			seriesCollector = new SeriesCollector(slaves.values(),
+					reportIntervalMilliSecond, new PrintStream(
+							new FileOutputStream("log/series_master_"
+									+ Util.getFileNameSuffix() + ".csv")));
+			seriesCollector.setMetricsServer(metricsServer);
+			seriesCollector.setResultWriter(resultWriter);
+			seriesCollector.setRecoveryMonitor(recoveryMonitor);
+			seriesCollector.start();
+			logMessage("Time series every " + reportIntervalMilliSecond
+					+ " ms.");
+		}
+
+		String profile = properties.getProperty("loadProfile", "").trim();
+		this.searchStepMinutes = Integer.parseInt(properties.getProperty(
+				"searchStepMinutes", "0").trim());
+		if (searchStepMinutes > 0) {
+			profile = createSaturationSearch(properties);
+		}
+		if (profile.length() > 0) {
+			try {
+				loadProfile = new LoadProfile(profile, userCount, new int[] {
+						newOrderPercent, paymentPercent, orderStatusPercent,
+						deliveryPercent, stockLevelPercent }, new int[] {
+						newOrderThinkMilliSecond, paymentThinkMilliSecond,
+						orderStatusThinkMilliSecond, deliveryThinkMilliSecond,
+						stockLevelThinkMilliSecond }, runMinutes);
+				for (LoadProfile.Stage stage : loadProfile.getStages()) {
+					logMessage("Load " + stage);
+				}
+				startStage(loadProfile.getStage(0));
+			} catch (IllegalArgumentException e) {
+				logMessage("Wrong loadProfile, run all users: "
+						+ e.getMessage());
+				loadProfile = null;
+			}
+		}
+
+		// the slaves open their connection pools first, the start is after
+		int readyTimeoutSeconds = Integer.parseInt(properties.getProperty(
+				"readyTimeoutSeconds", "600").trim());
+		logMessage("Waiting slaves to be ready.");
+		long readyBegin = System.currentTimeMillis();
+		try {
+			// the relays get the timeout to wait for their own slaves within it
+			Map<ControlServer.Connection, Frame> ready = controlServer.request(
+					this.slaves.values(), new Frame(SOCK_READY)
+							.putLong(readyTimeoutSeconds * 1000L),
+					readyTimeoutSeconds * 1000L);
+			for (Map.Entry<String, ControlServer.Connection> slave : this.slaves
+					.entrySet()) {
+				Frame response = ready.get(slave.getValue());
+				if (response == null) {
+					logMessage(slave.getKey() + " not ready in "
+							+ readyTimeoutSeconds + " s, starts anyway.");
+					continue;
+				}
+				long readyMilliSecond = response.getLong();
+				int open = response.getInt();
+				logMessage(slave.getKey() + " ready in " + readyMilliSecond
+						+ " ms, " + open + " of " + response.getInt()
+						+ " connection(s) open.");
+			}
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		logMessage("Slaves ready after "
+				+ (System.currentTimeMillis() - readyBegin) + " ms.");
+
+		// Start Transaction, all slaves at the same instant of the master clock
+		long alignment = 1000;
+		if (reportIntervalMilliSecond < 60 * 1000) {
+			alignment = reportIntervalMilliSecond;
+		}
+		long earliest = System.currentTimeMillis() + START_LEAD_MILLISECOND;
+		this.startTimestamp = (earliest / alignment + 1) * alignment;
+		logMessage("Start transactions at " + new Timestamp(startTimestamp));
+		controlServer.send(this.slaves.values(), new Frame(
+				SOCK_START_TRANSACTION).putLong(startTimestamp));
 	}
 
 	public void run() {
 		long currentTimestamp = 0;
-		long befTimestamp = 0, aftTimestamp = 0;
 
 		for (int min = 1; min <= this.runMinutes ; min++) {
 			try {
 				/*
-				Limit to 60s interval exactly after warmup
-				Thread.sleep(60 * 1000 - (aftTimestamp - befTimestamp));
-				if ( 60 * 1000 > (aftTimestamp - befTimestamp) ) then sleep 
-				else just sleep(10) miniseconds; in case the CPU is 100% busy, some slaves can't response in one minutes
+				Poll at every whole minute since the start. The slaves cut their
+				minutes at the same instants of the master clock and return the
+				minute that ends at pollTimestamp, however late the poll arrives.
+				A poll waits at most pollTimeoutMilliSecond, so a slow slave can
+				not hold up the others; its counters are counted in the next report.
+				The relays get the timeout to poll their own slaves within it.
 				*/
-				if (min == (warmupMinutes + 1)) {
-					Thread.sleep(60 * 1000);
-				} else if ( 60 * 1000 > (aftTimestamp - befTimestamp) )  {
-					Thread.sleep(60 * 1000 - (aftTimestamp - befTimestamp));
-				} else {
-					Thread.sleep(10);
-				}	
-				
-				befTimestamp = System.currentTimeMillis();
-				
+				long pollTimestamp = startTimestamp + min * 60 * 1000L;
+				long now = System.currentTimeMillis();
+				if (pollTimestamp > now) {
+					Thread.sleep(pollTimestamp - now);
+				}
+
 				payment_num_total_last = payment_num_total;
 				payment_dbtime_total_last = payment_dbtime_total;
 				payment_time_total_last = payment_time_total;
@@ -339,74 +553,68 @@ public class Master implements Config, Runnable {
 				new_order_dbtime_max_last = 0;
 				new_order_time_max_last = 0;
 
-				for (Socket slave : this.slaves.values()) {
-						BufferedReader response = new BufferedReader(
-								new InputStreamReader(slave.getInputStream()));
-						DataOutputStream request = new DataOutputStream(slave
-								.getOutputStream());
-						request.writeBytes(SOCK_GET_TRANSACTION_COUNTERS + "\n");
-						String[] contersGroups = response.readLine().split(" ");
-          	
-						String[] counters = contersGroups[0].split(",");
-						payment_num_total += Integer.parseInt(counters[0]);
-						payment_time_total += Long.parseLong(counters[1]);
-						if (payment_time_max_last < Long.parseLong(counters[2])) {
-							payment_time_max_last = Long.parseLong(counters[2]);
-						}
-						payment_dbtime_total += Long.parseLong(counters[3]);
-						if (payment_dbtime_max_last < Long.parseLong(counters[4])) {
-							payment_dbtime_max_last = Long.parseLong(counters[4]);
-						}
-          	
-						counters = contersGroups[1].split(",");
-						stock_level_num_total += Integer.parseInt(counters[0]);
-						stock_level_time_total += Long.parseLong(counters[1]);
-						if (stock_level_time_max_last < Long.parseLong(counters[2])) {
-							stock_level_time_max_last = Long.parseLong(counters[2]);
-						}
-						stock_level_dbtime_total += Long.parseLong(counters[3]);
-						if (stock_level_dbtime_max_last < Long
-								.parseLong(counters[4])) {
-							stock_level_dbtime_max_last = Long
-									.parseLong(counters[4]);
-						}
-          	
-						counters = contersGroups[2].split(",");
-						order_status_num_total += Integer.parseInt(counters[0]);
-						order_status_time_total += Long.parseLong(counters[1]);
-						if (order_status_time_max_last < Long
-								.parseLong(counters[2])) {
-							order_status_time_max_last = Long
-									.parseLong(counters[2]);
-						}
-						order_status_dbtime_total += Long.parseLong(counters[3]);
-						if (order_status_dbtime_max_last < Long
-								.parseLong(counters[4])) {
-							order_status_dbtime_max_last = Long
-									.parseLong(counters[4]);
-						}
-          	
-						counters = contersGroups[3].split(",");
-						delivery_num_total += Integer.parseInt(counters[0]);
-						delivery_time_total += Long.parseLong(counters[1]);
-						if (delivery_time_max_last < Long.parseLong(counters[2])) {
-							delivery_time_max_last = Long.parseLong(counters[2]);
-						}
-						delivery_dbtime_total += Long.parseLong(counters[3]);
-						if (delivery_dbtime_max_last < Long.parseLong(counters[4])) {
-							delivery_dbtime_max_last = Long.parseLong(counters[4]);
-						}
-          	
-						counters = contersGroups[4].split(",");
-						new_order_num_total += Integer.parseInt(counters[0]);
-						new_order_time_total += Long.parseLong(counters[1]);
-						if (new_order_time_max_last < Long.parseLong(counters[2])) {
-							new_order_time_max_last = Long.parseLong(counters[2]);
-						}
-						new_order_dbtime_total += Long.parseLong(counters[3]);
-						if (new_order_dbtime_max_last < Long.parseLong(counters[4])) {
-							new_order_dbtime_max_last = Long.parseLong(counters[4]);
-						}
+				failed_total_last = failed_total;
+				failed_total = new long[5];
+
+				for (LatencyHistogram histogram : rt_histograms_last) {
+					histogram.reset();
+				}
+				poolLast = pool;
+				pool = new PoolStats();
+
+				Map<ControlServer.Connection, Frame> responses = controlServer
+						.request(this.slaves.values(), new Frame(
+								SOCK_GET_TRANSACTION_COUNTERS)
+								.putLong(pollTimestamp).putInt(
+										pollTimeoutMilliSecond),
+								pollTimeoutMilliSecond);
+				// the late responses of earlier polls are older, add them first
+				Map.Entry<ControlServer.Connection, Frame> late;
+				while ((late = lateResponses.poll()) != null) {
+					addCounters(late.getKey(), late.getValue());
+				}
+				ArrayList<String> lateSlaves = new ArrayList<String>();
+				for (Map.Entry<String, ControlServer.Connection> slave : this.slaves
+						.entrySet()) {
+					Frame response = responses.get(slave.getValue());
+					if (response != null) {
+						addCounters(slave.getValue(), response);
+					} else {
+						lateSlaves.add(slave.getKey());
+					}
+				}
+				for (long[] counters : slaveCounters.values()) {
+					payment_num_total += counters[0];
+					payment_time_total += counters[1];
+					payment_dbtime_total += counters[3];
+					stock_level_num_total += counters[5];
+					stock_level_time_total += counters[6];
+					stock_level_dbtime_total += counters[8];
+					order_status_num_total += counters[10];
+					order_status_time_total += counters[11];
+					order_status_dbtime_total += counters[13];
+					delivery_num_total += counters[15];
+					delivery_time_total += counters[16];
+					delivery_dbtime_total += counters[18];
+					new_order_num_total += counters[20];
+					new_order_time_total += counters[21];
+					new_order_dbtime_total += counters[23];
+					for (int k = 0; k < failed_total.length; k++) {
+						failed_total[k] += counters[25 + k];
+					}
+				}
+				for (PoolStats stats : slavePools.values()) {
+					pool.addTotals(stats);
+				}
+				for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+					rt_histograms_last[0].add(rt_histograms_last[i]);
+				}
+				if (min > this.warmupMinutes) {
+					for (int i = 0; i < reportTypes.length; i++) {
+						rt_histograms_run[i].add(rt_histograms_last[i]);
+					}
+					poolRun.waitMax = Math.max(poolRun.waitMax, pool.waitMax);
+					poolRun.histogram.add(pool.histogram);
 				}
 				if (payment_dbtime_max < payment_dbtime_max_last) {
 					payment_dbtime_max = payment_dbtime_max_last;
@@ -459,7 +667,7 @@ public class Master implements Config, Runnable {
 				long max_db_rt_totalavg = 0;
 				
 				StringBuilder reportString = null;
-                                currentTimestamp = System.currentTimeMillis();
+                                currentTimestamp = pollTimestamp;
 
 				reportString = new StringBuilder(REPORT_HEADER);
 				type = "payment";
@@ -482,9 +690,9 @@ public class Master implements Config, Runnable {
 				avg_db_rt_1min = avg_db_rt;
 				max_db_rt_1min = max_db_rt;
 				
-				reportString.append(String.format(REPORT_VALUE, new Timestamp(
+				reportString.append(Util.formatReportValue(new Timestamp(
 						currentTimestamp), type, tpm, avg_rt, max_rt,
-						avg_db_rt, max_db_rt));
+						avg_db_rt, max_db_rt, rt_histograms_last));
 
 				type = "stock_level";
 				tpm = (double) (stock_level_num_total - stock_level_num_total_last);
@@ -506,9 +714,9 @@ public class Master implements Config, Runnable {
 				avg_db_rt_1min += avg_db_rt;
 				max_db_rt_1min += max_db_rt;
 				
-				reportString.append(String.format(REPORT_VALUE, new Timestamp(
+				reportString.append(Util.formatReportValue(new Timestamp(
 						currentTimestamp), type, tpm, avg_rt, max_rt,
-						avg_db_rt, max_db_rt));
+						avg_db_rt, max_db_rt, rt_histograms_last));
 
 				type = "order_status";
 				tpm = (double) (order_status_num_total - order_status_num_total_last);
@@ -530,9 +738,9 @@ public class Master implements Config, Runnable {
 				avg_db_rt_1min += avg_db_rt;
 				max_db_rt_1min += max_db_rt;
 				
-				reportString.append(String.format(REPORT_VALUE, new Timestamp(
+				reportString.append(Util.formatReportValue(new Timestamp(
 						currentTimestamp), type, tpm, avg_rt, max_rt,
-						avg_db_rt, max_db_rt));
+						avg_db_rt, max_db_rt, rt_histograms_last));
 
 				type = "delivery";
 				tpm = (double) (delivery_num_total - delivery_num_total_last);
@@ -554,9 +762,9 @@ public class Master implements Config, Runnable {
 				avg_db_rt_1min += avg_db_rt;
 				max_db_rt_1min += max_db_rt;
 				
-				reportString.append(String.format(REPORT_VALUE, new Timestamp(
+				reportString.append(Util.formatReportValue(new Timestamp(
 						currentTimestamp), type, tpm, avg_rt, max_rt,
-						avg_db_rt, max_db_rt));
+						avg_db_rt, max_db_rt, rt_histograms_last));
 
 				type = "new_order";
 				tpm = (double) (new_order_num_total - new_order_num_total_last);
@@ -578,21 +786,68 @@ public class Master implements Config, Runnable {
 				avg_db_rt_1min += avg_db_rt;
 				max_db_rt_1min += max_db_rt;
 				
-				reportString.append(String.format(REPORT_VALUE, new Timestamp(
+				reportString.append(Util.formatReportValue(new Timestamp(
 						currentTimestamp), type, tpm, avg_rt, max_rt,
-						avg_db_rt, max_db_rt));
+						avg_db_rt, max_db_rt, rt_histograms_last));
 				
 				type = "total";
-				reportString.append(String.format(REPORT_VALUE, new Timestamp(
+				reportString.append(Util.formatReportValue(new Timestamp(
 						currentTimestamp), type, tpm_1min, avg_rt_1min, max_rt_1min,
-						avg_db_rt_1min, max_db_rt_1min));
+						avg_db_rt_1min, max_db_rt_1min, rt_histograms_last));
+				reportString.append(POOL_HEADER).append(
+						pool.format(new Timestamp(currentTimestamp), poolLast));
 
+				if (!lateSlaves.isEmpty()) {
+					reportString.append("late slaves " + lateSlaves
+							+ ", counted in the next report\n");
+				}
 				logMessage(reportString.toString());
-				
+				if (metricsServer != null) {
+					metricsServer.setMinute(pollTimestamp, getCounters(),
+							getLastCounters(), rt_histograms_last);
+					metricsServer.setPool(pool, poolLast);
+					metricsServer.setSlaves(slaves, lateSlaves);
+				}
+				if (resultWriter != null) {
+					resultWriter.addReport("minute", String.valueOf(min),
+							pollTimestamp, 1, getCounters(), getLastCounters(),
+							rt_histograms_last);
+				}
+				if (recoveryMonitor != null) {
+					if (seriesCollector == null) {
+						recoveryMonitor.add(pollTimestamp, tpm_1min);
+					}
+					String events = recoveryMonitor.takeEvents();
+					if (events.length() > 0) {
+						logMessage(events);
+					}
+				}
+
+				// stage end, the next stage starts at this minute boundary
+				if (loadProfile != null) {
+					addStageMinute(min);
+					LoadProfile.Stage next = null;
+					boolean stepEnd = saturationSearch != null
+							&& !saturationSearch.isDone()
+							&& min - stage.minute == searchStepMinutes;
+					if (saturationSearch == null) {
+						next = loadProfile.getStage(min);
+					}
+					if (next != null || stepEnd || min == this.runMinutes) {
+						double stageTpm = logStage(min - stageFrom,
+								pollTimestamp);
+						if (stepEnd && min < this.runMinutes) {
+							next = nextSearchStage(min, stageTpm);
+						}
+						if (next != null) {
+							startStage(next);
+						}
+					}
+				}
 
 				// warmup end:
 				if (min == this.warmupMinutes) {
-					this.warmupTimestamp = System.currentTimeMillis();
+					this.warmupTimestamp = pollTimestamp;
 					this.payment_dbtime_warmup = this.payment_dbtime_total;
 					this.payment_num_warmup = this.payment_num_total;
 					this.payment_time_warmup = this.payment_time_total;
@@ -622,13 +877,12 @@ public class Master implements Config, Runnable {
 					this.new_order_time_warmup = this.new_order_time_total;
 					this.new_order_dbtime_max = 0;
 					this.new_order_time_max = 0;
+					this.failed_warmup = this.failed_total;
+					poolWarmup = pool;
 					logMessage("Warmup phase end.\n");
-					for (Socket slave : this.slaves.values()) {
-						DataOutputStream request = new DataOutputStream(slave.getOutputStream());
-						request.writeBytes(SOCK_SIGNAL_WARMUP_PHASE_END + "\n");
-					}
+					controlServer.send(this.slaves.values(), new Frame(
+							SOCK_SIGNAL_WARMUP_PHASE_END).putLong(pollTimestamp));
 				}
-				aftTimestamp = System.currentTimeMillis();
 
 				// run end:
 				if (min == this.runMinutes) {
@@ -660,8 +914,9 @@ public class Master implements Config, Runnable {
 					avg_db_rt_totalavg = avg_db_rt;
 					max_db_rt_totalavg = max_db_rt;
 				
-					reportString.append(String.format(REPORT_VALUE, "average",
-							type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt));
+					reportString.append(Util.formatReportValue("average",
+							type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt,
+							rt_histograms_run));
 
 					type = "stock_level";
 					tpm = (double) (stock_level_num_total - stock_level_num_warmup)
@@ -684,8 +939,9 @@ public class Master implements Config, Runnable {
 					avg_db_rt_totalavg += avg_db_rt;
 					max_db_rt_totalavg += max_db_rt;
 				
-					reportString.append(String.format(REPORT_VALUE, "average",
-							type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt));
+					reportString.append(Util.formatReportValue("average",
+							type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt,
+							rt_histograms_run));
 
 					type = "order_status";
 					tpm = (double) (order_status_num_total - order_status_num_warmup)
@@ -708,8 +964,9 @@ public class Master implements Config, Runnable {
 					avg_db_rt_totalavg += avg_db_rt;
 					max_db_rt_totalavg += max_db_rt;
 					
-					reportString.append(String.format(REPORT_VALUE, "average",
-							type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt));
+					reportString.append(Util.formatReportValue("average",
+							type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt,
+							rt_histograms_run));
 
 					type = "delivery";
 					tpm = (double) (delivery_num_total - delivery_num_warmup)
@@ -732,8 +989,9 @@ public class Master implements Config, Runnable {
 					avg_db_rt_totalavg += avg_db_rt;
 					max_db_rt_totalavg += max_db_rt;
 					
-					reportString.append(String.format(REPORT_VALUE, "average",
-							type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt));
+					reportString.append(Util.formatReportValue("average",
+							type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt,
+							rt_histograms_run));
 
 					type = "new_order";
 					tpm = (double) (new_order_num_total - new_order_num_warmup)
@@ -756,12 +1014,22 @@ public class Master implements Config, Runnable {
 					avg_db_rt_totalavg += avg_db_rt;
 					max_db_rt_totalavg += max_db_rt;
 					
-					reportString.append(String.format(REPORT_VALUE, "average",
-							type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt));
+					reportString.append(Util.formatReportValue("average",
+							type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt,
+							rt_histograms_run));
 							
 					type = "total";
-					reportString.append(String.format(REPORT_VALUE, "average", type, tpm_totalavg, 
-						avg_rt_totalavg, max_rt_totalavg, avg_db_rt_totalavg, max_db_rt_totalavg));
+					reportString.append(Util.formatReportValue("average", type, tpm_totalavg, 
+						avg_rt_totalavg, max_rt_totalavg, avg_db_rt_totalavg, max_db_rt_totalavg,
+						rt_histograms_run));
+					// the totals of the run phase, the gauges at its end
+					poolRun.addTotals(pool);
+					poolRun.inUse = pool.inUse;
+					poolRun.idle = pool.idle;
+					poolRun.waiters = pool.waiters;
+					poolRun.size = pool.size;
+					reportString.append(POOL_HEADER).append(
+							poolRun.format("average", poolWarmup));
 
 					logMessage(reportString.toString());
 
@@ -773,23 +1041,38 @@ public class Master implements Config, Runnable {
 					logMessage("   All phase Transactions: " + trans_total + "\n" 
 						+  "Warmup phase Transactions: " + warmup_total + "\n" 
 						+  "   Run phase Transactions: " + run_total + "\n" );
+					if (saturationSearch != null) {
+						logMessage(saturationSearch.getReport());
+					}
 					
-					for (Socket slave : this.slaves.values()) {
-						DataOutputStream request = new DataOutputStream(slave.getOutputStream());
-						request.writeBytes(SOCK_SIGNAL_RUN_END + "\n");
+					if (seriesCollector != null) {
+						seriesCollector.stop();
+					}
+					// after the last intervals too
+					if (recoveryMonitor != null) {
+						logMessage(recoveryMonitor.takeEvents()
+								+ recoveryMonitor.getReport());
 					}
+					if (resultWriter != null) {
+						resultWriter.addReport("summary", "average",
+								pollTimestamp, executeMinutes,
+								getRunCounters(), getWarmupCounters(),
+								rt_histograms_run);
+						resultWriter.close();
+					}
+					controlServer.send(this.slaves.values(), new Frame(
+							SOCK_SIGNAL_RUN_END).putLong(pollTimestamp));
 					logMessage("Waiting slaves to terminate users.");
-					for (Socket slave : this.slaves.values()) {
-						while (true) {
+					for (ControlServer.Connection slave : this.slaves.values()) {
+						while (slave.isOpen()) {
 							Thread.sleep(100);
-							try {
-								slave.sendUrgentData(0xFF);
-							} catch (IOException e) {
-								break;
-							}
 						}
 					}
+					controlServer.shutdown();
 					logMessage("All slaves disconnected.");
+					if (metricsServer != null) {
+						metricsServer.stop();
+					}
 					this.printStreamLogs.close();
 					break;
 				}
@@ -801,6 +1084,321 @@ public class Master implements Config, Runnable {
 		}
 	}
 
+	/**
+	 * Keep the cumulative counters of a SOCK_GET_TRANSACTION_COUNTERS response
+	 * of a slave, add its maximums, histograms and pool gauges to the last
+	 * minute.
+	 */
+	private void addCounters(ControlServer.Connection slave, Frame response)
+			throws IOException {
+		long[] counters = readCounters(response);
+		slaveCounters.put(slave, counters);
+		payment_time_max_last = Math.max(payment_time_max_last, counters[2]);
+		payment_dbtime_max_last = Math.max(payment_dbtime_max_last,
+				counters[4]);
+		stock_level_time_max_last = Math.max(stock_level_time_max_last,
+				counters[7]);
+		stock_level_dbtime_max_last = Math.max(stock_level_dbtime_max_last,
+				counters[9]);
+		order_status_time_max_last = Math.max(order_status_time_max_last,
+				counters[12]);
+		order_status_dbtime_max_last = Math.max(order_status_dbtime_max_last,
+				counters[14]);
+		delivery_time_max_last = Math.max(delivery_time_max_last, counters[17]);
+		delivery_dbtime_max_last = Math.max(delivery_dbtime_max_last,
+				counters[19]);
+		new_order_time_max_last = Math.max(new_order_time_max_last,
+				counters[22]);
+		new_order_dbtime_max_last = Math.max(new_order_dbtime_max_last,
+				counters[24]);
+		// histograms of NEW_ORDER .. STOCK_LEVEL follow the counters
+		for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+			rt_histograms_last[i].addFrom(response);
+		}
+		PoolStats stats = PoolStats.readFrom(response);
+		slavePools.put(slave, stats);
+		pool.addLast(stats);
+	}
+
+	/**
+	 * @return the totals and the maximums of the last minute as
+	 *         readCounters()
+	 */
+	private long[] getCounters() {
+		return new long[] { payment_num_total, payment_time_total,
+				payment_time_max_last, payment_dbtime_total,
+				payment_dbtime_max_last, stock_level_num_total,
+				stock_level_time_total, stock_level_time_max_last,
+				stock_level_dbtime_total, stock_level_dbtime_max_last,
+				order_status_num_total, order_status_time_total,
+				order_status_time_max_last, order_status_dbtime_total,
+				order_status_dbtime_max_last, delivery_num_total,
+				delivery_time_total, delivery_time_max_last,
+				delivery_dbtime_total, delivery_dbtime_max_last,
+				new_order_num_total, new_order_time_total,
+				new_order_time_max_last, new_order_dbtime_total,
+				new_order_dbtime_max_last, failed_total[0], failed_total[1],
+				failed_total[2], failed_total[3], failed_total[4] };
+	}
+
+	/**
+	 * @return the totals a minute before, as getCounters() without the
+	 *         maximums
+	 */
+	private long[] getLastCounters() {
+		return new long[] { payment_num_total_last, payment_time_total_last,
+				0, payment_dbtime_total_last, 0, stock_level_num_total_last,
+				stock_level_time_total_last, 0, stock_level_dbtime_total_last,
+				0, order_status_num_total_last, order_status_time_total_last,
+				0, order_status_dbtime_total_last, 0, delivery_num_total_last,
+				delivery_time_total_last, 0, delivery_dbtime_total_last, 0,
+				new_order_num_total_last, new_order_time_total_last, 0,
+				new_order_dbtime_total_last, 0, failed_total_last[0],
+				failed_total_last[1], failed_total_last[2],
+				failed_total_last[3], failed_total_last[4] };
+	}
+
+	/**
+	 * @return the totals and the maximums of the run phase as readCounters()
+	 */
+	private long[] getRunCounters() {
+		return new long[] { payment_num_total, payment_time_total,
+				payment_time_max, payment_dbtime_total, payment_dbtime_max,
+				stock_level_num_total, stock_level_time_total,
+				stock_level_time_max, stock_level_dbtime_total,
+				stock_level_dbtime_max, order_status_num_total,
+				order_status_time_total, order_status_time_max,
+				order_status_dbtime_total, order_status_dbtime_max,
+				delivery_num_total, delivery_time_total, delivery_time_max,
+				delivery_dbtime_total, delivery_dbtime_max,
+				new_order_num_total, new_order_time_total, new_order_time_max,
+				new_order_dbtime_total, new_order_dbtime_max, failed_total[0],
+				failed_total[1], failed_total[2], failed_total[3],
+				failed_total[4] };
+	}
+
+	/**
+	 * @return the totals at the warmup end, as getRunCounters() without the
+	 *         maximums
+	 */
+	private long[] getWarmupCounters() {
+		return new long[] { payment_num_warmup, payment_time_warmup, 0,
+				payment_dbtime_warmup, 0, stock_level_num_warmup,
+				stock_level_time_warmup, 0, stock_level_dbtime_warmup, 0,
+				order_status_num_warmup, order_status_time_warmup, 0,
+				order_status_dbtime_warmup, 0, delivery_num_warmup,
+				delivery_time_warmup, 0, delivery_dbtime_warmup, 0,
+				new_order_num_warmup, new_order_time_warmup, 0,
+				new_order_dbtime_warmup, 0, failed_warmup[0], failed_warmup[1],
+				failed_warmup[2], failed_warmup[3], failed_warmup[4] };
+	}
+
+	/**
+	 * Open the result files, every record carries the run configuration.
+	 */
+	private ResultWriter createResultWriter(String directory, String runId,
+			Properties properties) throws IOException {
+		String mix = newOrderPercent + "/" + paymentPercent + "/"
+				+ orderStatusPercent + "/" + deliveryPercent + "/"
+				+ stockLevelPercent;
+		String think = newOrderThinkMilliSecond + "/"
+				+ paymentThinkMilliSecond + "/" + orderStatusThinkMilliSecond
+				+ "/" + deliveryThinkMilliSecond + "/"
+				+ stockLevelThinkMilliSecond;
+		Map<String, Object> config = new LinkedHashMap<String, Object>();
+		config.put("users", userCount);
+		config.put("warehouses", warehousesCount);
+		config.put("slaves", new ArrayList<String>(slaves.keySet()).toString());
+		config.put("run_minutes", runMinutes);
+		config.put("warmup_minutes", warmupMinutes);
+		config.put("mix", mix);
+		config.put("think", think);
+		config.put("report_interval_ms", reportIntervalMilliSecond);
+		config.put("load_profile", properties.getProperty("loadProfile", "")
+				.trim());
+		return new ResultWriter(directory, runId, config,
+				userCount + "," + warehousesCount + "," + runMinutes + ","
+						+ warmupMinutes + "," + mix + "," + think + ","
+						+ reportIntervalMilliSecond);
+	}
+
+	/**
+	 * Send the load of a stage to the slaves, its report starts from the
+	 * counters of now.
+	 */
+	private void startStage(LoadProfile.Stage stage) {
+		this.stage = stage;
+		this.stageFrom = stage.minute;
+		this.stageStart = getCounters();
+		this.stageMax = new long[30];
+		if (recoveryMonitor != null) {
+			recoveryMonitor.reset();
+		}
+		for (LatencyHistogram histogram : rt_histograms_stage) {
+			histogram.reset();
+		}
+		Map<ControlServer.Connection, Integer> shares = LoadProfile.split(
+				stage.users, slaveUsers);
+		for (Map.Entry<ControlServer.Connection, Integer> share : shares
+				.entrySet()) {
+			controlServer.send(share.getKey(), stage.toFrame(share.getValue()));
+		}
+		if (stage.minute > 0) {
+			logMessage("Load " + stage + "\n");
+		}
+		if (metricsServer != null) {
+			metricsServer.setStage(stage);
+		}
+	}
+
+	private void addStageMinute(int min) {
+		long[] counters = getCounters();
+		if (saturationSearch != null && searchStepMinutes > 1
+				&& min - stage.minute == 1) {
+			// the first minute of a step settles, measure the steady state
+			stageFrom = min;
+			stageStart = counters;
+			return;
+		}
+		for (int i = 2; i < 25; i += 5) {
+			stageMax[i] = Math.max(stageMax[i], counters[i]);
+			stageMax[i + 2] = Math.max(stageMax[i + 2], counters[i + 2]);
+		}
+		for (int i = 0; i < reportTypes.length; i++) {
+			rt_histograms_stage[i].add(rt_histograms_last[i]);
+		}
+	}
+
+	/**
+	 * Report the stage that ends now, the same rows as the average of the
+	 * run.
+	 */
+	private double logStage(int minutes, long timestamp) {
+		String[] types = { "payment", "stock_level", "order_status",
+				"delivery", "new_order" };
+		long[] counters = getCounters();
+		String label = "stage " + stage.number;
+		StringBuilder reportString = new StringBuilder("Load " + stage
+				+ ", " + minutes + " minute(s)\n" + REPORT_HEADER);
+		double tpm_stage = 0;
+		double avg_rt_stage = 0;
+		long max_rt_stage = 0;
+		double avg_db_rt_stage = 0;
+		long max_db_rt_stage = 0;
+		for (int k = 0; k < types.length; k++) {
+			int i = k * 5;
+			long num = counters[i] - stageStart[i];
+			double tpm = (double) num / Math.max(1, minutes);
+			double avg_rt = 0;
+			double avg_db_rt = 0;
+			if (num != 0) {
+				avg_rt = (double) (counters[i + 1] - stageStart[i + 1]) / num;
+				avg_db_rt = (double) (counters[i + 3] - stageStart[i + 3])
+						/ num;
+			}
+			tpm_stage += tpm;
+			avg_rt_stage += avg_rt;
+			max_rt_stage += stageMax[i + 2];
+			avg_db_rt_stage += avg_db_rt;
+			max_db_rt_stage += stageMax[i + 4];
+			reportString.append(Util.formatReportValue(label, types[k], tpm,
+					avg_rt, stageMax[i + 2], avg_db_rt, stageMax[i + 4],
+					rt_histograms_stage));
+		}
+		reportString.append(Util.formatReportValue(label, "total",
+				tpm_stage, avg_rt_stage, max_rt_stage, avg_db_rt_stage,
+				max_db_rt_stage, rt_histograms_stage));
+		logMessage(reportString.toString());
+		if (resultWriter != null) {
+			long[] stageCounters = counters.clone();
+			for (int i = 2; i < 25; i += 5) {
+				stageCounters[i] = stageMax[i];
+				stageCounters[i + 2] = stageMax[i + 2];
+			}
+			resultWriter.addReport("stage", String.valueOf(stage.number),
+					timestamp, Math.max(1, minutes), stageCounters,
+					stageStart, rt_histograms_stage);
+		}
+		return tpm_stage;
+	}
+
+	/**
+	 * Read the search properties.
+	 *
+	 * @return the load profile of the first step, empty without a valid
+	 *         SLA
+	 */
+	private String createSaturationSearch(Properties properties) {
+		String sla = properties.getProperty("slaMilliSecond", "").trim();
+		if (sla.length() == 0) {
+			logMessage("searchStepMinutes needs slaMilliSecond, no search.");
+			return "";
+		}
+		String type = properties.getProperty("slaTransaction", "total").trim();
+		for (int i = 0; i < reportTypes.length; i++) {
+			if (reportTypes[i].equalsIgnoreCase(type)) {
+				slaType = i;
+			}
+		}
+		slaPercentile = Double.parseDouble(properties.getProperty(
+				"slaPercentile", "95").trim());
+		int startUsers = Integer.parseInt(properties.getProperty(
+				"searchStartUsers", String.valueOf(Math.max(1, userCount / 10)))
+				.trim());
+		int stepUsers = Integer.parseInt(properties.getProperty(
+				"searchStepUsers", String.valueOf(Math.max(1, userCount / 10)))
+				.trim());
+		int resolutionUsers = Integer.parseInt(properties.getProperty(
+				"searchResolutionUsers", String.valueOf(Math.max(1,
+						stepUsers / 8))).trim());
+		saturationSearch = new SaturationSearch(userCount, stepUsers,
+				resolutionUsers, slaPercentile, Double.parseDouble(sla));
+		if (properties.getProperty("loadProfile", "").trim().length() > 0) {
+			logMessage("Saturation search, loadProfile ignored.");
+		}
+		logMessage("Saturation search from " + startUsers + " users, "
+				+ stepUsers + " more per " + searchStepMinutes
+				+ " minute step, SLA " + reportTypes[slaType] + " p"
+				+ slaPercentile + " <= " + sla + " ms.");
+		return "0:users=" + startUsers;
+	}
+
+	/**
+	 * Give the step that ends now to the search.
+	 *
+	 * @return the next step, the operating point when the search is done,
+	 *         or null
+	 */
+	private LoadProfile.Stage nextSearchStage(int min, double tpm) {
+		double rt = rt_histograms_stage[slaType]
+				.getValueAtPercentile(slaPercentile) / 1000.0;
+		int users = saturationSearch.next(stage.users, tpm, rt);
+		if (users >= 0) {
+			return stage.withUsers(users, min);
+		}
+		logMessage(saturationSearch.getReport());
+		SaturationSearch.Step point = saturationSearch.getOperatingPoint();
+		if (point == null || point.users == stage.users) {
+			return null;
+		}
+		// hold the operating point for the rest of the run
+		return stage.withUsers(point.users, min);
+	}
+
+	/**
+	 * @return num, time, time_max, dbtime, dbtime_max of payment,
+	 *         stock_level, order_status, delivery and new_order, then the
+	 *         failed transactions of each, in a SOCK_GET_TRANSACTION_COUNTERS
+	 *         response
+	 */
+	private long[] readCounters(Frame response) throws IOException {
+		long[] counters = new long[30];
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] = response.getVarLong();
+		}
+		return counters;
+	}
+
 	public static void main(String[] args) {
 		if (args.length != 1) {
 			System.err
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Live metrics of the master in the Prometheus text format <BR>
+ *
+ * Serves GET /metrics. The master and the series collector render their
+ * part of the text when they have aggregated a minute or an interval and
+ * publish it through a volatile field; a scrape only joins the parts, so it
+ * never waits for a lock of the aggregation and a slow scraper never holds
+ * it up. Response times are in seconds, the counters of the minute report
+ * are the 30 of Master.readCounters().
+ *
+ * @version 1.0
+ */
+public class MetricsServer implements Config {
+	/** the order of the types in the minute counters */
+	private final static String[] counterTypes = { "payment", "stock_level",
+			"order_status", "delivery", "new_order" };
+	private final static double[] quantiles = { 0.5, 0.95, 0.99, 0.999 };
+
+	private HttpServer server;
+	private volatile String minuteMetrics = "";
+	private volatile String intervalMetrics = "";
+	private volatile String slaveMetrics = "";
+	private volatile String loadMetrics = "";
+	private volatile String poolMetrics = "";
+
+	/**
+	 * @param address
+	 *            to bind, 127.0.0.1 serves this host only, 0.0.0.0 all
+	 *            interfaces
+	 */
+	public MetricsServer(String address, int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(address, port), 0);
+		server.createContext("/metrics", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = (minuteMetrics + poolMetrics + intervalMetrics
+						+ slaveMetrics + loadMetrics).getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type",
+						"text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+
+	/**
+	 * Publish the minute report.
+	 *
+	 * @param counters
+	 *            the totals and maximums of the last minute, with the failed
+	 *            transactions, as Master.readCounters()
+	 * @param last
+	 *            the totals a minute before
+	 * @param histograms
+	 *            of the last minute, indexed by reportTypes
+	 */
+	public void setMinute(long timestamp, long[] counters, long[] last,
+			LatencyHistogram[] histograms) {
+		StringBuilder text = new StringBuilder();
+		header(text, "dbmeter_minute_timestamp_seconds",
+				"End of the last minute report", "gauge");
+		text.append("dbmeter_minute_timestamp_seconds ").append(
+				timestamp / 1000.0).append('\n');
+		header(text, "dbmeter_tpm", "Transactions of the last minute",
+				"gauge");
+		for (int k = 0; k < counterTypes.length; k++) {
+			sample(text, "dbmeter_tpm", counterTypes[k], counters[k * 5]
+					- last[k * 5]);
+		}
+		header(text, "dbmeter_transactions_total",
+				"Successful transactions since the start", "counter");
+		for (int k = 0; k < counterTypes.length; k++) {
+			sample(text, "dbmeter_transactions_total", counterTypes[k],
+					counters[k * 5]);
+		}
+		header(text, "dbmeter_errors_total",
+				"Failed transactions since the start", "counter");
+		for (int k = 0; k < counterTypes.length; k++) {
+			sample(text, "dbmeter_errors_total", counterTypes[k],
+					counters[25 + k]);
+		}
+		header(text, "dbmeter_rt_avg_seconds",
+				"Average response time of the last minute", "gauge");
+		for (int k = 0; k < counterTypes.length; k++) {
+			sample(text, "dbmeter_rt_avg_seconds", counterTypes[k], average(
+					counters, last, k * 5 + 1));
+		}
+		header(text, "dbmeter_db_rt_avg_seconds",
+				"Average database time of the last minute", "gauge");
+		for (int k = 0; k < counterTypes.length; k++) {
+			sample(text, "dbmeter_db_rt_avg_seconds", counterTypes[k],
+					average(counters, last, k * 5 + 3));
+		}
+		header(text, "dbmeter_rt_max_seconds",
+				"Maximum response time of the last minute", "gauge");
+		for (int k = 0; k < counterTypes.length; k++) {
+			sample(text, "dbmeter_rt_max_seconds", counterTypes[k],
+					counters[k * 5 + 2] / 1000000.0);
+		}
+		header(text, "dbmeter_rt_quantile_seconds",
+				"Response time percentiles of the last minute", "gauge");
+		for (int i = 0; i < reportTypes.length; i++) {
+			for (double quantile : quantiles) {
+				text.append("dbmeter_rt_quantile_seconds{type=\"").append(
+						reportTypes[i]).append("\",quantile=\"").append(
+						quantile).append("\"} ").append(
+						histograms[i].getValueAtPercentile(quantile * 100)
+								/ 1000000.0).append('\n');
+			}
+		}
+		minuteMetrics = text.toString();
+	}
+
+	/**
+	 * Publish the connection pools of all slaves.
+	 *
+	 * @param before
+	 *            of the minute before
+	 */
+	public void setPool(PoolStats pool, PoolStats before) {
+		StringBuilder text = new StringBuilder();
+		gauge(text, "dbmeter_pool_wait_avg_seconds",
+				"Average wait for a pooled connection of the last minute",
+				pool.getAverageWait(before) / 1000000.0);
+		gauge(text, "dbmeter_pool_wait_max_seconds",
+				"Maximum wait for a pooled connection of the last minute",
+				pool.waitMax / 1000000.0);
+		header(text, "dbmeter_pool_wait_quantile_seconds",
+				"Wait percentiles for a pooled connection of the last minute",
+				"gauge");
+		for (double quantile : quantiles) {
+			text.append("dbmeter_pool_wait_quantile_seconds{quantile=\"")
+					.append(quantile).append("\"} ").append(
+							pool.histogram.getValueAtPercentile(quantile * 100)
+									/ 1000000.0).append('\n');
+		}
+		header(text, "dbmeter_pool_acquired_total",
+				"Pooled connections taken since the start", "counter");
+		text.append("dbmeter_pool_acquired_total ").append(pool.acquired)
+				.append('\n');
+		header(text, "dbmeter_pool_timeouts_total",
+				"Waits for a pooled connection timed out since the start",
+				"counter");
+		text.append("dbmeter_pool_timeouts_total ").append(pool.timeouts)
+				.append('\n');
+		header(text, "dbmeter_pool_broken_total",
+				"Pooled connections closed as broken since the start",
+				"counter");
+		text.append("dbmeter_pool_broken_total ").append(pool.broken)
+				.append('\n');
+		gauge(text, "dbmeter_pool_in_use", "Pooled connections in use",
+				pool.inUse);
+		gauge(text, "dbmeter_pool_idle", "Pooled connections idle",
+				pool.idle);
+		gauge(text, "dbmeter_pool_waiters",
+				"Users waiting for a pooled connection", pool.waiters);
+		gauge(text, "dbmeter_pool_size", "Pooled connections at most",
+				pool.size);
+		poolMetrics = text.toString();
+	}
+
+	/**
+	 * Publish an interval of the time series, called in timestamp order.
+	 */
+	public void addInterval(TransactionCounters.Snapshot sample,
+			long intervalMilliSecond) {
+		StringBuilder text = new StringBuilder();
+		header(text, "dbmeter_interval_timestamp_seconds",
+				"End of the last interval", "gauge");
+		text.append("dbmeter_interval_timestamp_seconds ").append(
+				sample.timestamp / 1000.0).append('\n');
+		header(text, "dbmeter_interval_tpm",
+				"Transactions of the last interval, per minute", "gauge");
+		for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+			sample(text, "dbmeter_interval_tpm", reportTypes[i],
+					sample.num[i] * 60000.0 / intervalMilliSecond);
+		}
+		intervalMetrics = text.toString();
+	}
+
+	/**
+	 * Publish the state of the slaves after a poll.
+	 *
+	 * @param slaves
+	 *            by name
+	 * @param late
+	 *            the names of the slaves that missed the poll
+	 */
+	public void setSlaves(Map<String, ControlServer.Connection> slaves,
+			Iterable<String> late) {
+		StringBuilder text = new StringBuilder();
+		header(text, "dbmeter_slave_up", "1 while the slave is connected",
+				"gauge");
+		for (Map.Entry<String, ControlServer.Connection> slave : slaves
+				.entrySet()) {
+			text.append("dbmeter_slave_up{slave=\"").append(slave.getKey())
+					.append("\"} ").append(slave.getValue().isOpen() ? 1 : 0)
+					.append('\n');
+		}
+		header(text, "dbmeter_slave_late",
+				"1 when the slave missed the deadline of the last poll",
+				"gauge");
+		for (String name : slaves.keySet()) {
+			boolean missed = false;
+			for (String lateName : late) {
+				missed = missed || lateName.equals(name);
+			}
+			text.append("dbmeter_slave_late{slave=\"").append(name).append(
+					"\"} ").append(missed ? 1 : 0).append('\n');
+		}
+		slaveMetrics = text.toString();
+	}
+
+	/**
+	 * Publish the load stage, see LoadProfile.
+	 */
+	public void setStage(LoadProfile.Stage stage) {
+		StringBuilder text = new StringBuilder();
+		header(text, "dbmeter_stage", "Number of the load stage", "gauge");
+		text.append("dbmeter_stage ").append(stage.number).append('\n');
+		header(text, "dbmeter_active_users", "Active users of all slaves",
+				"gauge");
+		text.append("dbmeter_active_users ").append(stage.users).append('\n');
+		loadMetrics = text.toString();
+	}
+
+	/**
+	 * @return the average of the last minute in seconds, the time at index
+	 *         of the num at the start of its type
+	 */
+	private static double average(long[] counters, long[] last, int index) {
+		int num = index - index % 5;
+		long count = counters[num] - last[num];
+		if (count == 0) {
+			return 0;
+		}
+		return (double) (counters[index] - last[index]) / count / 1000000.0;
+	}
+
+	private static void header(StringBuilder text, String name, String help,
+			String type) {
+		text.append("# HELP ").append(name).append(' ').append(help).append(
+				'\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append(
+				'\n');
+	}
+
+	private static void gauge(StringBuilder text, String name, String help,
+			double value) {
+		header(text, name, help, "gauge");
+		text.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void sample(StringBuilder text, String name, String type,
+			double value) {
+		text.append(name).append("{type=\"").append(type).append("\"} ")
+				.append(value).append('\n');
+	}
+}
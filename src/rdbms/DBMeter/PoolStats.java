@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.io.IOException;
+
+/**
+ * Connection pool statistics of a minute report <BR>
+ *
+ * A slave adds them to its SOCK_GET_TRANSACTION_COUNTERS response after the
+ * histograms, relays and the master merge them like the transaction
+ * counters: acquired, waitTime, timeouts and broken (connections closed as
+ * dead) are cumulative since the start, waitMax and the histogram are of
+ * the last minute, inUse, idle, waiters and size are gauges at the poll.
+ * The wait of a user for a pooled connection is part of its response time;
+ * reported apart, a pool that is too small can be told from a slow
+ * database.
+ *
+ * Times in microseconds.
+ *
+ * @version 1.0
+ */
+public class PoolStats {
+	public long acquired = 0;
+	public long waitTime = 0;
+	public long timeouts = 0;
+	public long broken = 0;
+	public long waitMax = 0;
+	public long inUse = 0;
+	public long idle = 0;
+	public long waiters = 0;
+	public long size = 0;
+	public final LatencyHistogram histogram = new LatencyHistogram();
+
+	/**
+	 * The statistics of a slave.
+	 *
+	 * @param before
+	 *            of the minute before
+	 * @param minute
+	 *            the counters of the last minute
+	 */
+	public static PoolStats of(PoolStats before,
+			TransactionCounters.Snapshot minute, ConnectionPool connectionPool) {
+		PoolStats stats = new PoolStats();
+		stats.acquired = before.acquired;
+		stats.waitTime = before.waitTime;
+		for (int i = Config.NEW_ORDER; i <= Config.STOCK_LEVEL; i++) {
+			stats.acquired += minute.count[i];
+			stats.waitTime += minute.poolWait[i];
+			stats.waitMax = Math.max(stats.waitMax, minute.poolWaitMax[i]);
+		}
+		stats.histogram.add(minute.poolWaitHistogram);
+		stats.timeouts = connectionPool.getTimeouts();
+		stats.broken = connectionPool.getBroken();
+		stats.inUse = connectionPool.getInUse();
+		stats.idle = connectionPool.getIdle();
+		stats.waiters = connectionPool.getWaiters();
+		stats.size = connectionPool.getMaxConnections();
+		return stats;
+	}
+
+	/**
+	 * Read the statistics written by writeTo().
+	 */
+	public static PoolStats readFrom(Frame frame) throws IOException {
+		PoolStats stats = new PoolStats();
+		stats.acquired = frame.getVarLong();
+		stats.waitTime = frame.getVarLong();
+		stats.timeouts = frame.getVarLong();
+		stats.broken = frame.getVarLong();
+		stats.waitMax = frame.getVarLong();
+		stats.inUse = frame.getVarLong();
+		stats.idle = frame.getVarLong();
+		stats.waiters = frame.getVarLong();
+		stats.size = frame.getVarLong();
+		stats.histogram.addFrom(frame);
+		return stats;
+	}
+
+	public void writeTo(Frame frame) {
+		frame.putVarLong(acquired).putVarLong(waitTime).putVarLong(timeouts)
+				.putVarLong(broken).putVarLong(waitMax).putVarLong(inUse).putVarLong(idle)
+				.putVarLong(waiters).putVarLong(size);
+		histogram.writeTo(frame);
+	}
+
+	/**
+	 * Add the cumulative statistics of a slave, also of a slave that is
+	 * gone.
+	 */
+	public void addTotals(PoolStats other) {
+		acquired += other.acquired;
+		waitTime += other.waitTime;
+		timeouts += other.timeouts;
+		broken += other.broken;
+	}
+
+	/**
+	 * Add the minute and the gauges of a slave that answered the poll.
+	 */
+	public void addLast(PoolStats other) {
+		waitMax = Math.max(waitMax, other.waitMax);
+		inUse += other.inUse;
+		idle += other.idle;
+		waiters += other.waiters;
+		size += other.size;
+		histogram.add(other.histogram);
+	}
+
+	/**
+	 * @return average wait of the connections acquired since before, in
+	 *         microseconds
+	 */
+	public double getAverageWait(PoolStats before) {
+		long count = acquired - before.acquired;
+		return count == 0 ? 0.0 : (double) (waitTime - before.waitTime)
+				/ count;
+	}
+
+	/**
+	 * One POOL_VALUE row of the time since before.
+	 */
+	public String format(Object timestamp, PoolStats before) {
+		return String.format(Config.POOL_VALUE, timestamp, acquired
+				- before.acquired, getAverageWait(before) / 1000,
+				waitMax / 1000.0,
+				histogram.getValueAtPercentile(95.0) / 1000.0, histogram
+						.getValueAtPercentile(99.0) / 1000.0, inUse, idle,
+				waiters, size, timeouts - before.timeouts, broken
+						- before.broken);
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/**
+ * Failover recovery timing of the master <BR>
+ *
+ * Follows the total tpm of the time series intervals, or of the minute
+ * reports without them. The baseline is the average of the last minute of
+ * samples. An outage starts with a sample below outagePercent of the
+ * baseline and ends with the first one back at recoveryPercent of it; the
+ * recovery time is from the start of the first low sample to the end of
+ * the first recovered one. A new load stage starts a new baseline.
+ *
+ * @version 1.0
+ */
+public class RecoveryMonitor {
+
+	/**
+	 * An outage and its recovery
+	 */
+	public static final class Outage {
+		/** start of the first low sample, ms */
+		public final long start;
+		public final double baselineTpm;
+		public double lowestTpm;
+		/** end of the first recovered sample, 0 while down */
+		public long recovered = 0;
+
+		private Outage(long start, double baselineTpm, double tpm) {
+			this.start = start;
+			this.baselineTpm = baselineTpm;
+			this.lowestTpm = tpm;
+		}
+	}
+
+	private double outageRatio;
+	private double recoveryRatio;
+	private long sampleMilliSecond;
+	private int window;
+
+	/** tpm of the samples of the baseline, newest last */
+	private LinkedList<Double> recent = new LinkedList<Double>();
+	private double recentSum = 0;
+	private Outage outage = null;
+	private ArrayList<Outage> outages = new ArrayList<Outage>();
+	private ArrayList<String> events = new ArrayList<String>();
+
+	/**
+	 * @param sampleMilliSecond
+	 *            the interval of the samples
+	 */
+	public RecoveryMonitor(double outagePercent, double recoveryPercent,
+			long sampleMilliSecond) {
+		this.outageRatio = outagePercent / 100;
+		this.recoveryRatio = recoveryPercent / 100;
+		this.sampleMilliSecond = sampleMilliSecond;
+		this.window = (int) Math.max(1, 60 * 1000 / sampleMilliSecond);
+	}
+
+	/**
+	 * @param timestamp
+	 *            end of the sample, in ms
+	 */
+	public synchronized void add(long timestamp, double tpm) {
+		if (outage != null) {
+			outage.lowestTpm = Math.min(outage.lowestTpm, tpm);
+			if (tpm >= recoveryRatio * outage.baselineTpm) {
+				outage.recovered = timestamp;
+				events.add(String.format(
+						"Throughput recovered to %.2f tpm at %s, %.1f s after the drop, lowest %.2f tpm\n",
+						tpm, new Timestamp(timestamp),
+						(timestamp - outage.start) / 1000.0, outage.lowestTpm));
+				outage = null;
+			}
+			return;
+		}
+		// the first sample of a baseline may cover a partial interval
+		if (recent.size() >= Math.max(1, window / 2)) {
+			double baseline = recentSum / recent.size();
+			if (baseline > 0 && tpm < outageRatio * baseline) {
+				outage = new Outage(timestamp - sampleMilliSecond, baseline,
+						tpm);
+				outages.add(outage);
+				events.add(String.format(
+						"Throughput dropped to %.2f tpm at %s, baseline %.2f tpm\n",
+						tpm, new Timestamp(outage.start), baseline));
+				return;
+			}
+		}
+		recent.addLast(tpm);
+		recentSum += tpm;
+		if (recent.size() > window) {
+			recentSum -= recent.removeFirst();
+		}
+	}
+
+	/**
+	 * Start a new baseline, the load changes on purpose.
+	 */
+	public synchronized void reset() {
+		recent.clear();
+		recentSum = 0;
+		if (outage != null) {
+			outages.remove(outage);
+			outage = null;
+		}
+	}
+
+	/**
+	 * @return the drops and recoveries since the last call, to log
+	 */
+	public synchronized String takeEvents() {
+		StringBuilder text = new StringBuilder();
+		for (String event : events) {
+			text.append(event);
+		}
+		events.clear();
+		return text.toString();
+	}
+
+	public synchronized String getReport() {
+		StringBuilder report = new StringBuilder(String.format(
+				"Failover recovery, outage below %.0f%%, recovered at %.0f%% of the baseline tpm\n",
+				outageRatio * 100, recoveryRatio * 100));
+		if (outages.isEmpty()) {
+			return report.append("No outage.\n").toString();
+		}
+		report.append(String.format("%23s  %12s  %12s  %23s  %10s\n",
+				"outage_start", "baseline_tpm", "lowest_tpm", "recovered",
+				"recovery_s"));
+		for (Outage each : outages) {
+			report.append(String.format("%23s  %12.2f  %12.2f  %23s  %10s\n",
+					new Timestamp(each.start), each.baselineTpm,
+					each.lowestTpm, each.recovered == 0 ? "not recovered"
+							: new Timestamp(each.recovered).toString(),
+					each.recovered == 0 ? "" : String.format("%.1f",
+							(each.recovered - each.start) / 1000.0)));
+		}
+		return report.toString();
+	}
+}
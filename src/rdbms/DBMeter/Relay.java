@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Relay between the master and the slaves of one host or rack <BR>
+ *
+ * The relay is a slave to the master and a master to its local slaves. It
+ * forwards the commands of the master to all local slaves, and answers the
+ * master with the sums of their user and warehouse counts, their counters
+ * and histograms, so the master sees one slave per relay. The cumulative
+ * counters are summed and the maximums and histograms of the last minute
+ * are merged exactly, the reports are the same as with the slaves connected
+ * to the master directly. Pushed interval samples are merged by timestamp
+ * and pushed upstream once per interval. A poll of the slaves waits at most
+ * 4/5 of the poll timeout of the master; a slave that misses it counts with
+ * its last counters and its late response goes into the next poll, as with
+ * the master.
+ *
+ * @version 1.0
+ */
+public class Relay implements Config, Runnable {
+
+	private String name = null;
+	private PrintStream printStreamLogs = null;
+
+	private Socket master = null;
+	private DataInputStream request = null;
+	private DataOutputStream response = null;
+
+	private ControlServer controlServer = null;
+	private HashMap<String, ControlServer.Connection> slaves = null;
+	/** cumulative counters last received per slave, as in Master */
+	private HashMap<ControlServer.Connection, long[]> slaveCounters = new HashMap<ControlServer.Connection, long[]>();
+	private HashMap<ControlServer.Connection, PoolStats> slavePools = new HashMap<ControlServer.Connection, PoolStats>();
+	/** users per slave, to split the active users of a SOCK_SET_LOAD */
+	private HashMap<ControlServer.Connection, Integer> slaveUsers = new HashMap<ControlServer.Connection, Integer>();
+	/** counters responses of the slaves that missed their poll */
+	private ConcurrentLinkedQueue<Map.Entry<ControlServer.Connection, Frame>> lateResponses = new ConcurrentLinkedQueue<Map.Entry<ControlServer.Connection, Frame>>();
+	private volatile SeriesCollector seriesCollector = null;
+
+	private void logMessage(String message) {
+		printStreamLogs.println(message);
+		System.out.println(message);
+	}
+
+	public Relay(String propertiesFile) throws IOException {
+		Properties properties = new Properties();
+		properties.load(new FileInputStream(propertiesFile));
+		this.name = properties.getProperty("name");
+		this.printStreamLogs = new PrintStream(new FileOutputStream("log/log_"
+				+ name + "_" + Util.getFileNameSuffix() + ".txt"));
+
+		// Connect to the master as a slave
+		logMessage("Connect to master...");
+		String masterAddress = properties.getProperty("masterAddress");
+		int masterPort = Integer.parseInt(properties.getProperty("masterPort"));
+		this.master = new Socket(masterAddress, masterPort);
+		master.setTcpNoDelay(true);
+		this.request = new DataInputStream(new BufferedInputStream(master
+				.getInputStream()));
+		this.response = new DataOutputStream(new BufferedOutputStream(master
+				.getOutputStream()));
+		try {
+			Frame frame = Frame.readFrom(request);
+			if (frame.getType() != SOCK_GET_SLAVE_NAME) {
+				throw new InteractiveException(
+						"Master sends a wrong command when get slave name");
+			}
+			new Frame(SOCK_GET_SLAVE_NAME).putString(this.name).writeTo(
+					response, frame.getId());
+			frame = Frame.readFrom(request);
+			while (frame.getType() == SOCK_SYNC_CLOCK) {
+				new Frame(SOCK_SYNC_CLOCK).putLong(System.currentTimeMillis())
+						.writeTo(response, frame.getId());
+				frame = Frame.readFrom(request);
+			}
+			if (frame.getType() != SOCK_GET_SLAVE_NAME_OK) {
+				throw new InteractiveException(
+						"Master response error when get slave name");
+			}
+			int runMinutes = frame.getInt();
+			int warmupMinutes = frame.getInt();
+			// the offsets of the slaves are passed on relative to the master
+			long clockOffset = frame.getLong();
+			logMessage("Clock offset to master " + clockOffset + " ms.");
+
+			// Connect the local slaves
+			int listenPort = Integer.parseInt(properties
+					.getProperty("listenPort"));
+			this.controlServer = new ControlServer(listenPort);
+			controlServer.setListener(new ControlServer.Listener() {
+				public void received(ControlServer.Connection connection,
+						Frame frame) {
+					SeriesCollector collector = seriesCollector;
+					if (frame.getType() == SOCK_GET_TRANSACTION_COUNTERS) {
+						lateResponses
+								.add(new AbstractMap.SimpleEntry<ControlServer.Connection, Frame>(
+										connection, frame));
+					} else if (frame.getType() == SOCK_PUSH_SAMPLES
+							&& collector != null) {
+						try {
+							collector.received(connection, frame);
+						} catch (IOException e) {
+							System.err.println("Series: " + e.getMessage());
+						}
+					}
+				}
+			});
+			controlServer.start();
+			logMessage("Listening on " + listenPort);
+			logMessage("Waiting slaves to be connected.");
+			String[] slaveNames = properties.getProperty("slaves").split(",");
+			this.slaves = new HashMap<String, ControlServer.Connection>();
+			while (this.slaves.size() != slaveNames.length) {
+				ControlServer.Connection slave = controlServer.accept();
+				Frame slaveName = controlServer.request(slave, new Frame(
+						SOCK_GET_SLAVE_NAME));
+				if (slaveName == null) {
+					continue;
+				}
+				String name = slaveName.getString();
+				boolean rightName = false;
+				for (String knownName : slaveNames) {
+					if (knownName.equalsIgnoreCase(name)) {
+						rightName = true;
+						break;
+					}
+				}
+				if (rightName == true && !slaves.containsKey(name)) {
+					long offset;
+					try {
+						offset = controlServer.measureClockOffset(slave)
+								+ clockOffset;
+					} catch (IOException e) {
+						logMessage(e.getMessage());
+						controlServer.send(slave, new Frame(
+								SOCK_GET_SLAVE_NAME_ERROR));
+						controlServer.close(slave);
+						continue;
+					}
+					slaves.put(name, slave);
+					controlServer.send(slave, new Frame(SOCK_GET_SLAVE_NAME_OK)
+							.putInt(runMinutes).putInt(warmupMinutes).putLong(
+									offset));
+					logMessage(name + " connected, clock offset " + offset
+							+ " ms.");
+				} else {
+					controlServer.send(slave, new Frame(
+							SOCK_GET_SLAVE_NAME_ERROR));
+					controlServer.close(slave);
+				}
+			}
+			logMessage("All slaves are connected");
+
+			// Sum the users and warehouses of the slaves
+			frame = Frame.readFrom(request);
+			if (frame.getType() != SOCK_GET_USER_AND_WAREHOUSE) {
+				throw new InteractiveException(
+						"Master sends a wrong command when get user and warehouse properties");
+			}
+			int userCount = 0, warehouseCount = 0;
+			Map<ControlServer.Connection, Frame> counts = controlServer
+					.request(slaves.values(), new Frame(
+							SOCK_GET_USER_AND_WAREHOUSE));
+			if (counts.size() != slaves.size()) {
+				throw new InteractiveException(
+						"Slave disconnected when get user and warehouse properties");
+			}
+			for (Map.Entry<ControlServer.Connection, Frame> count : counts
+					.entrySet()) {
+				int users = count.getValue().getInt();
+				slaveUsers.put(count.getKey(), users);
+				userCount += users;
+				warehouseCount += count.getValue().getInt();
+			}
+			new Frame(SOCK_GET_USER_AND_WAREHOUSE).putInt(userCount).putInt(
+					warehouseCount).writeTo(response, frame.getId());
+			frame = Frame.readFrom(request);
+			controlServer.send(slaves.values(), new Frame(frame.getType()));
+			if (frame.getType() != SOCK_GET_USER_AND_WAREHOUSE_OK) {
+				throw new InteractiveException(
+						"Master response error when get user and warehouse properties");
+			}
+			logMessage(userCount + " users, " + warehouseCount
+					+ " warehouses.");
+
+			// Forward the transaction properties
+			Frame transactionConfig = Frame.readFrom(request);
+			if (transactionConfig.getType() != SOCK_SEND_TRANSACTION_CONFIGS) {
+				throw new InteractiveException(
+						"Master send wrong transaction properties");
+			}
+			controlServer.send(slaves.values(), new Frame(
+					SOCK_SEND_TRANSACTION_CONFIGS)
+					.putRemaining(transactionConfig));
+			for (int i = 0; i < 10; i++) {
+				// percents and think times
+				transactionConfig.getInt();
+			}
+			int reportIntervalMilliSecond = transactionConfig.getInt();
+			if (reportIntervalMilliSecond < 60 * 1000) {
+				seriesCollector = new SeriesCollector(slaves.values(),
+						reportIntervalMilliSecond, response);
+				seriesCollector.start();
+			}
+
+			// Start Transaction
+			frame = Frame.readFrom(request);
+			while (frame.getType() == SOCK_SET_LOAD
+					|| frame.getType() == SOCK_READY) {
+				if (frame.getType() == SOCK_READY) {
+					ready(frame);
+				} else {
+					forwardLoad(frame);
+				}
+				frame = Frame.readFrom(request);
+			}
+			if (frame.getType() != SOCK_START_TRANSACTION) {
+				throw new InteractiveException(
+						"Master response error when start transactions");
+			}
+			controlServer.send(slaves.values(), new Frame(
+					SOCK_START_TRANSACTION).putRemaining(frame));
+			logMessage("Transactions started.");
+		} catch (InteractiveException e) {
+			logMessage(e.getMessage());
+			this.master.close();
+			System.exit(-1);
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void run() {
+		try {
+			while (true) {
+				Frame command = Frame.readFrom(request);
+				if (command.getType() == SOCK_GET_TRANSACTION_COUNTERS) {
+					Frame poll = new Frame(SOCK_GET_TRANSACTION_COUNTERS)
+							.putRemaining(command);
+					command.getLong();
+					// leave the relay time to answer within the master timeout
+					long timeoutMilliSecond = command.hasRemaining() ? Math
+							.max(1, command.getInt() * 4 / 5) : 0;
+					Frame counters = mergeCounters(controlServer.request(
+							slaves.values(), poll, timeoutMilliSecond));
+					synchronized (response) {
+						counters.writeTo(response, command.getId());
+					}
+				} else if (command.getType() == SOCK_SET_LOAD) {
+					forwardLoad(command);
+				} else if (command.getType() == SOCK_SIGNAL_WARMUP_PHASE_END) {
+					controlServer.send(slaves.values(), new Frame(
+							SOCK_SIGNAL_WARMUP_PHASE_END).putRemaining(command));
+					logMessage("Warmup phase end.");
+				} else if (command.getType() == SOCK_SIGNAL_RUN_END) {
+					controlServer.send(slaves.values(), new Frame(
+							SOCK_SIGNAL_RUN_END).putRemaining(command));
+					logMessage("Waiting slaves to terminate users.");
+					for (ControlServer.Connection slave : slaves.values()) {
+						while (slave.isOpen()) {
+							Thread.sleep(100);
+						}
+					}
+					if (seriesCollector != null) {
+						seriesCollector.stop();
+					}
+					controlServer.shutdown();
+					logMessage("All slaves disconnected.");
+					master.close();
+					printStreamLogs.close();
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Forward a SOCK_SET_LOAD, the active users split over the slaves in
+	 * proportion to their users.
+	 */
+	private void forwardLoad(Frame command) throws IOException {
+		int active = command.getInt();
+		Map<ControlServer.Connection, Integer> shares = LoadProfile.split(
+				active, slaveUsers);
+		for (Map.Entry<ControlServer.Connection, Integer> share : shares
+				.entrySet()) {
+			controlServer.send(share.getKey(), new Frame(SOCK_SET_LOAD).putInt(
+					share.getValue()).putRemaining(command));
+		}
+		logMessage("Load " + active + " active user(s).");
+	}
+
+	/**
+	 * Answer the SOCK_READY request when all slaves are ready or 4/5 of the
+	 * timeout of the master is over, with the slowest time, the connections
+	 * open and the pool sizes of the slaves ready.
+	 */
+	private void ready(Frame ready) throws IOException, InterruptedException {
+		long timeoutMilliSecond = ready.hasRemaining() ? Math.max(1, ready
+				.getLong() * 4 / 5) : 0;
+		Map<ControlServer.Connection, Frame> responses = controlServer
+				.request(slaves.values(), new Frame(SOCK_READY),
+						timeoutMilliSecond);
+		long readyMilliSecond = 0;
+		int open = 0;
+		int size = 0;
+		for (Map.Entry<String, ControlServer.Connection> slave : slaves
+				.entrySet()) {
+			Frame answer = responses.get(slave.getValue());
+			if (answer == null) {
+				logMessage(slave.getKey() + " not ready in "
+						+ timeoutMilliSecond + " ms, starts anyway.");
+				continue;
+			}
+			readyMilliSecond = Math.max(readyMilliSecond, answer.getLong());
+			open += answer.getInt();
+			size += answer.getInt();
+		}
+		logMessage("Ready in " + readyMilliSecond + " ms, " + open + " of "
+				+ size + " connection(s) open.");
+		synchronized (response) {
+			new Frame(SOCK_READY).putLong(readyMilliSecond).putInt(open)
+					.putInt(size).writeTo(response, ready.getId());
+		}
+	}
+
+	/**
+	 * @param responses
+	 *            of the slaves in time, the others count with their last
+	 *            counters
+	 * @return one SOCK_GET_TRANSACTION_COUNTERS response for all slaves
+	 */
+	private Frame mergeCounters(Map<ControlServer.Connection, Frame> responses)
+			throws IOException {
+		long[] merged = new long[30];
+		LatencyHistogram[] histograms = LatencyHistogram
+				.newArray(reportTypes.length);
+		PoolStats pool = new PoolStats();
+		// the late responses of earlier polls are older, add them first
+		Map.Entry<ControlServer.Connection, Frame> late;
+		while ((late = lateResponses.poll()) != null) {
+			addCounters(late.getKey(), late.getValue(), merged, histograms,
+					pool);
+		}
+		ArrayList<String> lateSlaves = new ArrayList<String>();
+		for (Map.Entry<String, ControlServer.Connection> slave : slaves
+				.entrySet()) {
+			Frame response = responses.get(slave.getValue());
+			if (response != null) {
+				addCounters(slave.getValue(), response, merged, histograms,
+						pool);
+			} else {
+				lateSlaves.add(slave.getKey());
+			}
+		}
+		if (!lateSlaves.isEmpty()) {
+			logMessage("Late slaves " + lateSlaves + ".");
+		}
+		// the other counters are cumulative, a slave that is gone still counts
+		for (long[] counters : slaveCounters.values()) {
+			for (int i = 0; i < merged.length; i++) {
+				if (i >= 25 || i % 5 != 2 && i % 5 != 4) {
+					merged[i] += counters[i];
+				}
+			}
+		}
+		for (PoolStats stats : slavePools.values()) {
+			pool.addTotals(stats);
+		}
+		Frame frame = new Frame(SOCK_GET_TRANSACTION_COUNTERS);
+		for (long value : merged) {
+			frame.putVarLong(value);
+		}
+		for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+			histograms[i].writeTo(frame);
+		}
+		pool.writeTo(frame);
+		return frame;
+	}
+
+	/**
+	 * Keep the cumulative counters of a slave and merge its maximums,
+	 * histograms and pool waits of the last minute.
+	 */
+	private void addCounters(ControlServer.Connection slave, Frame response,
+			long[] merged, LatencyHistogram[] histograms, PoolStats pool)
+			throws IOException {
+		// the 25 of the types, then their failed transactions
+		long[] counters = new long[30];
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] = response.getVarLong();
+		}
+		slaveCounters.put(slave, counters);
+		for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+			histograms[i].addFrom(response);
+		}
+		PoolStats stats = PoolStats.readFrom(response);
+		slavePools.put(slave, stats);
+		pool.addLast(stats);
+		// time_max and dbtime_max of each type are of the last minute
+		for (int i = 2; i < 25; i += 5) {
+			merged[i] = Math.max(merged[i], counters[i]);
+			merged[i + 2] = Math.max(merged[i + 2], counters[i + 2]);
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.err.println("USAGE: java DBMeter.Relay [properties file]");
+			System.exit(-1);
+		}
+		try {
+			new Thread(new Relay(args[0])).start();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Properties;
+
+/**
+ * Where a slave keeps its results <BR>
+ *
+ * A result is a row of the minute and average reports of the slave, with
+ * the columns of the DBMETER_RESULT table. The sink is chosen by the
+ * resultSink property: "file" (the default) appends to a local file and
+ * keeps the bookkeeping off the database under test, "table" inserts into
+ * DBMETER_RESULT through a dedicated connection, "none" keeps nothing but
+ * the logs.
+ *
+ * @version 1.0
+ */
+public abstract class ResultSink {
+
+	/**
+	 * @param avgRt
+	 *            in milliseconds
+	 * @param maxRt
+	 *            in milliseconds
+	 */
+	public abstract void add(String slave, String phase, Timestamp time,
+			String type, double tpm, double avgRt, double maxRt,
+			long numTotal, long warmupTotal) throws IOException, SQLException;
+
+	public abstract void close();
+
+	/**
+	 * @return the sink of the resultSink property, null for none
+	 */
+	public static ResultSink create(Properties properties, String name)
+			throws IOException {
+		String sink = properties.getProperty("resultSink", "file").trim();
+		if (sink.equalsIgnoreCase("none")) {
+			return null;
+		} else if (sink.equalsIgnoreCase("table")) {
+			return new TableResultSink(properties.getProperty("url"),
+					properties.getProperty("user"), properties
+							.getProperty("password"));
+		} else {
+			if (!sink.equalsIgnoreCase("file")) {
+				System.err.println("Unknown resultSink " + sink
+						+ ", use file.");
+			}
+			return new FileResultSink("log/result_" + name + "_"
+					+ Util.getFileNameSuffix() + ".csv");
+		}
+	}
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Timestamp;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Machine-readable results of the master <BR>
+ *
+ * Streams every record of the run to run_SUFFIX.jsonl, one JSON object per
+ * line, and to run_SUFFIX.csv, one row per transaction type. A record is an
+ * interval of the time series, a minute report, a load stage or the
+ * summary of the run phase; each carries the run configuration. The
+ * callers only format the record and queue it, a background thread writes
+ * the files through buffers and flushes when the queue runs empty, so the
+ * aggregation never waits for the disk.
+ *
+ * Response times are in milliseconds as in the reports. errors are the
+ * failed transactions of the record, of the run phase in the summary.
+ *
+ * @version 1.0
+ */
+public class ResultWriter implements Config, Runnable {
+	private final static String CSV_HEADER = "run,kind,label,timestamp,type,tpm,count,errors,avg_rt,max_rt,avg_db_rt,max_db_rt,p50_rt,p95_rt,p99_rt,p99.9_rt,users,warehouses,run_minutes,warmup_minutes,mix,think,report_interval_ms\n";
+	/** the order of the types in the minute counters */
+	private final static String[] counterTypes = { "payment", "stock_level",
+			"order_status", "delivery", "new_order" };
+	private final static String[] STOP = new String[0];
+
+	private String runId;
+	private String configJson;
+	private String configCsv;
+	private Writer json;
+	private Writer csv;
+	private LinkedBlockingQueue<String[]> queue = new LinkedBlockingQueue<String[]>();
+	private Thread thread = null;
+	private volatile boolean closed = false;
+
+	/**
+	 * @param config
+	 *            the run configuration, numbers and strings
+	 * @param csvConfig
+	 *            the values of the configuration columns of CSV_HEADER
+	 */
+	public ResultWriter(String directory, String runId,
+			Map<String, Object> config, String csvConfig) throws IOException {
+		File dir = new File(directory);
+		dir.mkdirs();
+		this.runId = runId;
+		StringBuilder text = new StringBuilder("{");
+		for (Map.Entry<String, Object> entry : config.entrySet()) {
+			if (text.length() > 1) {
+				text.append(',');
+			}
+			text.append(quote(entry.getKey())).append(':');
+			if (entry.getValue() instanceof Number) {
+				text.append(entry.getValue());
+			} else {
+				text.append(quote(String.valueOf(entry.getValue())));
+			}
+		}
+		this.configJson = text.append('}').toString();
+		this.configCsv = csvConfig;
+		this.json = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(new File(dir, "run_" + runId + ".jsonl")),
+				"UTF-8"));
+		this.csv = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(new File(dir, "run_" + runId + ".csv")),
+				"UTF-8"));
+		queue.add(new String[] { null, CSV_HEADER });
+	}
+
+	public void start() {
+		thread = new Thread(this, "ResultWriter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Write what is queued and close the files.
+	 */
+	public void close() {
+		closed = true;
+		queue.add(STOP);
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * An interval of the time series, on the series collector thread.
+	 */
+	public void addInterval(TransactionCounters.Snapshot sample,
+			long intervalMilliSecond) {
+		double minutes = intervalMilliSecond / 60000.0;
+		String[] types = new String[reportTypes.length];
+		double[][] values = new double[reportTypes.length][];
+		long num = 0, count = 0, time = 0, timeMax = 0, dbtime = 0, dbtimeMax = 0;
+		for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+			types[i] = reportTypes[i];
+			values[i] = values(sample.num[i] / minutes, sample.num[i],
+					sample.count[i] - sample.num[i], sample.count[i],
+					sample.time[i], sample.timeMax[i], sample.dbtime[i],
+					sample.dbtimeMax[i], sample.histograms[i]);
+			num += sample.num[i];
+			count += sample.count[i];
+			time += sample.time[i];
+			timeMax = Math.max(timeMax, sample.timeMax[i]);
+			dbtime += sample.dbtime[i];
+			dbtimeMax = Math.max(dbtimeMax, sample.dbtimeMax[i]);
+		}
+		types[0] = reportTypes[0];
+		values[0] = values(num / minutes, num, count - num, count, time,
+				timeMax, dbtime, dbtimeMax, sample.histograms[0]);
+		add("interval", "", sample.timestamp, types, values);
+	}
+
+	/**
+	 * A report of the master from the minute counters.
+	 *
+	 * @param counters
+	 *            the totals and maximums, with the failed transactions, as
+	 *            Master.readCounters()
+	 * @param base
+	 *            the totals at the start of the report
+	 * @param histograms
+	 *            of the report, indexed by reportTypes
+	 */
+	public void addReport(String kind, String label, long timestamp,
+			double minutes, long[] counters, long[] base,
+			LatencyHistogram[] histograms) {
+		String[] types = new String[counterTypes.length + 1];
+		double[][] values = new double[counterTypes.length + 1][];
+		long num = 0, failed = 0, time = 0, timeMax = 0, dbtime = 0, dbtimeMax = 0;
+		for (int k = 0; k < counterTypes.length; k++) {
+			int i = k * 5;
+			long typeNum = counters[i] - base[i];
+			long typeFailed = counters[25 + k] - base[25 + k];
+			long typeTime = counters[i + 1] - base[i + 1];
+			long typeDbtime = counters[i + 3] - base[i + 3];
+			types[k] = counterTypes[k];
+			values[k] = values(typeNum / minutes, typeNum, typeFailed,
+					typeNum, typeTime, counters[i + 2], typeDbtime,
+					counters[i + 4], histograms[histogramIndex(counterTypes[k])]);
+			num += typeNum;
+			failed += typeFailed;
+			time += typeTime;
+			timeMax = Math.max(timeMax, counters[i + 2]);
+			dbtime += typeDbtime;
+			dbtimeMax = Math.max(dbtimeMax, counters[i + 4]);
+		}
+		types[counterTypes.length] = reportTypes[0];
+		values[counterTypes.length] = values(num / minutes, num, failed,
+				num, time, timeMax, dbtime, dbtimeMax, histograms[0]);
+		add(kind, label, timestamp, types, values);
+	}
+
+	private static int histogramIndex(String type) {
+		for (int i = 0; i < reportTypes.length; i++) {
+			if (reportTypes[i].equals(type)) {
+				return i;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param count
+	 *            the transactions the times are of
+	 * @return tpm, successful, errors, avg_rt, max_rt, avg_db_rt, max_db_rt
+	 *         and the percentiles in milliseconds
+	 */
+	private static double[] values(double tpm, long num, long errors,
+			long count, long time, long timeMax, long dbtime, long dbtimeMax,
+			LatencyHistogram histogram) {
+		return new double[] { tpm, num, errors,
+				count == 0 ? 0.0 : (double) time / count / 1000,
+				timeMax / 1000.0,
+				count == 0 ? 0.0 : (double) dbtime / count / 1000,
+				dbtimeMax / 1000.0,
+				histogram.getValueAtPercentile(50.0) / 1000.0,
+				histogram.getValueAtPercentile(95.0) / 1000.0,
+				histogram.getValueAtPercentile(99.0) / 1000.0,
+				histogram.getValueAtPercentile(99.9) / 1000.0 };
+	}
+
+	private void add(String kind, String label, long timestamp,
+			String[] types, double[][] values) {
+		if (closed) {
+			return;
+		}
+		String time = new Timestamp(timestamp).toString();
+		StringBuilder line = new StringBuilder();
+		line.append("{\"run\":").append(quote(runId)).append(",\"kind\":")
+				.append(quote(kind)).append(",\"label\":").append(
+						quote(label)).append(",\"timestamp\":").append(
+						quote(time)).append(",\"timestamp_ms\":").append(
+						timestamp).append(",\"config\":").append(configJson)
+				.append(",\"types\":{");
+		StringBuilder rows = new StringBuilder();
+		for (int t = 0; t < types.length; t++) {
+			double[] v = values[t];
+			if (t > 0) {
+				line.append(',');
+			}
+			line.append(quote(types[t])).append(
+					String.format(Locale.US,
+							":{\"tpm\":%.2f,\"count\":%d,\"errors\":%d,"
+									+ "\"avg_rt\":%.3f,\"max_rt\":%.3f,"
+									+ "\"avg_db_rt\":%.3f,\"max_db_rt\":%.3f,"
+									+ "\"p50_rt\":%.3f,\"p95_rt\":%.3f,"
+									+ "\"p99_rt\":%.3f,\"p99.9_rt\":%.3f}",
+							v[0], (long) v[1], (long) v[2], v[3], v[4], v[5],
+							v[6], v[7], v[8], v[9], v[10]));
+			rows.append(String.format(Locale.US,
+					"%s,%s,%s,%s,%s,%.2f,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%s\n",
+					runId, kind, label, time, types[t], v[0], (long) v[1],
+					(long) v[2], v[3], v[4], v[5], v[6], v[7], v[8], v[9],
+					v[10], configCsv));
+		}
+		line.append("}}\n");
+		queue.add(new String[] { line.toString(), rows.toString() });
+	}
+
+	public void run() {
+		try {
+			while (true) {
+				String[] record = queue.take();
+				if (record == STOP) {
+					break;
+				}
+				if (record[0] != null) {
+					json.write(record[0]);
+				}
+				csv.write(record[1]);
+				if (queue.isEmpty()) {
+					json.flush();
+					csv.flush();
+				}
+			}
+		} catch (InterruptedException e) {
+			// close what is written
+		} catch (IOException e) {
+			System.err.println("Results: " + e.getMessage());
+		}
+		try {
+			json.close();
+			csv.close();
+		} catch (IOException e) {
+			System.err.println("Results: " + e.getMessage());
+		}
+	}
+
+	private static String quote(String value) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < 0x20) {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+}
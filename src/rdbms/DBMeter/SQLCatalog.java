@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Properties;
+
+/**
+ * TPC-C statement catalog <BR>
+ *
+ * Loads the statement templates of a database type from
+ * [dir]/statements.properties and [dir]/[db]/statements.properties, resolves
+ * hints and postfixes once, and binds the per-warehouse routing comment once
+ * per warehouse. Users get immutable, pre-built statements; a ${in_list} is
+ * pre-built for every list size up to MAX_IN_LIST.
+ *
+ * @version 1.0
+ */
+public class SQLCatalog {
+	public final static int DELIV_GET_ORDER_ID = 0,
+			DELIV_DELETE_NEW_ORDER = 1, DELIV_GET_CUST_ID = 2,
+			DELIV_UPDATE_CARRIER_ID = 3, DELIV_UPDATE_DELIVERY_DATE = 4,
+			DELIV_SUM_ORDER_AMOUNT = 5, DELIV_UPDATE_CUST_BAL_DELIV_CNT = 6;
+	public final static int ORDSTAT_COUNT_CUST = 7,
+			ORDSTAT_GET_CUST_BY_NAME = 8, ORDSTAT_GET_CUST_BY_ID = 9,
+			ORDSTAT_GET_CUST_BAL = 10, ORDSTAT_GET_NEWEST_ORD = 11,
+			ORDSTAT_GET_ORDER = 12, ORDSTAT_GET_ORDER_LINES = 13;
+	public final static int NEWORD_GET_CUST_WHSE = 14, NEWORD_GET_DIST = 15,
+			NEWORD_UPDATE_DIST = 16, NEWORD_INSERT_NEW_ORDER = 17,
+			NEWORD_INSERT_OORDER = 18, NEWORD_GET_ITEM = 19,
+			NEWORD_GET_STOCK = 20, NEWORD_UPDATE_STOCK = 21,
+			NEWORD_INSERT_ORDER_LINE = 22;
+	public final static int STOCK_GET_DIST_ORDER_ID = 23,
+			STOCK_GET_COUNT_STOCK = 24;
+	public final static int PAY_UPDATE_WHSE = 25, PAY_GET_WHSE = 26,
+			PAY_UPDATE_DIST = 27, PAY_GET_DIST = 28, PAY_COUNT_CUST = 29,
+			PAY_GET_CUST_BY_NAME = 30, PAY_GET_CUST = 31,
+			PAY_GET_CUST_CDATA = 32, PAY_UPDATE_CUST_BAL_CDATA = 33,
+			PAY_UPDATE_CUST_BAL = 34, PAY_INSERT_HIST = 35;
+	public final static int PROC_NEW_ORDER = 36, PROC_PAYMENT = 37,
+			PROC_ORDER_STATUS = 38, PROC_DELIVERY = 39, PROC_STOCK_LEVEL = 40;
+	public final static int NEWORD_GET_ITEMS = 41, NEWORD_GET_STOCKS = 42;
+
+	/** longest ${in_list}, one ? per order line */
+	public final static int MAX_IN_LIST = 15;
+
+	/** template keys, indexed by the statement ids above */
+	private final static String[] keys = { "delivery.getOrderId",
+			"delivery.deleteNewOrder", "delivery.getCustId",
+			"delivery.updateCarrierId", "delivery.updateDeliveryDate",
+			"delivery.sumOrderAmount", "delivery.updateCustBalDelivCnt",
+			"orderStatus.countCust", "orderStatus.getCustByName",
+			"orderStatus.getCustById", "orderStatus.getCustBal",
+			"orderStatus.getNewestOrd", "orderStatus.getOrder",
+			"orderStatus.getOrderLines", "newOrder.getCustWhse",
+			"newOrder.getDist", "newOrder.updateDist",
+			"newOrder.insertNewOrder", "newOrder.insertOOrder",
+			"newOrder.getItem", "newOrder.getStock", "newOrder.updateStock",
+			"newOrder.insertOrderLine", "stockLevel.getDistOrderId",
+			"stockLevel.getCountStock", "payment.updateWhse",
+			"payment.getWhse", "payment.updateDist", "payment.getDist",
+			"payment.countCust", "payment.getCustByName", "payment.getCust",
+			"payment.getCustCdata", "payment.updateCustBalCdata",
+			"payment.updateCustBal", "payment.insertHist", "proc.newOrder",
+			"proc.payment", "proc.orderStatus", "proc.delivery",
+			"proc.stockLevel", "newOrder.getItems", "newOrder.getStocks" };
+
+	private final static String WID = "${wid}";
+	private final static String IN_LIST = "${in_list}";
+
+	/** resolved text before and after ${wid}, tail is null without ${wid} */
+	private String[] heads = new String[keys.length];
+	private String[] tails = new String[keys.length];
+	private boolean widHint;
+
+	private Statements unbound = null;
+	private HashMap<Integer, Statements> bound = new HashMap<Integer, Statements>();
+
+	/**
+	 * Pre-built statements of one warehouse, shared by all its users.
+	 */
+	public static final class Statements {
+		private final String[] sql;
+		private final String[][] lists;
+
+		private Statements(String[] sql, String[][] lists) {
+			this.sql = sql;
+			this.lists = lists;
+		}
+
+		public String get(int id) {
+			return sql[id];
+		}
+
+		/**
+		 * @return the statement with ${in_list} expanded to size markers
+		 */
+		public String get(int id, int size) {
+			return lists[id][size];
+		}
+	}
+
+	/**
+	 * @param dir
+	 *            catalog directory, e.g. sql/example
+	 * @param dialect
+	 *            sub directory of the database type, null if none
+	 */
+	public SQLCatalog(String dir, String dialect, String qrySQLHint,
+			String dmlSQLHint) throws IOException {
+		Properties templates = new Properties();
+		load(templates, new File(dir, "statements.properties"), true);
+		if (dialect != null) {
+			load(templates, new File(new File(dir, dialect),
+					"statements.properties"), false);
+		}
+		this.widHint = Boolean.parseBoolean(templates.getProperty(
+				"wid_hint", "false").trim());
+		String selPostfix = templates.getProperty("sel_postfix", "").trim();
+		String qryHint = (qrySQLHint != null && qrySQLHint.length() > 0) ? qrySQLHint
+				+ " "
+				: "";
+		String dmlHint = (dmlSQLHint != null && dmlSQLHint.length() > 0) ? dmlSQLHint
+				+ " "
+				: "";
+
+		for (int i = 0; i < keys.length; i++) {
+			String template = templates.getProperty(keys[i]);
+			if (template == null) {
+				throw new IOException("SQL catalog " + dir
+						+ " misses statement " + keys[i]);
+			}
+			String sql = template.replace("${qry_hint}", qryHint)
+					.replace("${dml_hint}", dmlHint)
+					.replace("${sel_postfix}", selPostfix).trim();
+			int pos = sql.indexOf(WID);
+			if (pos >= 0) {
+				heads[i] = sql.substring(0, pos);
+				tails[i] = sql.substring(pos + WID.length());
+			} else {
+				heads[i] = sql;
+				tails[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * @return catalog sub directory of a database type, null if none
+	 */
+	public static String getDialect(String databaseType) {
+		if ("DB2".equals(databaseType)) {
+			return "db2";
+		} else if ("Oracle".equals(databaseType)) {
+			return "oracle";
+		} else if ("Informix".equals(databaseType)) {
+			return "informix";
+		} else if ("SQLServer".equals(databaseType)) {
+			return "sqlserver";
+		} else if ("MySQL".equals(databaseType)) {
+			return "mysql";
+		} else if ("PostgreSQL".equals(databaseType)) {
+			return "postgresql";
+		} else if ("KDB".equals(databaseType)) {
+			return "kdb";
+		}
+		return null;
+	}
+
+	private static void load(Properties templates, File file,
+			boolean required) throws IOException {
+		if (!file.exists() && !required) {
+			return;
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			templates.load(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Bind the routing comment of a warehouse, once per warehouse.
+	 */
+	public synchronized Statements forWarehouse(int w_id) {
+		if (!widHint) {
+			if (unbound == null) {
+				unbound = bind("");
+			}
+			return unbound;
+		}
+		Statements statements = bound.get(w_id);
+		if (statements == null) {
+			statements = bind("/* " + w_id + " */");
+			bound.put(w_id, statements);
+		}
+		return statements;
+	}
+
+	private Statements bind(String widComment) {
+		String[] sql = new String[keys.length];
+		String[][] lists = new String[keys.length][];
+		for (int i = 0; i < keys.length; i++) {
+			sql[i] = (tails[i] == null) ? heads[i] : heads[i] + widComment
+					+ tails[i];
+			if (sql[i].indexOf(IN_LIST) >= 0) {
+				lists[i] = new String[MAX_IN_LIST + 1];
+				StringBuilder markers = new StringBuilder("?");
+				for (int size = 1; size <= MAX_IN_LIST; size++) {
+					lists[i][size] = sql[i].replace(IN_LIST, markers);
+					markers.append(", ?");
+				}
+			}
+		}
+		return new Statements(sql, lists);
+	}
+}
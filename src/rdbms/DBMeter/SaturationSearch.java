@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Saturation search of the master <BR>
+ *
+ * Finds the most active users whose response time percentile stays within
+ * the SLA. Climbs by a fixed number of users per step until a step breaks
+ * the SLA or all users are active, then bisects between the last step
+ * within the SLA and the first one above it, down to the resolution. The
+ * operating point is the step of the highest tpm within the SLA.
+ *
+ * @version 1.0
+ */
+public class SaturationSearch {
+
+	/**
+	 * The steady state of one step
+	 */
+	public static final class Step {
+		public final int users;
+		public final double tpm;
+		/** the SLA percentile of the response time, in milliseconds */
+		public final double rt;
+		public final boolean withinSla;
+
+		private Step(int users, double tpm, double rt, boolean withinSla) {
+			this.users = users;
+			this.tpm = tpm;
+			this.rt = rt;
+			this.withinSla = withinSla;
+		}
+	}
+
+	private int maxUsers;
+	private int stepUsers;
+	private int resolutionUsers;
+	private double percentile;
+	private double slaMilliSecond;
+
+	private ArrayList<Step> steps = new ArrayList<Step>();
+	/** most users within the SLA, fewest above it, -1 for none yet */
+	private int low = 0, high = -1;
+	private boolean done = false;
+
+	/**
+	 * @param maxUsers
+	 *            users of all slaves
+	 * @param resolutionUsers
+	 *            the bisection stops when the users within and above the SLA
+	 *            are this close
+	 */
+	public SaturationSearch(int maxUsers, int stepUsers, int resolutionUsers,
+			double percentile, double slaMilliSecond) {
+		this.maxUsers = maxUsers;
+		this.stepUsers = Math.max(1, stepUsers);
+		this.resolutionUsers = Math.max(1, resolutionUsers);
+		this.percentile = percentile;
+		this.slaMilliSecond = slaMilliSecond;
+	}
+
+	/**
+	 * Record a step and choose the next one.
+	 *
+	 * @param rt
+	 *            the SLA percentile of the step, in milliseconds
+	 * @return the active users of the next step, -1 when the search is done
+	 */
+	public int next(int users, double tpm, double rt) {
+		boolean withinSla = rt <= slaMilliSecond;
+		steps.add(new Step(users, tpm, rt, withinSla));
+		if (withinSla) {
+			low = Math.max(low, users);
+		} else if (high < 0 || users < high) {
+			high = users;
+		}
+		if (high < 0) {
+			// climbing
+			if (users >= maxUsers) {
+				done = true;
+				return -1;
+			}
+			return Math.min(maxUsers, users + stepUsers);
+		}
+		// bisecting
+		if (high - low <= resolutionUsers) {
+			done = true;
+			return -1;
+		}
+		return (low + high) / 2;
+	}
+
+	/**
+	 * @return e.g. 95 or 99.9
+	 */
+	private String getPercentileName() {
+		if (percentile == Math.floor(percentile)) {
+			return String.valueOf((int) percentile);
+		}
+		return String.valueOf(percentile);
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return the step of the highest tpm within the SLA, null if none
+	 */
+	public Step getOperatingPoint() {
+		Step best = null;
+		for (Step step : steps) {
+			if (step.withinSla && (best == null || step.tpm > best.tpm)) {
+				best = step;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the throughput and latency of every step by users, and the
+	 *         operating point
+	 */
+	public String getReport() {
+		ArrayList<Step> curve = new ArrayList<Step>(steps);
+		Collections.sort(curve, new Comparator<Step>() {
+			public int compare(Step a, Step b) {
+				return a.users - b.users;
+			}
+		});
+		StringBuilder report = new StringBuilder(String.format(
+				"Saturation search, SLA p%s_rt <= %.2f ms%s\n",
+				getPercentileName(), slaMilliSecond,
+				done ? "" : ", not finished in runMinutes"));
+		report.append(String.format("%10s  %10s  %10s  %s\n", "users", "tpm",
+				"p" + getPercentileName() + "_rt", "sla"));
+		for (Step step : curve) {
+			report.append(String.format("%10d  %10.2f  %10.2f  %s\n",
+					step.users, step.tpm, step.rt, step.withinSla ? "ok"
+							: "broken"));
+		}
+		Step point = getOperatingPoint();
+		if (point == null) {
+			report.append("No step within the SLA.\n");
+		} else {
+			report.append(String.format(
+					"Operating point: %d users, %.2f tpm, p%s_rt %.2f ms\n",
+					point.users, point.tpm, getPercentileName(), point.rt));
+		}
+		return report.toString();
+	}
+}
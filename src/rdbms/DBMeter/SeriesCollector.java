@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Time series of the master <BR>
+ *
+ * The slaves push their interval samples, timestamped at the source, as
+ * SOCK_PUSH_SAMPLES frames. received() adds the samples of the same
+ * timestamp together as they arrive, and the collector thread writes one
+ * row per transaction type and interval once every slave has sent that
+ * timestamp. A slave that stays behind for more than MAX_LAG intervals, and
+ * at least MIN_LAG_MILLISECOND, is left out of the older rows.
+ *
+ * In a Relay the combined samples are pushed upstream instead, as one
+ * SOCK_PUSH_SAMPLES frame per interval.
+ *
+ * @version 1.0
+ */
+public class SeriesCollector implements Config, Runnable {
+	private final static int MAX_LAG = 10;
+	private final static long MIN_LAG_MILLISECOND = 5000;
+	private final static long STOP_WAIT_MILLISECOND = 2000;
+
+	private long intervalMilliSecond;
+	private long lagMilliSecond;
+	private PrintStream printStreamSeries = null;
+	private OutputStream upstream = null;
+	private MetricsServer metricsServer = null;
+	private ResultWriter resultWriter = null;
+	private RecoveryMonitor recoveryMonitor = null;
+
+	/** last timestamp received per slave */
+	private HashMap<ControlServer.Connection, Long> received = new HashMap<ControlServer.Connection, Long>();
+	private TreeMap<Long, TransactionCounters.Snapshot> pending = new TreeMap<Long, TransactionCounters.Snapshot>();
+	private ArrayList<TransactionCounters.Snapshot> spares = new ArrayList<TransactionCounters.Snapshot>();
+
+	private volatile boolean stopped = false;
+	private Thread thread = null;
+
+	public SeriesCollector(Collection<ControlServer.Connection> slaves,
+			int intervalMilliSecond, PrintStream printStreamSeries) {
+		this(slaves, intervalMilliSecond);
+		this.printStreamSeries = printStreamSeries;
+	}
+
+	/**
+	 * @param upstream
+	 *            the master connection of a relay, written while holding its
+	 *            monitor
+	 */
+	public SeriesCollector(Collection<ControlServer.Connection> slaves,
+			int intervalMilliSecond, OutputStream upstream) {
+		this(slaves, intervalMilliSecond);
+		this.upstream = upstream;
+	}
+
+	private SeriesCollector(Collection<ControlServer.Connection> slaves,
+			int intervalMilliSecond) {
+		this.intervalMilliSecond = intervalMilliSecond;
+		this.lagMilliSecond = Math.max(MAX_LAG * this.intervalMilliSecond,
+				MIN_LAG_MILLISECOND);
+		for (ControlServer.Connection slave : slaves) {
+			received.put(slave, 0L);
+		}
+	}
+
+	/**
+	 * @param metricsServer
+	 *            gets every interval written, on the collector thread
+	 */
+	public void setMetricsServer(MetricsServer metricsServer) {
+		this.metricsServer = metricsServer;
+	}
+
+	/**
+	 * @param resultWriter
+	 *            gets every interval written, on the collector thread
+	 */
+	public void setResultWriter(ResultWriter resultWriter) {
+		this.resultWriter = resultWriter;
+	}
+
+	/**
+	 * @param recoveryMonitor
+	 *            gets the total tpm of every interval, on the collector
+	 *            thread
+	 */
+	public void setRecoveryMonitor(RecoveryMonitor recoveryMonitor) {
+		this.recoveryMonitor = recoveryMonitor;
+	}
+
+	public void start() {
+		if (printStreamSeries != null) {
+			printStreamSeries.print(SERIES_HEADER);
+		}
+		thread = new Thread(this, "SeriesCollector");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Write the pending rows and wait a while for them.
+	 */
+	public void stop() {
+		stopped = true;
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join(STOP_WAIT_MILLISECOND);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public void run() {
+		// give the slaves some time to push the interval
+		long grace = Math.min(500, intervalMilliSecond / 4);
+		long next = (System.currentTimeMillis() / intervalMilliSecond + 1)
+				* intervalMilliSecond + grace;
+		while (!stopped) {
+			long now = System.currentTimeMillis();
+			if (next > now) {
+				try {
+					Thread.sleep(next - now);
+				} catch (InterruptedException e) {
+					break;
+				}
+				continue;
+			}
+			while (next <= now) {
+				next += intervalMilliSecond;
+			}
+			synchronized (this) {
+				writeRows(false);
+			}
+		}
+		synchronized (this) {
+			writeRows(true);
+		}
+		if (printStreamSeries != null) {
+			printStreamSeries.close();
+		}
+	}
+
+	/**
+	 * Add a SOCK_PUSH_SAMPLES frame of a slave.
+	 */
+	public synchronized void received(ControlServer.Connection slave,
+			Frame frame) throws IOException {
+		if (stopped || !received.containsKey(slave)) {
+			return;
+		}
+		int samples = frame.getInt();
+		for (int i = 0; i < samples; i++) {
+			long timestamp = frame.getLong();
+			TransactionCounters.Snapshot sample = pending.get(timestamp);
+			if (sample == null) {
+				sample = spares.isEmpty() ? new TransactionCounters.Snapshot()
+						: spares.remove(spares.size() - 1);
+				sample.timestamp = timestamp;
+				pending.put(timestamp, sample);
+			}
+			sample.addFrom(frame);
+			received.put(slave, timestamp);
+		}
+	}
+
+	/**
+	 * @param all
+	 *            write every pending row, at the end of the run
+	 */
+	private void writeRows(boolean all) {
+		if (pending.isEmpty()) {
+			return;
+		}
+		long complete = Long.MAX_VALUE;
+		for (long timestamp : received.values()) {
+			complete = Math.min(complete, timestamp);
+		}
+		complete = Math.max(complete, pending.lastKey() - lagMilliSecond);
+		ArrayList<TransactionCounters.Snapshot> samples = new ArrayList<TransactionCounters.Snapshot>();
+		Iterator<Map.Entry<Long, TransactionCounters.Snapshot>> rows = pending
+				.entrySet().iterator();
+		while (rows.hasNext()) {
+			TransactionCounters.Snapshot sample = rows.next().getValue();
+			if (!all && sample.timestamp > complete) {
+				break;
+			}
+			samples.add(sample);
+			rows.remove();
+		}
+		if (upstream != null) {
+			push(samples);
+		} else {
+			for (TransactionCounters.Snapshot sample : samples) {
+				writeRows(sample);
+				if (metricsServer != null) {
+					metricsServer.addInterval(sample, intervalMilliSecond);
+				}
+				if (resultWriter != null) {
+					resultWriter.addInterval(sample, intervalMilliSecond);
+				}
+				if (recoveryMonitor != null) {
+					long num = 0;
+					for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+						num += sample.num[i];
+					}
+					recoveryMonitor.add(sample.timestamp, num * 60000.0
+							/ intervalMilliSecond);
+				}
+			}
+			printStreamSeries.flush();
+		}
+		for (TransactionCounters.Snapshot sample : samples) {
+			sample.reset();
+			spares.add(sample);
+		}
+	}
+
+	/**
+	 * Push the samples upstream in the format of IntervalSampler.getSamples()
+	 */
+	private void push(ArrayList<TransactionCounters.Snapshot> samples) {
+		if (samples.isEmpty()) {
+			return;
+		}
+		Frame frame = new Frame(SOCK_PUSH_SAMPLES).putInt(samples.size());
+		for (TransactionCounters.Snapshot sample : samples) {
+			frame.putLong(sample.timestamp);
+			sample.writeTo(frame);
+		}
+		try {
+			synchronized (upstream) {
+				frame.writeTo(upstream, 0);
+			}
+		} catch (IOException e) {
+			System.err.println("Series: " + e.getMessage());
+		}
+	}
+
+	private void writeRows(TransactionCounters.Snapshot sample) {
+		Timestamp timestamp = new Timestamp(sample.timestamp);
+		double minutes = intervalMilliSecond / 60000.0;
+		long num = 0, time = 0, timeMax = 0, dbtime = 0, dbtimeMax = 0, count = 0;
+		for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+			writeRow(timestamp, i, sample.num[i] / minutes, sample.count[i],
+					sample.time[i], sample.timeMax[i], sample.dbtime[i],
+					sample.dbtimeMax[i], sample.histograms[i]);
+			num += sample.num[i];
+			count += sample.count[i];
+			time += sample.time[i];
+			timeMax = Math.max(timeMax, sample.timeMax[i]);
+			dbtime += sample.dbtime[i];
+			dbtimeMax = Math.max(dbtimeMax, sample.dbtimeMax[i]);
+		}
+		writeRow(timestamp, 0, num / minutes, count, time, timeMax, dbtime,
+				dbtimeMax, sample.histograms[0]);
+	}
+
+	private void writeRow(Timestamp timestamp, int type, double tpm,
+			long count, long time, long timeMax, long dbtime, long dbtimeMax,
+			LatencyHistogram histogram) {
+		printStreamSeries.format(SERIES_VALUE, timestamp, reportTypes[type],
+				tpm, count == 0 ? 0.0 : (double) time / count / 1000,
+				timeMax / 1000.0, count == 0 ? 0.0 : (double) dbtime / count
+						/ 1000, dbtimeMax / 1000.0, histogram
+						.getValueAtPercentile(50.0) / 1000.0, histogram
+						.getValueAtPercentile(95.0) / 1000.0, histogram
+						.getValueAtPercentile(99.0) / 1000.0, histogram
+						.getValueAtPercentile(99.9) / 1000.0);
+	}
+}
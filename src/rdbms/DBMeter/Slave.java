@@ -7,18 +7,19 @@
  */
 package rdbms.DBMeter;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.net.Socket;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Channels;
 import java.sql.SQLException;
 import java.sql.Timestamp;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.util.Properties;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
@@ -41,9 +42,15 @@ public class Slave implements Config, Runnable {
 	private String name = null;
 	private int runMinutes = 0;
 	private int warmupMinutes = 0;
-	private Socket master = null;
+	/** the socket, or the channel of an embedded slave */
+	private Closeable master = null;
+	private DataInputStream request = null;
+	private DataOutputStream response = null;
 	private ConnectionPool connectionPool = null;
-	private Connection conn_slv = null, conn_avg = null;
+	/** threads opening the pool before the start, 0 opens it on demand */
+	private int poolWarmUpThreads = 16;
+	/** null with resultSink=none */
+	private ResultSink resultSink = null;
 	private boolean bRecv_RUN_END = false;
 	private String databaseType;
 	private int userCount;
@@ -63,10 +70,14 @@ public class Slave implements Config, Runnable {
 	private int stockLevelThinkMilliSecond = 0;
 
 	private User[] users;
+	private TerminalEngine terminalEngine = null;
+	private ArrivalScheduler arrivalScheduler = null;
 
 	private long startTimestamp;
 	private long warmupTimestamp;
 	private long runTimestamp;
+	/** local clock minus master clock */
+	private long clockOffsetMilliSecond = 0;
 
 	// Payment Counters
 
@@ -159,12 +170,37 @@ public class Slave implements Config, Runnable {
 	private long new_order_dbtime_total_last = 0;
 	private long new_order_dbtime_max_last = 0;
 
+	/** JDBC statements and transactions, indexed by NEW_ORDER .. STOCK_LEVEL */
+	private long[] statements_total = new long[STOCK_LEVEL + 1];
+	private long[] statements_num_total = new long[STOCK_LEVEL + 1];
+	private long[] statements_total_last = new long[STOCK_LEVEL + 1];
+	private long[] statements_num_total_last = new long[STOCK_LEVEL + 1];
+	/** failed transactions, indexed by NEW_ORDER .. STOCK_LEVEL */
+	private long[] failed_total = new long[STOCK_LEVEL + 1];
+
+	/** recorded by the users, taken by run() every report interval */
+	private TransactionCounters counters = new TransactionCounters();
+	private TransactionCounters.Snapshot snapshot = new TransactionCounters.Snapshot();
+	private IntervalSampler sampler = null;
+	/** connection pool statistics of the last minute report */
+	private PoolStats pool = new PoolStats();
+
+	/** response times in microseconds of the run phase, indexed by reportTypes */
+	private LatencyHistogram[] rt_histograms_run = LatencyHistogram
+			.newArray(reportTypes.length);
+
 	public Slave(String propertiesFile) throws IOException,
 			ClassNotFoundException {
+		this(Util.loadProperties(propertiesFile), null);
+	}
 
-		// Get properties
-		Properties properties = new Properties();
-		properties.load(new FileInputStream(propertiesFile));
+	/**
+	 * @param channel
+	 *            to the master in the same process, see Embedded, null
+	 *            connects to masterAddress and masterPort
+	 */
+	public Slave(Properties properties, ByteChannel channel)
+			throws IOException, ClassNotFoundException {
 
 		// Get my name
 		this.name = properties.getProperty("name");
@@ -177,29 +213,51 @@ public class Slave implements Config, Runnable {
 				+ name + "_" + Util.getFileNameSuffix() + ".txt"));
 
 		// Create socket, send my name to master
-		logMessage("Connect to master...");
-		String masterAddress = properties.getProperty("masterAddress");
-		int masterPort = Integer.parseInt(properties.getProperty("masterPort"));
-		this.master = new Socket(masterAddress, masterPort);
-		BufferedReader request = new BufferedReader(new InputStreamReader(
-				master.getInputStream()));
-		DataOutputStream response = new DataOutputStream(master
-				.getOutputStream());
+		if (channel == null) {
+			logMessage("Connect to master...");
+			String masterAddress = properties.getProperty("masterAddress");
+			int masterPort = Integer.parseInt(properties
+					.getProperty("masterPort"));
+			Socket socket = new Socket(masterAddress, masterPort);
+			socket.setTcpNoDelay(true);
+			this.master = socket;
+			this.request = new DataInputStream(new BufferedInputStream(socket
+					.getInputStream()));
+			this.response = new DataOutputStream(new BufferedOutputStream(
+					socket.getOutputStream()));
+		} else {
+			this.master = channel;
+			this.request = new DataInputStream(new BufferedInputStream(
+					Channels.newInputStream(channel)));
+			this.response = new DataOutputStream(new BufferedOutputStream(
+					Channels.newOutputStream(channel)));
+		}
 		try {
-			if (!request.readLine().equalsIgnoreCase(SOCK_GET_SLAVE_NAME)) {
+			Frame frame = Frame.readFrom(request);
+			if (frame.getType() != SOCK_GET_SLAVE_NAME) {
 				throw new InteractiveException(
 						"Master sends a wrong command when get slave name");
 			}
-			response.writeBytes(this.name + "\n");
-			if (!request.readLine().equalsIgnoreCase(SOCK_GET_SLAVE_NAME_OK)) {
+			new Frame(SOCK_GET_SLAVE_NAME).putString(this.name).writeTo(
+					response, frame.getId());
+			frame = Frame.readFrom(request);
+			while (frame.getType() == SOCK_SYNC_CLOCK) {
+				new Frame(SOCK_SYNC_CLOCK).putLong(System.currentTimeMillis())
+						.writeTo(response, frame.getId());
+				frame = Frame.readFrom(request);
+			}
+			if (frame.getType() != SOCK_GET_SLAVE_NAME_OK) {
 				throw new InteractiveException(
 						"Master response error when get slave name");
 			}
 
-			runMinutes = Integer.parseInt(request.readLine());
+			runMinutes = frame.getInt();
 			logMessage("Run " + runMinutes + " Minutes.");
-			warmupMinutes = Integer.parseInt(request.readLine());
+			warmupMinutes = frame.getInt();
 			logMessage("Warmup " + warmupMinutes + " Minutes.");
+			clockOffsetMilliSecond = frame.getLong();
+			logMessage("Clock offset to master " + clockOffsetMilliSecond
+					+ " ms.");
 
 			// Create connection pool
 			logMessage("Create connection pool.");
@@ -226,8 +284,19 @@ public class Slave implements Config, Runnable {
 			} else {
 				databaseType = "Compatible";
 			}
+			long poolTimeoutMilliSecond = Long.parseLong(properties
+					.getProperty("poolTimeoutMilliSecond", "0"));
+			int stmtCacheSize = Integer.parseInt(properties.getProperty(
+					"stmtCacheSize", "64"));
 			connectionPool = new ConnectionPool(driver, url, username,
-					password, poolSize);
+					password, poolSize, poolTimeoutMilliSecond, stmtCacheSize);
+			poolWarmUpThreads = Integer.parseInt(properties.getProperty(
+					"poolWarmUpThreads", "16"));
+			connectionPool.startHealthCheck(Long.parseLong(properties
+					.getProperty("poolHealthCheckSeconds", "10")) * 1000, Long
+					.parseLong(properties.getProperty(
+							"poolReconnectMaxMilliSecond", "5000")));
+			resultSink = ResultSink.create(properties, name);
 
 			// Get User and Warehouse properties and sync with master
 			this.userCount = Integer.parseInt(properties
@@ -245,39 +314,79 @@ public class Slave implements Config, Runnable {
 				qrySQLHint = "";
 				dmlSQLHint = "";
 			}		
-			if (!request.readLine().equalsIgnoreCase(
-					SOCK_GET_USER_AND_WAREHOUSE)) {
+			String sqlCatalogDir = properties.getProperty("sqlCatalogDir",
+					"sql/example");
+			logMessage("Load SQL catalog from " + sqlCatalogDir);
+			SQLCatalog sqlCatalog = new SQLCatalog(sqlCatalogDir, SQLCatalog
+					.getDialect(databaseType), qrySQLHint, dmlSQLHint);
+			boolean[] procedureTransactions = parseProcedureTransactions(properties
+					.getProperty("procedureTransactions", ""));
+			boolean newOrderBatch = Boolean.parseBoolean(properties.getProperty(
+					"newOrderBatch", "true").trim());
+			logMessage("New-Order batching " + (newOrderBatch ? "on." : "off."));
+			String lookup = properties.getProperty("newOrderLookup", "row").trim();
+			int newOrderLookup;
+			if ("set".equalsIgnoreCase(lookup)) {
+				newOrderLookup = LOOKUP_SET;
+			} else if ("verify".equalsIgnoreCase(lookup)) {
+				newOrderLookup = LOOKUP_VERIFY;
+			} else if ("row".equalsIgnoreCase(lookup)) {
+				newOrderLookup = LOOKUP_ROW;
+			} else {
+				throw new InteractiveException("Unknown newOrderLookup: " + lookup);
+			}
+			logMessage("New-Order lookup " + lookup + ".");
+			double[] arrivalRates = parseArrivalRates(properties.getProperty(
+					"arrivalRates", ""));
+			if (arrivalRates != null) {
+				String distribution = properties.getProperty(
+						"arrivalDistribution", ArrivalScheduler.POISSON).trim();
+				arrivalScheduler = new ArrivalScheduler(arrivalRates,
+						distribution);
+				logMessage("Open loop, " + distribution + " arrivals, tpm: "
+						+ properties.getProperty("arrivalRates"));
+			}
+			frame = Frame.readFrom(request);
+			if (frame.getType() != SOCK_GET_USER_AND_WAREHOUSE) {
 				throw new InteractiveException(
 						"Master sends a wrong command when get user and warehouse properties");
 			}
-			response.writeBytes(String.format("%d,%d\n", userCount,
-					warehouseCount));
-			if (!request.readLine().equalsIgnoreCase(
-					SOCK_GET_USER_AND_WAREHOUSE_OK)) {
+			new Frame(SOCK_GET_USER_AND_WAREHOUSE).putInt(userCount).putInt(
+					warehouseCount).writeTo(response, frame.getId());
+			if (Frame.readFrom(request).getType() != SOCK_GET_USER_AND_WAREHOUSE_OK) {
 				throw new InteractiveException(
 						"Master response error when get user and warehouse properties");
 			}
 
 			// Get transaction properties from master
-			String[] transactionConfig = request.readLine().split(",");
-			if (!transactionConfig[0]
-					.equalsIgnoreCase(SOCK_SEND_TRANSACTION_CONFIGS)
-					|| transactionConfig.length != 11) {
+			Frame transactionConfig = Frame.readFrom(request);
+			if (transactionConfig.getType() != SOCK_SEND_TRANSACTION_CONFIGS) {
 				throw new InteractiveException(
 						"Master send wrong transaction properties");
 			}
-			this.newOrderPercent = Integer.parseInt(transactionConfig[1]);
-			this.paymentPercent = Integer.parseInt(transactionConfig[2]);
-			this.orderStatusPercent = Integer.parseInt(transactionConfig[3]);
-			this.deliveryPercent = Integer.parseInt(transactionConfig[4]);
-			this.stockLevelPercent = Integer.parseInt(transactionConfig[5]);
-			this.newOrderThinkMilliSecond = Integer.parseInt(transactionConfig[6]);
-			this.paymentThinkMilliSecond = Integer.parseInt(transactionConfig[7]);
-			this.orderStatusThinkMilliSecond = Integer
-					.parseInt(transactionConfig[8]);
-			this.deliveryThinkMilliSecond = Integer.parseInt(transactionConfig[9]);
-			this.stockLevelThinkMilliSecond = Integer
-					.parseInt(transactionConfig[10]);
+			this.newOrderPercent = transactionConfig.getInt();
+			this.paymentPercent = transactionConfig.getInt();
+			this.orderStatusPercent = transactionConfig.getInt();
+			this.deliveryPercent = transactionConfig.getInt();
+			this.stockLevelPercent = transactionConfig.getInt();
+			this.newOrderThinkMilliSecond = transactionConfig.getInt();
+			this.paymentThinkMilliSecond = transactionConfig.getInt();
+			this.orderStatusThinkMilliSecond = transactionConfig.getInt();
+			this.deliveryThinkMilliSecond = transactionConfig.getInt();
+			this.stockLevelThinkMilliSecond = transactionConfig.getInt();
+			int reportIntervalMilliSecond = transactionConfig.getInt();
+			if (reportIntervalMilliSecond < 60 * 1000) {
+				int sampleBufferSize = Integer.parseInt(properties.getProperty(
+						"sampleBufferSize", "120"));
+				sampler = new IntervalSampler(counters,
+						reportIntervalMilliSecond, sampleBufferSize);
+				sampler.setOutput(response);
+				logMessage("Push samples every " + reportIntervalMilliSecond
+						+ " ms, keep " + sampleBufferSize + " samples.");
+			} else {
+				sampler = new IntervalSampler(counters, 60 * 1000, 0);
+			}
+			sampler.setClock(clockOffsetMilliSecond);
 
 			if (warehouseCount <= 0 || startWarehouseID <= 0) {
 				throw new InteractiveException(
@@ -325,21 +434,49 @@ public class Slave implements Config, Runnable {
 						deliveryPercent, stockLevelPercent, warehouseCount, runMinutes,
 						this, newOrderThinkMilliSecond, paymentThinkMilliSecond,
 						orderStatusThinkMilliSecond, deliveryThinkMilliSecond,
-						stockLevelThinkMilliSecond, databaseType, qrySQLHint, dmlSQLHint, printStreamErrors);
+						stockLevelThinkMilliSecond, databaseType, sqlCatalog,
+						procedureTransactions, newOrderBatch, newOrderLookup,
+						arrivalScheduler, printStreamErrors);
 
 				users[i] = user;
 			}
 			logMessage("Created " + userCount + " user(s) successfully!");
-
-			// Start Transaction
-			if (!request.readLine().equalsIgnoreCase(SOCK_START_TRANSACTION)) {
+			terminalEngine = new TerminalEngine(properties.getProperty(
+					"terminalEngine", TerminalEngine.THREAD).trim(), Integer
+					.parseInt(properties.getProperty("terminalThreads", String
+							.valueOf(poolSize))));
+			logMessage("Terminal engine: " + terminalEngine.getType());
+
+			// Start Transaction, at the instant of the master clock it sends,
+			// after the load of the first stage if the master has a profile
+			Frame start = Frame.readFrom(request);
+			while (start.getType() == SOCK_SET_LOAD
+					|| start.getType() == SOCK_READY) {
+				if (start.getType() == SOCK_READY) {
+					warmUp(start);
+				} else {
+					setLoad(start);
+				}
+				start = Frame.readFrom(request);
+			}
+			if (start.getType() != SOCK_START_TRANSACTION) {
 				throw new InteractiveException(
 						"Master response error when get user and warehouse properties");
 			}
+			startTimestamp = start.getLong();
+			logMessage("Start at " + new Timestamp(startTimestamp)
+					+ " of the master clock.");
+			long wait = startTimestamp - sampler.currentTimeMillis();
+			if (wait > 0) {
+				Thread.sleep(wait);
+			}
 			//countDownLatch = new CountDownLatch(users.length);
 			synchronized (users) {
-				for (int i = 0; i < users.length; i++)
-					(new Thread(users[i])).start();
+				terminalEngine.start(users);
+				sampler.start(startTimestamp);
+				if (arrivalScheduler != null) {
+					arrivalScheduler.start();
+				}
 
 				logMessage("Starting all users at "
 					+  new Timestamp (System.currentTimeMillis()) );
@@ -347,95 +484,126 @@ public class Slave implements Config, Runnable {
 			logMessage("All users started executing at "
 					+  new Timestamp (System.currentTimeMillis()) );
 
-			startTimestamp = System.currentTimeMillis();
 			runTimestamp = startTimestamp;
+		} catch (InterruptedException e) {
+			throw new IOException(e);
 		} catch (InteractiveException e) {
 			errorMessage(e.getMessage());
-			this.master.close();
-			System.exit(-1);
+			abort();
+			throw new IOException(e.getMessage(), e);
 		} catch (SQLException e) {
 			errorMessage(e.getMessage());
+			abort();
+			throw new IOException(e.getMessage(), e);
 		}
 	}
 
-	public void signalUserEndedTransaction(String userName,
-			String transactionType, long connTime, long dbTime, int iTransStatus) {
-		synchronized (master) {
-			if (transactionType.equalsIgnoreCase("Payment")) {
-				this.payment_num_total += (iTransStatus>0)? 1:0;
-				this.payment_time_total += connTime;
-				if (this.payment_time_max_last < connTime) {
-					this.payment_time_max_last = connTime;
-				}
-				this.payment_dbtime_total += dbTime;
-				if (this.payment_dbtime_max_last < dbTime) {
-					this.payment_dbtime_max_last = dbTime;
-				}
-			} else if (transactionType.equalsIgnoreCase("Stock-Level")) {
-				this.stock_level_num_total +=  (iTransStatus>0)? 1:0;
-				this.stock_level_time_total += connTime;
-				if (this.stock_level_time_max_last < connTime) {
-					this.stock_level_time_max_last = connTime;
-				}
-				this.stock_level_dbtime_total += dbTime;
-				if (this.stock_level_dbtime_max_last < dbTime) {
-					this.stock_level_dbtime_max_last = dbTime;
-				}
-			} else if (transactionType.equalsIgnoreCase("Order-Status")) {
-				this.order_status_num_total +=  (iTransStatus>0)? 1:0;
-				this.order_status_time_total += connTime;
-				if (this.order_status_time_max_last < connTime) {
-					this.order_status_time_max_last = connTime;
-				}
-				this.order_status_dbtime_total += dbTime;
-				if (this.order_status_dbtime_max_last < dbTime) {
-					this.order_status_dbtime_max_last = dbTime;
-				}
-			} else if (transactionType.equalsIgnoreCase("Delivery")) {
-				this.delivery_num_total +=  (iTransStatus>0)? 1:0;
-				this.delivery_time_total += connTime;
-				if (this.delivery_time_max_last < connTime) {
-					this.delivery_time_max_last = connTime;
-				}
-				this.delivery_dbtime_total += dbTime;
-				if (this.delivery_dbtime_max_last < dbTime) {
-					this.delivery_dbtime_max_last = dbTime;
-				}
-			} else {
-				this.new_order_num_total +=  (iTransStatus>0)? 1:0;
-				this.new_order_time_total += connTime;
-				if (this.new_order_time_max_last < connTime) {
-					this.new_order_time_max_last = connTime;
-				}
-				this.new_order_dbtime_total += dbTime;
-				if (this.new_order_dbtime_max_last < dbTime) {
-					this.new_order_dbtime_max_last = dbTime;
-				}
-			}
+	/**
+	 * Give up the setup, the process goes on for the other slaves of an
+	 * Embedded run.
+	 */
+	private void abort() throws IOException {
+		if (resultSink != null) {
+			resultSink.close();
 		}
+		if (connectionPool != null) {
+			connectionPool.destroy();
+		}
+		this.master.close();
+		printStreamErrors.close();
+		printStreamLogs.close();
+	}
+
+	/**
+	 * Open the connection pool and answer the SOCK_READY request with the
+	 * time it took.
+	 */
+	private void warmUp(Frame ready) throws IOException, InterruptedException {
+		long begin = System.currentTimeMillis();
+		int open = 0;
+		if (poolWarmUpThreads > 0) {
+			logMessage("Opening " + connectionPool.getMaxConnections()
+					+ " connection(s) with " + poolWarmUpThreads + " thread(s).");
+			open = connectionPool.warmUp(poolWarmUpThreads);
+		}
+		long readyMilliSecond = System.currentTimeMillis() - begin;
+		logMessage("Ready in " + readyMilliSecond + " ms, " + open + " of "
+				+ connectionPool.getMaxConnections() + " connection(s) open.");
+		if (poolWarmUpThreads > 0 && open < connectionPool.getMaxConnections()) {
+			logMessage((connectionPool.getMaxConnections() - open)
+					+ " connection(s) failed to open, the last error: "
+					+ connectionPool.getLastConnectError());
+		}
+		synchronized (response) {
+			new Frame(SOCK_READY).putLong(readyMilliSecond).putInt(open)
+					.putInt(connectionPool.getMaxConnections()).writeTo(
+							response, ready.getId());
+		}
+	}
+
+	/**
+	 * Called by the users after every transaction, lock free, see
+	 * TransactionCounters.
+	 *
+	 * @param transaction
+	 *            NEW_ORDER .. STOCK_LEVEL
+	 * @param poolWait
+	 *            wait for the pooled connection, part of connTime
+	 */
+	public void signalUserEndedTransaction(String userName, int transaction,
+			long connTime, long dbTime, int iTransStatus, int statements,
+			long poolWait) {
+		counters.record(transaction, iTransStatus > 0, connTime, dbTime,
+				statements, poolWait);
 	}
 
 	public void signalUserEnded(User user) {
+		long running;
 		synchronized (users) {
-			boolean found = false;
-			usersStarted--;
-			//for (int i = 0; i < users.length && !found; i++) {
-			for (int i = 0; i < users.length; i++) {
-				if (users[i] == user) {
-					users[i] = null;
-					found = true;
-				}
-			}
-			//countDownLatch.countDown();
+			// O(1), users stay in the array so they can still be stopped
+			running = --usersStarted;
 		}
 		
-		logMessage("Now running users="+usersStarted);
-		if (usersStarted <= 0) {
+		logMessage("Now running users="+running);
+		if (running <= 0) {
 			logMessage("All users finished executing "
 					+ new Timestamp(System.currentTimeMillis()));
 		}
 	}
 
+	/**
+	 * Apply a SOCK_SET_LOAD of the master: the first users are active, the
+	 * others wait without running transactions, all take the new mix and
+	 * think times.
+	 */
+	private void setLoad(Frame frame) throws IOException {
+		int active = Math.min(frame.getInt(), users.length);
+		int[] percents = new int[5], thinks = new int[5];
+		int sum = 0;
+		for (int i = 0; i < percents.length; i++) {
+			percents[i] = frame.getInt();
+			sum += percents[i];
+		}
+		for (int i = 0; i < thinks.length; i++) {
+			thinks[i] = frame.getInt();
+		}
+		if (sum != 100) {
+			errorMessage("Wrong transaction percent values of the load, ignored");
+			return;
+		}
+		for (int i = 0; i < users.length; i++) {
+			users[i].setLoad(percents, thinks);
+			users[i].setActive(i < active);
+		}
+		logMessage("Load " + active + " active user(s), " + percents[0]
+				+ "% New-Order, " + percents[1] + "% Payment, " + percents[2]
+				+ "% Order-Status, " + percents[3] + "% Delivery, "
+				+ percents[4] + "% Stock-Level, think " + thinks[0] + "/"
+				+ thinks[1] + "/" + thinks[2] + "/" + thinks[3] + "/"
+				+ thinks[4] + " ms at "
+				+ new Timestamp(System.currentTimeMillis()));
+	}
+
 	private void errorMessage(String message) {
 		synchronized (printStreamErrors) {
 			printStreamErrors.println(new Timestamp(System.currentTimeMillis())
@@ -448,6 +616,112 @@ public class Slave implements Config, Runnable {
 		System.out.println(message);
 	}
 
+	private void logStatementCacheCounters() {
+		long[] counters = connectionPool.getStatementCacheCounters();
+		if (counters[0] + counters[1] > 0) {
+			logMessage(String.format(
+					"Statement cache: hits=%d, misses=%d, evictions=%d\n",
+					counters[0], counters[1], counters[2]));
+		}
+	}
+
+	/**
+	 * Log the average JDBC statements per transaction, the round trips saved
+	 * by batching or stored procedures show up here.
+	 *
+	 * @param lastMinute
+	 *            average over the last report interval, else over the run
+	 */
+	private void logStatementsPerTransaction(boolean lastMinute) {
+		String[] types = { null, "new_order", "payment", "order_status",
+				"delivery", "stock_level" };
+		StringBuilder line = new StringBuilder("Statements per transaction:");
+		for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+			long statements = statements_total[i];
+			long num = statements_num_total[i];
+			if (lastMinute) {
+				statements -= statements_total_last[i];
+				num -= statements_num_total_last[i];
+				statements_total_last[i] = statements_total[i];
+				statements_num_total_last[i] = statements_num_total[i];
+			}
+			line.append(String.format(" %s=%.2f", types[i],
+					num == 0 ? 0.0 : (double) statements / num));
+		}
+		logMessage(line.toString());
+	}
+
+	/**
+	 * @param value
+	 *            comma separated transaction types, e.g. New-Order,Payment, or
+	 *            all
+	 * @return flags indexed by NEW_ORDER .. STOCK_LEVEL, true runs the type as
+	 *         one stored procedure call
+	 */
+	private boolean[] parseProcedureTransactions(String value)
+			throws InteractiveException {
+		String[] names = transactionNames;
+		boolean[] procedureTransactions = new boolean[names.length];
+		for (String type : value.split(",")) {
+			type = type.trim();
+			if (type.length() == 0) {
+				continue;
+			}
+			boolean known = false;
+			for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+				if ("all".equalsIgnoreCase(type)
+						|| names[i].equalsIgnoreCase(type)) {
+					procedureTransactions[i] = true;
+					known = true;
+				}
+			}
+			if (!known) {
+				throw new InteractiveException(
+						"Unknown transaction type in procedureTransactions: "
+								+ type);
+			}
+		}
+		for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+			if (procedureTransactions[i]) {
+				logMessage("Run " + names[i] + " as stored procedure.");
+			}
+		}
+		return procedureTransactions;
+	}
+
+	/**
+	 * @param value
+	 *            target tpm per transaction type, e.g.
+	 *            New-Order:450,Payment:430,Order-Status:40,Delivery:40,Stock-Level:40
+	 * @return tpm indexed by NEW_ORDER .. STOCK_LEVEL, null for the closed
+	 *         loop
+	 */
+	private double[] parseArrivalRates(String value)
+			throws InteractiveException {
+		double[] rates = new double[STOCK_LEVEL + 1];
+		boolean any = false;
+		for (String rate : value.split(",")) {
+			rate = rate.trim();
+			if (rate.length() == 0) {
+				continue;
+			}
+			int pos = rate.indexOf(':');
+			int type = -1;
+			for (int i = NEW_ORDER; i <= STOCK_LEVEL && pos > 0; i++) {
+				if (transactionNames[i].equalsIgnoreCase(rate.substring(0, pos)
+						.trim())) {
+					type = i;
+				}
+			}
+			if (type < 0) {
+				throw new InteractiveException("Wrong arrivalRates: " + rate);
+			}
+			rates[type] = Double.parseDouble(rate.substring(pos + 1).trim());
+			any = any || rates[type] > 0;
+		}
+		return any ? rates : null;
+	}
+
 	private long randomNumber(long min, long max) {
 		return (long) (random.nextDouble() * (max - min + 1) + min);
 	}
@@ -455,12 +729,6 @@ public class Slave implements Config, Runnable {
 	public void run() {
 		
 		try {
-			PreparedStatement stmt_1min = null;
-                        PreparedStatement stmt_avg = null;
-			BufferedReader request = new BufferedReader(new InputStreamReader(
-					master.getInputStream()));
-			DataOutputStream response = new DataOutputStream(master
-					.getOutputStream());
 			double runElapse = 0; //limit to runMinutes + 1.5 minutes
 			while (runElapse < (runMinutes+1.5) ) {
 				String type = null;
@@ -482,271 +750,314 @@ public class Slave implements Config, Runnable {
 				double avg_db_rt_avg = 0;
 				long max_db_rt_avg = 0;
 				
-				runTimestamp = System.currentTimeMillis();
+				runTimestamp = sampler.currentTimeMillis();
 				runElapse = (runTimestamp - startTimestamp)/1000/60;
 				
 				StringBuilder reportString = null;
-				String command = request.readLine();
-				if (command.equalsIgnoreCase(SOCK_GET_TRANSACTION_COUNTERS)) {
-					long currentTimestamp = System.currentTimeMillis();
-					synchronized (master) {
-						response
-								.writeBytes(String
-										.format(
-												"%d,%d,%d,%d,%d %d,%d,%d,%d,%d %d,%d,%d,%d,%d %d,%d,%d,%d,%d %d,%d,%d,%d,%d\n",
-												payment_num_total,
-												payment_time_total,
-												payment_time_max_last,
-												payment_dbtime_total,
-												payment_dbtime_max_last,
-												stock_level_num_total,
-												stock_level_time_total,
-												stock_level_time_max_last,
-												stock_level_dbtime_total,
-												stock_level_dbtime_max_last,
-												order_status_num_total,
-												order_status_time_total,
-												order_status_time_max_last,
-												order_status_dbtime_total,
-												order_status_dbtime_max_last,
-												delivery_num_total,
-												delivery_time_total,
-												delivery_time_max_last,
-												delivery_dbtime_total,
-												delivery_dbtime_max_last,
-												new_order_num_total,
-												new_order_time_total,
-												new_order_time_max_last,
-												new_order_dbtime_total,
-												new_order_dbtime_max_last));
-
-						reportString = new StringBuilder(REPORT_HEADER);
+				Frame command = Frame.readFrom(request);
+				if (command.getType() == SOCK_GET_TRANSACTION_COUNTERS) {
+					snapshot = sampler.takeMinute(snapshot, command.getLong());
+					long currentTimestamp = snapshot.timestamp;
+					payment_num_total += snapshot.num[PAYMENT];
+					payment_time_total += snapshot.time[PAYMENT];
+					payment_time_max_last = snapshot.timeMax[PAYMENT];
+					payment_dbtime_total += snapshot.dbtime[PAYMENT];
+					payment_dbtime_max_last = snapshot.dbtimeMax[PAYMENT];
+
+					stock_level_num_total += snapshot.num[STOCK_LEVEL];
+					stock_level_time_total += snapshot.time[STOCK_LEVEL];
+					stock_level_time_max_last = snapshot.timeMax[STOCK_LEVEL];
+					stock_level_dbtime_total += snapshot.dbtime[STOCK_LEVEL];
+					stock_level_dbtime_max_last = snapshot.dbtimeMax[STOCK_LEVEL];
+
+					order_status_num_total += snapshot.num[ORDER_STATUS];
+					order_status_time_total += snapshot.time[ORDER_STATUS];
+					order_status_time_max_last = snapshot.timeMax[ORDER_STATUS];
+					order_status_dbtime_total += snapshot.dbtime[ORDER_STATUS];
+					order_status_dbtime_max_last = snapshot.dbtimeMax[ORDER_STATUS];
+
+					delivery_num_total += snapshot.num[DELIVERY];
+					delivery_time_total += snapshot.time[DELIVERY];
+					delivery_time_max_last = snapshot.timeMax[DELIVERY];
+					delivery_dbtime_total += snapshot.dbtime[DELIVERY];
+					delivery_dbtime_max_last = snapshot.dbtimeMax[DELIVERY];
+
+					new_order_num_total += snapshot.num[NEW_ORDER];
+					new_order_time_total += snapshot.time[NEW_ORDER];
+					new_order_time_max_last = snapshot.timeMax[NEW_ORDER];
+					new_order_dbtime_total += snapshot.dbtime[NEW_ORDER];
+					new_order_dbtime_max_last = snapshot.dbtimeMax[NEW_ORDER];
+
+					for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+						statements_total[i] += snapshot.statements[i];
+						statements_num_total[i] += snapshot.count[i];
+						failed_total[i] += snapshot.count[i] - snapshot.num[i];
+					}
+					long[] values = { payment_num_total, payment_time_total,
+							payment_time_max_last, payment_dbtime_total,
+							payment_dbtime_max_last, stock_level_num_total,
+							stock_level_time_total, stock_level_time_max_last,
+							stock_level_dbtime_total, stock_level_dbtime_max_last,
+							order_status_num_total, order_status_time_total,
+							order_status_time_max_last, order_status_dbtime_total,
+							order_status_dbtime_max_last, delivery_num_total,
+							delivery_time_total, delivery_time_max_last,
+							delivery_dbtime_total, delivery_dbtime_max_last,
+							new_order_num_total, new_order_time_total,
+							new_order_time_max_last, new_order_dbtime_total,
+							new_order_dbtime_max_last, failed_total[PAYMENT],
+							failed_total[STOCK_LEVEL], failed_total[ORDER_STATUS],
+							failed_total[DELIVERY], failed_total[NEW_ORDER] };
+					Frame counters = new Frame(SOCK_GET_TRANSACTION_COUNTERS);
+					for (long value : values) {
+						counters.putVarLong(value);
+					}
+					for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+						snapshot.histograms[i].writeTo(counters);
+					}
+					PoolStats poolBefore = pool;
+					pool = PoolStats.of(poolBefore, snapshot, connectionPool);
+					pool.writeTo(counters);
+					synchronized (response) {
+						counters.writeTo(response, command.getId());
+					}
 
-						type = "payment";
-						tpm = (double) (payment_num_total - payment_num_total_last);
-						if (payment_num_total - payment_num_total_last == 0) {
-							avg_rt = 0;
-							avg_db_rt = 0;
-						} else {
-							avg_rt = (double) (payment_time_total - payment_time_total_last)
-									/ (payment_num_total - payment_num_total_last);
-							avg_db_rt = (double) (payment_dbtime_total - payment_dbtime_total_last)
-									/ (payment_num_total - payment_num_total_last);
-						}
-						max_rt = payment_time_max_last;
-						max_db_rt = payment_dbtime_max_last;
-						
-						tpm_1min = tpm;
-						avg_rt_1min = avg_rt;
-						max_rt_1min = max_rt;
-						avg_db_rt_1min = avg_db_rt;
-						max_db_rt_1min = max_db_rt;
+					reportString = new StringBuilder(REPORT_HEADER);
+
+					type = "payment";
+					tpm = (double) (payment_num_total - payment_num_total_last);
+					if (payment_num_total - payment_num_total_last == 0) {
+						avg_rt = 0;
+						avg_db_rt = 0;
+					} else {
+						avg_rt = (double) (payment_time_total - payment_time_total_last)
+								/ (payment_num_total - payment_num_total_last);
+						avg_db_rt = (double) (payment_dbtime_total - payment_dbtime_total_last)
+								/ (payment_num_total - payment_num_total_last);
+					}
+					max_rt = payment_time_max_last;
+					max_db_rt = payment_dbtime_max_last;
+					
+					tpm_1min = tpm;
+					avg_rt_1min = avg_rt;
+					max_rt_1min = max_rt;
+					avg_db_rt_1min = avg_db_rt;
+					max_db_rt_1min = max_db_rt;
+			
+					reportString.append(Util.formatReportValue(
+							new Timestamp(currentTimestamp), type, tpm,
+							avg_rt, max_rt, avg_db_rt, max_db_rt, snapshot.histograms));
+
+					type = "stock_level";
+					tpm = (double) (stock_level_num_total - stock_level_num_total_last);
+					if (stock_level_num_total - stock_level_num_total_last == 0) {
+						avg_rt = 0;
+						avg_db_rt = 0;
+					} else {
+						avg_rt = (double) (stock_level_time_total - stock_level_time_total_last)
+								/ (stock_level_num_total - stock_level_num_total_last);
+						avg_db_rt = (double) (stock_level_dbtime_total - stock_level_dbtime_total_last)
+								/ (stock_level_num_total - stock_level_num_total_last);
+					}
+					max_rt = stock_level_time_max_last;
+					max_db_rt = stock_level_dbtime_max_last;
+					
+					tpm_1min += tpm;
+					avg_rt_1min += avg_rt;
+					max_rt_1min += max_rt;
+					avg_db_rt_1min += avg_db_rt;
+					max_db_rt_1min += max_db_rt;
+					
+					reportString.append(Util.formatReportValue(
+							new Timestamp(currentTimestamp), type, tpm,
+							avg_rt, max_rt, avg_db_rt, max_db_rt, snapshot.histograms));
+
+					type = "order_status";
+					tpm = (double) (order_status_num_total - order_status_num_total_last);
+					if (order_status_num_total
+							- order_status_num_total_last == 0) {
+						avg_rt = 0;
+						avg_db_rt = 0;
+					} else {
+						avg_rt = (double) (order_status_time_total - order_status_time_total_last)
+								/ (order_status_num_total - order_status_num_total_last);
+						avg_db_rt = (double) (order_status_dbtime_total - order_status_dbtime_total_last)
+								/ (order_status_num_total - order_status_num_total_last);
+					}
+					max_rt = order_status_time_max_last;
+					max_db_rt = order_status_dbtime_max_last;
+					
+					tpm_1min += tpm;
+					avg_rt_1min += avg_rt;
+					max_rt_1min += max_rt;
+					avg_db_rt_1min += avg_db_rt;
+					max_db_rt_1min += max_db_rt;
 				
-						reportString.append(String.format(REPORT_VALUE,
-								new Timestamp(currentTimestamp), type, tpm,
-								avg_rt, max_rt, avg_db_rt, max_db_rt));
-
-						type = "stock_level";
-						tpm = (double) (stock_level_num_total - stock_level_num_total_last);
-						if (stock_level_num_total - stock_level_num_total_last == 0) {
-							avg_rt = 0;
-							avg_db_rt = 0;
-						} else {
-							avg_rt = (double) (stock_level_time_total - stock_level_time_total_last)
-									/ (stock_level_num_total - stock_level_num_total_last);
-							avg_db_rt = (double) (stock_level_dbtime_total - stock_level_dbtime_total_last)
-									/ (stock_level_num_total - stock_level_num_total_last);
-						}
-						max_rt = stock_level_time_max_last;
-						max_db_rt = stock_level_dbtime_max_last;
-						
-						tpm_1min += tpm;
-						avg_rt_1min += avg_rt;
-						max_rt_1min += max_rt;
-						avg_db_rt_1min += avg_db_rt;
-						max_db_rt_1min += max_db_rt;
-						
-						reportString.append(String.format(REPORT_VALUE,
-								new Timestamp(currentTimestamp), type, tpm,
-								avg_rt, max_rt, avg_db_rt, max_db_rt));
-
-						type = "order_status";
-						tpm = (double) (order_status_num_total - order_status_num_total_last);
-						if (order_status_num_total
-								- order_status_num_total_last == 0) {
-							avg_rt = 0;
-							avg_db_rt = 0;
-						} else {
-							avg_rt = (double) (order_status_time_total - order_status_time_total_last)
-									/ (order_status_num_total - order_status_num_total_last);
-							avg_db_rt = (double) (order_status_dbtime_total - order_status_dbtime_total_last)
-									/ (order_status_num_total - order_status_num_total_last);
-						}
-						max_rt = order_status_time_max_last;
-						max_db_rt = order_status_dbtime_max_last;
-						
-						tpm_1min += tpm;
-						avg_rt_1min += avg_rt;
-						max_rt_1min += max_rt;
-						avg_db_rt_1min += avg_db_rt;
-						max_db_rt_1min += max_db_rt;
+					reportString.append(Util.formatReportValue(
+							new Timestamp(currentTimestamp), type, tpm,
+							avg_rt, max_rt, avg_db_rt, max_db_rt, snapshot.histograms));
+
+					type = "delivery";
+					tpm = (double) (delivery_num_total - delivery_num_total_last);
+					if (delivery_num_total - delivery_num_total_last == 0) {
+						avg_rt = 0;
+						avg_db_rt = 0;
+					} else {
+						avg_rt = (double) (delivery_time_total - delivery_time_total_last)
+								/ (delivery_num_total - delivery_num_total_last);
+						avg_db_rt = (double) (delivery_dbtime_total - delivery_dbtime_total_last)
+								/ (delivery_num_total - delivery_num_total_last);
+					}
+					max_rt = delivery_time_max_last;
+					max_db_rt = delivery_dbtime_max_last;
 					
-						reportString.append(String.format(REPORT_VALUE,
-								new Timestamp(currentTimestamp), type, tpm,
-								avg_rt, max_rt, avg_db_rt, max_db_rt));
-
-						type = "delivery";
-						tpm = (double) (delivery_num_total - delivery_num_total_last);
-						if (delivery_num_total - delivery_num_total_last == 0) {
-							avg_rt = 0;
-							avg_db_rt = 0;
-						} else {
-							avg_rt = (double) (delivery_time_total - delivery_time_total_last)
-									/ (delivery_num_total - delivery_num_total_last);
-							avg_db_rt = (double) (delivery_dbtime_total - delivery_dbtime_total_last)
-									/ (delivery_num_total - delivery_num_total_last);
+					tpm_1min += tpm;
+					avg_rt_1min += avg_rt;
+					max_rt_1min += max_rt;
+					avg_db_rt_1min += avg_db_rt;
+					max_db_rt_1min += max_db_rt;
+					
+					reportString.append(Util.formatReportValue(
+							new Timestamp(currentTimestamp), type, tpm,
+							avg_rt, max_rt, avg_db_rt, max_db_rt, snapshot.histograms));
+
+					type = "new_order";
+					tpm = (double) (new_order_num_total - new_order_num_total_last);
+					if (new_order_num_total - new_order_num_total_last == 0) {
+						avg_rt = 0;
+						avg_db_rt = 0;
+					} else {
+						avg_rt = (double) (new_order_time_total - new_order_time_total_last)
+								/ (new_order_num_total - new_order_num_total_last);
+						avg_db_rt = (double) (new_order_dbtime_total - new_order_dbtime_total_last)
+								/ (new_order_num_total - new_order_num_total_last);
+					}
+					max_rt = new_order_time_max_last;
+					max_db_rt = new_order_dbtime_max_last;
+					
+					tpm_1min += tpm;
+					avg_rt_1min += avg_rt;
+					max_rt_1min += max_rt;
+					avg_db_rt_1min += avg_db_rt;
+					max_db_rt_1min += max_db_rt;
+					
+					reportString.append(Util.formatReportValue(
+							new Timestamp(currentTimestamp), type, tpm,
+							avg_rt, max_rt, avg_db_rt, max_db_rt, snapshot.histograms));
+					
+					type = "total";		
+					reportString.append(Util.formatReportValue(
+							new Timestamp(currentTimestamp), type, tpm_1min,
+							avg_rt_1min, max_rt_1min, avg_db_rt_1min, max_db_rt_1min,
+							snapshot.histograms));
+					reportString.append(POOL_HEADER).append(
+							pool.format(new Timestamp(currentTimestamp),
+									poolBefore));
+					
+					payment_num_total_last = payment_num_total;
+					payment_dbtime_total_last = payment_dbtime_total;
+					payment_time_total_last = payment_time_total;
+					payment_dbtime_max_last = 0;
+					payment_time_max_last = 0;
+
+					stock_level_num_total_last = stock_level_num_total;
+					stock_level_dbtime_total_last = stock_level_dbtime_total;
+					stock_level_time_total_last = stock_level_time_total;
+					stock_level_dbtime_max_last = 0;
+					stock_level_time_max_last = 0;
+
+					order_status_num_total_last = order_status_num_total;
+					order_status_dbtime_total_last = order_status_dbtime_total;
+					order_status_time_total_last = order_status_time_total;
+					order_status_dbtime_max_last = 0;
+					order_status_time_max_last = 0;
+
+					delivery_num_total_last = delivery_num_total;
+					delivery_dbtime_total_last = delivery_dbtime_total;
+					delivery_time_total_last = delivery_time_total;
+					delivery_dbtime_max_last = 0;
+					delivery_time_max_last = 0;
+
+					new_order_num_total_last = new_order_num_total;
+					new_order_dbtime_total_last = new_order_dbtime_total;
+					new_order_time_total_last = new_order_time_total;
+					new_order_dbtime_max_last = 0;
+					new_order_time_max_last = 0;
+					
+					if (warmup_done > 0) {
+						for (int i = 0; i < reportTypes.length; i++) {
+							rt_histograms_run[i].add(snapshot.histograms[i]);
 						}
-						max_rt = delivery_time_max_last;
-						max_db_rt = delivery_dbtime_max_last;
-						
-						tpm_1min += tpm;
-						avg_rt_1min += avg_rt;
-						max_rt_1min += max_rt;
-						avg_db_rt_1min += avg_db_rt;
-						max_db_rt_1min += max_db_rt;
-						
-						reportString.append(String.format(REPORT_VALUE,
-								new Timestamp(currentTimestamp), type, tpm,
-								avg_rt, max_rt, avg_db_rt, max_db_rt));
+					}
 
-						type = "new_order";
-						tpm = (double) (new_order_num_total - new_order_num_total_last);
-						if (new_order_num_total - new_order_num_total_last == 0) {
-							avg_rt = 0;
-							avg_db_rt = 0;
-						} else {
-							avg_rt = (double) (new_order_time_total - new_order_time_total_last)
-									/ (new_order_num_total - new_order_num_total_last);
-							avg_db_rt = (double) (new_order_dbtime_total - new_order_dbtime_total_last)
-									/ (new_order_num_total - new_order_num_total_last);
-						}
-						max_rt = new_order_time_max_last;
-						max_db_rt = new_order_dbtime_max_last;
-						
-						tpm_1min += tpm;
-						avg_rt_1min += avg_rt;
-						max_rt_1min += max_rt;
-						avg_db_rt_1min += avg_db_rt;
-						max_db_rt_1min += max_db_rt;
-						
-						reportString.append(String.format(REPORT_VALUE,
-								new Timestamp(currentTimestamp), type, tpm,
-								avg_rt, max_rt, avg_db_rt, max_db_rt));
-						
-						type = "total";		
-						reportString.append(String.format(REPORT_VALUE,
-								new Timestamp(currentTimestamp), type, tpm_1min,
-								avg_rt_1min, max_rt_1min, avg_db_rt_1min, max_db_rt_1min));
-						
-						payment_num_total_last = payment_num_total;
-						payment_dbtime_total_last = payment_dbtime_total;
-						payment_time_total_last = payment_time_total;
-						payment_dbtime_max_last = 0;
-						payment_time_max_last = 0;
-
-						stock_level_num_total_last = stock_level_num_total;
-						stock_level_dbtime_total_last = stock_level_dbtime_total;
-						stock_level_time_total_last = stock_level_time_total;
-						stock_level_dbtime_max_last = 0;
-						stock_level_time_max_last = 0;
-
-						order_status_num_total_last = order_status_num_total;
-						order_status_dbtime_total_last = order_status_dbtime_total;
-						order_status_time_total_last = order_status_time_total;
-						order_status_dbtime_max_last = 0;
-						order_status_time_max_last = 0;
-
-						delivery_num_total_last = delivery_num_total;
-						delivery_dbtime_total_last = delivery_dbtime_total;
-						delivery_time_total_last = delivery_time_total;
-						delivery_dbtime_max_last = 0;
-						delivery_time_max_last = 0;
-
-						new_order_num_total_last = new_order_num_total;
-						new_order_dbtime_total_last = new_order_dbtime_total;
-						new_order_time_total_last = new_order_time_total;
-						new_order_dbtime_max_last = 0;
-						new_order_time_max_last = 0;
-						
-						logMessage(reportString.toString());
+					logMessage(reportString.toString());
+					logStatementCacheCounters();
+					logStatementsPerTransaction(true);
+					if (arrivalScheduler != null) {
+						logMessage("Arrival backlog: "
+								+ arrivalScheduler.getBacklog());
+					}
 
-            if (payment_dbtime_max < payment_dbtime_max_last) {
-                    payment_dbtime_max = payment_dbtime_max_last;
-            }
-            if (payment_time_max < payment_time_max_last) {
-                    payment_time_max = payment_time_max_last;
-            }
-            if (stock_level_dbtime_max < stock_level_dbtime_max_last) {
-                    stock_level_dbtime_max = stock_level_dbtime_max_last;
-            }
-            if (stock_level_time_max < stock_level_time_max_last) {
-                    stock_level_time_max = stock_level_time_max_last;
-            }
-            if (order_status_dbtime_max < order_status_dbtime_max_last) {
-                    order_status_dbtime_max = order_status_dbtime_max_last;
-            }
-            if (order_status_time_max < order_status_time_max_last) {
-                    order_status_time_max = order_status_time_max_last;
-            }
-            if (delivery_dbtime_max < delivery_dbtime_max_last) {
-                    delivery_dbtime_max = delivery_dbtime_max_last;
-            }
-            if (delivery_time_max < delivery_time_max_last) {
-                    delivery_time_max = delivery_time_max_last;
-            }
-            if (new_order_dbtime_max < new_order_dbtime_max_last) {
-                    new_order_dbtime_max = new_order_dbtime_max_last;
-            }
-            if (new_order_time_max < new_order_time_max_last) {
-                    new_order_time_max = new_order_time_max_last;
-            }
-            
-            try {
-            	conn_slv = null;
-            	stmt_1min = null;
-            	conn_slv = this.connectionPool.getConnection();
-            	
-            	stmt_1min = conn_slv.prepareStatement("INSERT INTO DBMETER_RESULT "
-            	+ " (s_slave, s_phase, t_time, s_type, tpm, avg_rt, max_rt,num_total,warmup_total)"
-            	                                + "VALUES ( ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-            	stmt_1min.setString(1, this.name);
-            	stmt_1min.setString(2, (warmup_done>0)? "Run" : "Warmup");
-            	stmt_1min.setTimestamp(3, new Timestamp(currentTimestamp));
-            	stmt_1min.setString(4, type);
-            	stmt_1min.setDouble(5, tpm_1min);
-            	stmt_1min.setDouble(6, avg_rt_1min);
-            	stmt_1min.setLong(7, max_rt_1min);
-            	stmt_1min.setDouble(8, payment_num_total_last + stock_level_num_total_last
-            	        + order_status_num_total_last + delivery_num_total_last + new_order_num_total_last );
-            	stmt_1min.setDouble(9, payment_num_warmup + stock_level_num_warmup
-            	        + order_status_num_warmup + delivery_num_warmup + new_order_num_warmup );
-            	stmt_1min.executeUpdate();
-            	conn_slv.commit();
-            	stmt_1min.close();
-            	connectionPool.recycle(conn_slv);
-            } catch (SQLException e) {
-							conn_slv.rollback();
-							if (stmt_1min != null) {
-								stmt_1min.close();
-							}
-							connectionPool.recycle(conn_slv);
-							logMessage("Slave running error occur in: INSERT DBMETER_RESULT");
-							throw new Exception("Slave running error occur in: INSERT DBMETER_RESULT");
+        if (payment_dbtime_max < payment_dbtime_max_last) {
+                payment_dbtime_max = payment_dbtime_max_last;
+        }
+        if (payment_time_max < payment_time_max_last) {
+                payment_time_max = payment_time_max_last;
+        }
+        if (stock_level_dbtime_max < stock_level_dbtime_max_last) {
+                stock_level_dbtime_max = stock_level_dbtime_max_last;
+        }
+        if (stock_level_time_max < stock_level_time_max_last) {
+                stock_level_time_max = stock_level_time_max_last;
+        }
+        if (order_status_dbtime_max < order_status_dbtime_max_last) {
+                order_status_dbtime_max = order_status_dbtime_max_last;
+        }
+        if (order_status_time_max < order_status_time_max_last) {
+                order_status_time_max = order_status_time_max_last;
+        }
+        if (delivery_dbtime_max < delivery_dbtime_max_last) {
+                delivery_dbtime_max = delivery_dbtime_max_last;
+        }
+        if (delivery_time_max < delivery_time_max_last) {
+                delivery_time_max = delivery_time_max_last;
+        }
+        if (new_order_dbtime_max < new_order_dbtime_max_last) {
+                new_order_dbtime_max = new_order_dbtime_max_last;
+        }
+        if (new_order_time_max < new_order_time_max_last) {
+                new_order_time_max = new_order_time_max_last;
+        }
+        
+					if (resultSink != null) {
+						try {
+							resultSink.add(this.name,
+									(warmup_done > 0) ? "Run" : "Warmup",
+									new Timestamp(currentTimestamp), type,
+									tpm_1min, avg_rt_1min / 1000,
+									max_rt_1min / 1000.0,
+									payment_num_total_last
+											+ stock_level_num_total_last
+											+ order_status_num_total_last
+											+ delivery_num_total_last
+											+ new_order_num_total_last,
+									payment_num_warmup + stock_level_num_warmup
+											+ order_status_num_warmup
+											+ delivery_num_warmup
+											+ new_order_num_warmup);
+						} catch (SQLException e) {
+							logMessage("Slave running error occur in: result sink, " + e.getMessage());
+							throw new Exception("Slave running error occur in: result sink", e);
+						} catch (IOException e) {
+							logMessage("Slave running error occur in: result sink, " + e.getMessage());
+							throw new Exception("Slave running error occur in: result sink", e);
 						}
 					}
-				} else if (command.equalsIgnoreCase(SOCK_SIGNAL_WARMUP_PHASE_END)) {
+				} else if (command.getType() == SOCK_SET_LOAD) {
+					setLoad(command);
+				} else if (command.getType() == SOCK_SIGNAL_WARMUP_PHASE_END) {
 
-					this.warmupTimestamp = System.currentTimeMillis();
+					this.warmupTimestamp = command.getLong();
 					this.warmup_done = 1;
 
 					this.payment_dbtime_warmup = this.payment_dbtime_total;
@@ -778,9 +1089,12 @@ public class Slave implements Config, Runnable {
 					this.new_order_time_warmup = this.new_order_time_total;
 					this.new_order_dbtime_max = 0;
 					this.new_order_time_max = 0;
+					for (LatencyHistogram histogram : rt_histograms_run) {
+						histogram.reset();
+					}
 					logMessage("Warmup phase end.\n");
-				} else if (command.equalsIgnoreCase(SOCK_SIGNAL_RUN_END)) {
-					long currentTimestamp = System.currentTimeMillis();
+				} else if (command.getType() == SOCK_SIGNAL_RUN_END) {
+					long currentTimestamp = command.getLong();
 					logMessage("Run End.\n");
 					if ( ! bRecv_RUN_END )	{
 						int executeMinutes = runMinutes - warmupMinutes;
@@ -809,8 +1123,9 @@ public class Slave implements Config, Runnable {
 						avg_db_rt_avg = avg_db_rt;
 						max_db_rt_avg = max_db_rt;
 				  	
-						reportString.append(String.format(REPORT_VALUE, "average",
-								type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt));
+						reportString.append(Util.formatReportValue("average",
+								type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt,
+								rt_histograms_run));
           	
 						type = "stock_level";
 						tpm = (double) (stock_level_num_total_last - stock_level_num_warmup)
@@ -833,8 +1148,9 @@ public class Slave implements Config, Runnable {
 						avg_db_rt_avg += avg_db_rt;
 						max_db_rt_avg += max_db_rt;
 						
-						reportString.append(String.format(REPORT_VALUE, "average",
-								type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt));
+						reportString.append(Util.formatReportValue("average",
+								type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt,
+								rt_histograms_run));
           	
 						type = "order_status";
 						tpm = (double) (order_status_num_total_last - order_status_num_warmup)
@@ -857,8 +1173,9 @@ public class Slave implements Config, Runnable {
 						avg_db_rt_avg += avg_db_rt;
 						max_db_rt_avg += max_db_rt;
 						
-						reportString.append(String.format(REPORT_VALUE, "average",
-								type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt));
+						reportString.append(Util.formatReportValue("average",
+								type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt,
+								rt_histograms_run));
           	
 						type = "delivery";
 						tpm = (double) (delivery_num_total_last - delivery_num_warmup)
@@ -881,8 +1198,9 @@ public class Slave implements Config, Runnable {
 						avg_db_rt_avg += avg_db_rt;
 						max_db_rt_avg += max_db_rt;
 						
-						reportString.append(String.format(REPORT_VALUE, "average",
-								type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt));
+						reportString.append(Util.formatReportValue("average",
+								type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt,
+								rt_histograms_run));
           	
 						type = "new_order";
 						tpm = (double) (new_order_num_total_last - new_order_num_warmup)
@@ -905,46 +1223,42 @@ public class Slave implements Config, Runnable {
 						avg_db_rt_avg += avg_db_rt;
 						max_db_rt_avg += max_db_rt;
 				  	
-						reportString.append(String.format(REPORT_VALUE, "average",
-								type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt));
+						reportString.append(Util.formatReportValue("average",
+								type, tpm, avg_rt, max_rt, avg_db_rt, max_db_rt,
+								rt_histograms_run));
 						
 						type = "total";		
-						reportString.append(String.format(REPORT_VALUE, "average",
-								type, tpm_avg, avg_rt_avg, max_rt_avg, avg_db_rt_avg, max_db_rt_avg));
+						reportString.append(Util.formatReportValue("average",
+								type, tpm_avg, avg_rt_avg, max_rt_avg, avg_db_rt_avg, max_db_rt_avg,
+								rt_histograms_run));
 						
 						logMessage(reportString.toString());
+						logStatementCacheCounters();
+						logStatementsPerTransaction(false);
 						
-						try {
-							conn_avg = null;
-							stmt_avg = null;
-							conn_avg = this.connectionPool.getConnection();
-							
-							stmt_avg = conn_avg.prepareStatement("INSERT INTO DBMETER_RESULT "
-								+ " (s_slave, s_phase, t_time, s_type, tpm, avg_rt, max_rt,num_total,warmup_total)"
-											+ "VALUES ( ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-							stmt_avg.setString(1, this.name);
-							stmt_avg.setString(2, "Run_avg");
-							stmt_avg.setTimestamp(3, new Timestamp(currentTimestamp));
-							stmt_avg.setString(4, type);
-							stmt_avg.setDouble(5, tpm_avg);
-							stmt_avg.setDouble(6, avg_rt_avg);
-							stmt_avg.setDouble(7, max_rt_avg);
-							stmt_avg.setDouble(8, payment_num_total_last + stock_level_num_total_last 
-								+ order_status_num_total_last + delivery_num_total_last + new_order_num_total_last );
-							stmt_avg.setDouble(9, payment_num_warmup + stock_level_num_warmup 
-								+ order_status_num_warmup + delivery_num_warmup + new_order_num_warmup );
-							stmt_avg.executeUpdate();
-							conn_avg.commit();
-							stmt_avg.close();
-							connectionPool.recycle(conn_avg);
-						} catch (SQLException e) {
-							conn_avg.rollback();
-							if (stmt_avg != null) {
-								stmt_avg.close();
+						if (resultSink != null) {
+							try {
+								resultSink.add(this.name, "Run_avg",
+										new Timestamp(currentTimestamp), type,
+										tpm_avg, avg_rt_avg / 1000,
+										max_rt_avg / 1000.0,
+										payment_num_total_last
+												+ stock_level_num_total_last
+												+ order_status_num_total_last
+												+ delivery_num_total_last
+												+ new_order_num_total_last,
+										payment_num_warmup
+												+ stock_level_num_warmup
+												+ order_status_num_warmup
+												+ delivery_num_warmup
+												+ new_order_num_warmup);
+							} catch (SQLException e) {
+								logMessage("Slave-End error occur in: result sink, " + e.getMessage());
+								throw new Exception("Slave-End error occur in: result sink", e);
+							} catch (IOException e) {
+								logMessage("Slave-End error occur in: result sink, " + e.getMessage());
+								throw new Exception("Slave-End error occur in: result sink", e);
 							}
-							connectionPool.recycle(conn_avg);
-							logMessage("Slave-End error occur in: INSERT DBMETER_RESULT");
-							throw new Exception("Slave-End error occur in: INSERT DBMETER_RESULT");
 						}
 					}//bRecv_RUN_END == false
 					bRecv_RUN_END = true;
@@ -954,6 +1268,14 @@ public class Slave implements Config, Runnable {
 						user.stopRunningWhenPossible();
 					}
 					Thread.sleep(5000);
+					if (arrivalScheduler != null) {
+						arrivalScheduler.stop();
+					}
+					sampler.stop();
+					terminalEngine.shutdown();
+					if (resultSink != null) {
+						resultSink.close();
+					}
 					logMessage("Slave End destroy connectionPool");
 					connectionPool.destroy(); 
 					master.close();
@@ -990,17 +1312,10 @@ public class Slave implements Config, Runnable {
 			new Thread(new Slave(args[0])).start();
 		} catch (IOException e) {
 			e.printStackTrace();
+			System.exit(-1);
 		} catch (ClassNotFoundException e) {
 			e.printStackTrace();
 		}
 	}
 
 }
-
-class InteractiveException extends Exception {
-	private static final long serialVersionUID = -479663584643889568L;
-
-	public InteractiveException(String errorMessage) {
-		super(errorMessage);
-	}
-}
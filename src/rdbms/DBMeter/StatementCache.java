@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Prepared statement cache of one pooled connection <BR>
+ *
+ * Statements are keyed by SQL text and evicted in LRU order, an evicted
+ * statement is closed. A connection is used by one user at a time, so the
+ * cache is not synchronized; the counters are only read for reports.
+ *
+ * @version 1.0
+ */
+public class StatementCache {
+	private Connection conn;
+	private int maxStatements;
+	private LinkedHashMap<String, PreparedStatement> statements;
+
+	private volatile long hits = 0;
+	private volatile long misses = 0;
+	private volatile long evictions = 0;
+
+	public StatementCache(Connection conn, int maxStatements) {
+		this.conn = conn;
+		this.maxStatements = maxStatements;
+		this.statements = new LinkedHashMap<String, PreparedStatement>(
+				maxStatements * 4 / 3 + 1, 0.75f, true);
+	}
+
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		PreparedStatement stmt = statements.get(sql);
+		if (stmt != null) {
+			hits++;
+			return stmt;
+		}
+		misses++;
+		stmt = conn.prepareStatement(sql);
+		put(sql, stmt);
+		return stmt;
+	}
+
+	/**
+	 * Procedure calls share the cache, their {call ...} text never collides
+	 * with a plain statement.
+	 */
+	public CallableStatement prepareCall(String sql) throws SQLException {
+		PreparedStatement stmt = statements.get(sql);
+		if (stmt != null) {
+			hits++;
+			return (CallableStatement) stmt;
+		}
+		misses++;
+		CallableStatement call = conn.prepareCall(sql);
+		put(sql, call);
+		return call;
+	}
+
+	private void put(String sql, PreparedStatement stmt) {
+		statements.put(sql, stmt);
+		if (statements.size() > maxStatements) {
+			Iterator<Map.Entry<String, PreparedStatement>> eldest = statements
+					.entrySet().iterator();
+			PreparedStatement evicted = eldest.next().getValue();
+			eldest.remove();
+			evictions++;
+			try {
+				evicted.close();
+			} catch (SQLException e) {
+				System.err.println(e);
+			}
+		}
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public void close() {
+		for (PreparedStatement stmt : statements.values()) {
+			try {
+				stmt.close();
+			} catch (SQLException e) {
+				System.err.println(e);
+			}
+		}
+		statements.clear();
+	}
+}
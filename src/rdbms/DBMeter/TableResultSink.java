@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Results inserted into the DBMETER_RESULT table <BR>
+ *
+ * Uses a connection of its own, opened at the first result and kept to the
+ * end, so it never takes a connection of the users from the pool. After a
+ * failed insert the connection is closed and the next result opens a new
+ * one.
+ *
+ * @version 1.0
+ */
+public class TableResultSink extends ResultSink {
+	private String url;
+	private String userName;
+	private String password;
+	private Connection conn = null;
+	private PreparedStatement stmt = null;
+
+	public TableResultSink(String url, String userName, String password) {
+		this.url = url;
+		this.userName = userName;
+		this.password = password;
+	}
+
+	public void add(String slave, String phase, Timestamp time, String type,
+			double tpm, double avgRt, double maxRt, long numTotal,
+			long warmupTotal) throws SQLException {
+		try {
+			if (conn == null) {
+				conn = DriverManager.getConnection(url, userName, password);
+				conn.setAutoCommit(false);
+				stmt = conn.prepareStatement("INSERT INTO DBMETER_RESULT "
+						+ " (s_slave, s_phase, t_time, s_type, tpm, avg_rt, max_rt,num_total,warmup_total)"
+						+ "VALUES ( ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+			}
+			stmt.setString(1, slave);
+			stmt.setString(2, phase);
+			stmt.setTimestamp(3, time);
+			stmt.setString(4, type);
+			stmt.setDouble(5, tpm);
+			stmt.setDouble(6, avgRt);
+			stmt.setDouble(7, maxRt);
+			stmt.setDouble(8, numTotal);
+			stmt.setDouble(9, warmupTotal);
+			stmt.executeUpdate();
+			conn.commit();
+		} catch (SQLException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public void close() {
+		if (conn == null) {
+			return;
+		}
+		try {
+			if (stmt != null) {
+				stmt.close();
+			}
+			conn.rollback();
+			conn.close();
+		} catch (SQLException e) {
+			// the connection is gone anyway
+		}
+		conn = null;
+		stmt = null;
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Terminal engine, runs the transaction loops of the users <BR>
+ *
+ * thread: one platform thread per user, think time sleeps the thread.
+ *
+ * virtual: one virtual thread per user (Java 21 and later, looked up by
+ * reflection), think time parks the virtual thread and frees its carrier.
+ * Falls back to thread on older JVMs.
+ *
+ * pool: a small pool of carrier threads runs one transaction of a user at a
+ * time, think time is a scheduled delay, so sleeping users hold no thread.
+ *
+ * @version 1.0
+ */
+public class TerminalEngine {
+	public final static String THREAD = "thread", VIRTUAL = "virtual",
+			POOL = "pool";
+	private final static String THREAD_PREFIX = "Terminal-";
+
+	private String type;
+	private int poolThreads;
+	private ScheduledThreadPoolExecutor pool = null;
+
+	/** Thread.Builder of virtual threads, null when not available */
+	private Object virtualBuilder = null;
+	private Method virtualStart = null;
+
+	/**
+	 * @param poolThreads
+	 *            carrier threads of the pool engine
+	 */
+	public TerminalEngine(String type, int poolThreads) {
+		this.poolThreads = poolThreads;
+		if (VIRTUAL.equalsIgnoreCase(type)) {
+			try {
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(
+						null);
+				Class<?> builderClass = Class
+						.forName("java.lang.Thread$Builder");
+				virtualBuilder = builderClass.getMethod("name", String.class,
+						long.class).invoke(builder, THREAD_PREFIX, 0L);
+				virtualStart = builderClass.getMethod("start", Runnable.class);
+				this.type = VIRTUAL;
+			} catch (Exception e) {
+				System.err.println("Virtual threads not available (" + e
+						+ "), use platform threads");
+				this.type = THREAD;
+			}
+		} else if (POOL.equalsIgnoreCase(type)) {
+			this.type = POOL;
+		} else {
+			this.type = THREAD;
+		}
+	}
+
+	/**
+	 * @return the engine in use, after a fallback
+	 */
+	public String getType() {
+		return type;
+	}
+
+	public void start(User[] users) {
+		if (POOL.equals(type)) {
+			final AtomicInteger threadNumber = new AtomicInteger(0);
+			pool = new ScheduledThreadPoolExecutor(poolThreads,
+					new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, THREAD_PREFIX
+									+ threadNumber.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			for (int i = 0; i < users.length; i++) {
+				users[i].begin(i + 1);
+				pool.execute(new Terminal(users[i]));
+			}
+		} else {
+			for (int i = 0; i < users.length; i++) {
+				if (VIRTUAL.equals(type)) {
+					try {
+						virtualStart.invoke(virtualBuilder, users[i]);
+						continue;
+					} catch (Exception e) {
+						System.err.println(e);
+					}
+				}
+				(new Thread(users[i])).start();
+			}
+		}
+	}
+
+	public void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * One transaction of a user on a carrier thread, then the next one is
+	 * scheduled after the think time.
+	 */
+	private class Terminal implements Runnable {
+		private User user;
+
+		Terminal(User user) {
+			this.user = user;
+		}
+
+		public void run() {
+			boolean next = false;
+			try {
+				next = user.executeNextTransaction();
+				if (next) {
+					pool.schedule(this, user.getThinkMilliSecond(),
+							TimeUnit.MILLISECONDS);
+				}
+			} catch (Throwable t) {
+				t.printStackTrace();
+				next = false;
+			}
+			if (!next) {
+				user.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2018 IPS, All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Apache License, Version 2.0.
+ * Release: v1.0, By IPS, 2021.01.
+ *
+ */
+package rdbms.DBMeter;
+
+import java.io.IOException;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Transaction counters of the users <BR>
+ *
+ * The users record into cells striped by thread, with atomic adds and a
+ * compare-and-set max, so they never block each other or the reporter.
+ * The cells are double buffered: snapshot() switches the users to the other
+ * buffer, waits only for the records already in progress, and then reads
+ * the old buffer alone. A snapshot therefore holds exactly the transactions
+ * of one report interval, with num, times, max and histogram matching.
+ *
+ * Indexed by NEW_ORDER .. STOCK_LEVEL, times in microseconds.
+ *
+ * @version 1.0
+ */
+public class TransactionCounters implements Config {
+	private final static int NUM = 0, COUNT = 1, TIME = 2, TIME_MAX = 3,
+			DBTIME = 4, DBTIME_MAX = 5, STATEMENTS = 6, POOL_WAIT = 7,
+			POOL_WAIT_MAX = 8, FIELDS = 9;
+	private final static int TYPES = STOCK_LEVEL + 1;
+
+	/**
+	 * The counters of one report interval
+	 */
+	public static final class Snapshot {
+		/** successful transactions */
+		public final long[] num = new long[TYPES];
+		/** all transactions, failed ones included */
+		public final long[] count = new long[TYPES];
+		public final long[] time = new long[TYPES];
+		public final long[] timeMax = new long[TYPES];
+		public final long[] dbtime = new long[TYPES];
+		public final long[] dbtimeMax = new long[TYPES];
+		public final long[] statements = new long[TYPES];
+		/** waits for a pooled connection, part of time */
+		public final long[] poolWait = new long[TYPES];
+		public final long[] poolWaitMax = new long[TYPES];
+		/** waits for a pooled connection of all types */
+		public final LatencyHistogram poolWaitHistogram = new LatencyHistogram();
+		/** response times, indexed by reportTypes, 0 is the total */
+		public final LatencyHistogram[] histograms = LatencyHistogram
+				.newArray(reportTypes.length);
+		/** end of the interval in ms, set by IntervalSampler */
+		public long timestamp = 0;
+
+		public void reset() {
+			for (int i = 0; i < TYPES; i++) {
+				num[i] = count[i] = time[i] = timeMax[i] = 0;
+				dbtime[i] = dbtimeMax[i] = statements[i] = 0;
+				poolWait[i] = poolWaitMax[i] = 0;
+			}
+			for (LatencyHistogram histogram : histograms) {
+				histogram.reset();
+			}
+			poolWaitHistogram.reset();
+			timestamp = 0;
+		}
+
+		public void add(Snapshot other) {
+			for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+				num[i] += other.num[i];
+				count[i] += other.count[i];
+				time[i] += other.time[i];
+				timeMax[i] = Math.max(timeMax[i], other.timeMax[i]);
+				dbtime[i] += other.dbtime[i];
+				dbtimeMax[i] = Math.max(dbtimeMax[i], other.dbtimeMax[i]);
+				statements[i] += other.statements[i];
+				poolWait[i] += other.poolWait[i];
+				poolWaitMax[i] = Math.max(poolWaitMax[i], other.poolWaitMax[i]);
+			}
+			for (int i = 0; i < histograms.length; i++) {
+				histograms[i].add(other.histograms[i]);
+			}
+			poolWaitHistogram.add(other.poolWaitHistogram);
+		}
+
+		/**
+		 * Write the counters of NEW_ORDER .. STOCK_LEVEL, each num, count,
+		 * time, timeMax, dbtime, dbtimeMax, statements, poolWait,
+		 * poolWaitMax as varints and the histogram, then the pool wait
+		 * histogram.
+		 */
+		public void writeTo(Frame frame) {
+			for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+				frame.putVarLong(num[i]).putVarLong(count[i]).putVarLong(
+						time[i]).putVarLong(timeMax[i]).putVarLong(dbtime[i])
+						.putVarLong(dbtimeMax[i]).putVarLong(statements[i])
+						.putVarLong(poolWait[i]).putVarLong(poolWaitMax[i]);
+				histograms[i].writeTo(frame);
+			}
+			poolWaitHistogram.writeTo(frame);
+		}
+
+		/**
+		 * Add the counters written by writeTo().
+		 */
+		public void addFrom(Frame frame) throws IOException {
+			LatencyHistogram histogram = new LatencyHistogram();
+			for (int i = NEW_ORDER; i <= STOCK_LEVEL; i++) {
+				num[i] += frame.getVarLong();
+				count[i] += frame.getVarLong();
+				time[i] += frame.getVarLong();
+				timeMax[i] = Math.max(timeMax[i], frame.getVarLong());
+				dbtime[i] += frame.getVarLong();
+				dbtimeMax[i] = Math.max(dbtimeMax[i], frame.getVarLong());
+				statements[i] += frame.getVarLong();
+				poolWait[i] += frame.getVarLong();
+				poolWaitMax[i] = Math.max(poolWaitMax[i], frame.getVarLong());
+				histogram.reset();
+				histogram.addFrom(frame);
+				histograms[i].add(histogram);
+				histograms[0].add(histogram);
+			}
+			poolWaitHistogram.addFrom(frame);
+		}
+	}
+
+	private static final class Stripe {
+		private final AtomicLongArray fields = new AtomicLongArray(TYPES
+				* FIELDS);
+		private final AtomicLongArray buckets = new AtomicLongArray(TYPES
+				* LatencyHistogram.BUCKETS);
+		private final AtomicLongArray poolWaitBuckets = new AtomicLongArray(
+				LatencyHistogram.BUCKETS);
+	}
+
+	/** [buffer][stripe], buffer 0 is written in even phases, 1 in odd ones */
+	private final Stripe[][] stripes;
+	private final int stripeMask;
+
+	/* writer/reader phaser: writers count themselves in and out per phase */
+	private final AtomicLong startEpoch = new AtomicLong(0);
+	private final AtomicLong evenEndEpoch = new AtomicLong(0);
+	private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+
+	public TransactionCounters() {
+		int count = 1;
+		while (count < 2 * Runtime.getRuntime().availableProcessors()
+				&& count < 64) {
+			count <<= 1;
+		}
+		stripeMask = count - 1;
+		stripes = new Stripe[2][count];
+		for (int i = 0; i < count; i++) {
+			stripes[0][i] = new Stripe();
+			stripes[1][i] = new Stripe();
+		}
+	}
+
+	/**
+	 * @param connTime
+	 *            response time, poolWait included
+	 * @param poolWait
+	 *            wait for the pooled connection
+	 */
+	public void record(int type, boolean success, long connTime,
+			long dbTime, int statements, long poolWait) {
+		long epoch = startEpoch.getAndIncrement();
+		try {
+			Stripe stripe = stripes[epoch < 0 ? 1 : 0][(int) (Thread
+					.currentThread().getId() & stripeMask)];
+			int base = type * FIELDS;
+			if (success) {
+				stripe.fields.incrementAndGet(base + NUM);
+			}
+			stripe.fields.incrementAndGet(base + COUNT);
+			stripe.fields.addAndGet(base + TIME, connTime);
+			max(stripe.fields, base + TIME_MAX, connTime);
+			stripe.fields.addAndGet(base + DBTIME, dbTime);
+			max(stripe.fields, base + DBTIME_MAX, dbTime);
+			stripe.fields.addAndGet(base + STATEMENTS, statements);
+			stripe.fields.addAndGet(base + POOL_WAIT, poolWait);
+			max(stripe.fields, base + POOL_WAIT_MAX, poolWait);
+			stripe.poolWaitBuckets.incrementAndGet(LatencyHistogram
+					.bucket(poolWait));
+			stripe.buckets.incrementAndGet(type * LatencyHistogram.BUCKETS
+					+ LatencyHistogram.bucket(connTime));
+		} finally {
+			if (epoch < 0) {
+				oddEndEpoch.incrementAndGet();
+			} else {
+				evenEndEpoch.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Take the counters recorded since the last snapshot.
+	 *
+	 * @param snapshot
+	 *            reused, overwritten
+	 * @return snapshot
+	 */
+	public synchronized Snapshot snapshot(Snapshot snapshot) {
+		// switch the writers to the other buffer, wait for the old phase
+		boolean nextPhaseIsEven = startEpoch.get() < 0;
+		long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+		(nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).set(initialStartValue);
+		long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+		AtomicLong endEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+		while (endEpoch.get() != startValueAtFlip) {
+			Thread.yield();
+		}
+
+		snapshot.reset();
+		for (Stripe stripe : stripes[nextPhaseIsEven ? 1 : 0]) {
+			long stripeCount = 0;
+			for (int type = NEW_ORDER; type <= STOCK_LEVEL; type++) {
+				int base = type * FIELDS;
+				snapshot.num[type] += stripe.fields.getAndSet(base + NUM, 0);
+				long count = stripe.fields.getAndSet(base + COUNT, 0);
+				snapshot.count[type] += count;
+				stripeCount += count;
+				snapshot.time[type] += stripe.fields.getAndSet(base + TIME, 0);
+				snapshot.timeMax[type] = Math.max(snapshot.timeMax[type],
+						stripe.fields.getAndSet(base + TIME_MAX, 0));
+				snapshot.dbtime[type] += stripe.fields.getAndSet(
+						base + DBTIME, 0);
+				snapshot.dbtimeMax[type] = Math.max(snapshot.dbtimeMax[type],
+						stripe.fields.getAndSet(base + DBTIME_MAX, 0));
+				snapshot.statements[type] += stripe.fields.getAndSet(base
+						+ STATEMENTS, 0);
+				snapshot.poolWait[type] += stripe.fields.getAndSet(base
+						+ POOL_WAIT, 0);
+				snapshot.poolWaitMax[type] = Math.max(
+						snapshot.poolWaitMax[type], stripe.fields.getAndSet(
+								base + POOL_WAIT_MAX, 0));
+				if (count == 0) {
+					continue;
+				}
+				base = type * LatencyHistogram.BUCKETS;
+				for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+					long n = stripe.buckets.get(base + i);
+					if (n != 0) {
+						stripe.buckets.set(base + i, 0);
+						snapshot.histograms[type].addBucket(i, n);
+						snapshot.histograms[0].addBucket(i, n);
+					}
+				}
+			}
+			if (stripeCount == 0) {
+				continue;
+			}
+			for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+				long n = stripe.poolWaitBuckets.get(i);
+				if (n != 0) {
+					stripe.poolWaitBuckets.set(i, 0);
+					snapshot.poolWaitHistogram.addBucket(i, n);
+				}
+			}
+		}
+		return snapshot;
+	}
+
+	private static void max(AtomicLongArray array, int i, long value) {
+		long current = array.get(i);
+		while (current < value && !array.compareAndSet(i, current, value)) {
+			current = array.get(i);
+		}
+	}
+}
@@ -10,11 +10,14 @@ package rdbms.DBMeter;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.Vector;
 
@@ -27,7 +30,8 @@ public class User implements Config, Runnable {
 	private String userName;
 	private ConnectionPool connectionPool = null;
 	private int userWarehouseID, userDistrictID;
-	private int paymentPercent, orderStatusPercent, deliveryPercent,
+	/** changed by setLoad() between transactions, see LoadProfile */
+	private volatile int paymentPercent, orderStatusPercent, deliveryPercent,
 			stockLevelPercent;
 	private Slave parent;
 	private Random gen;
@@ -37,18 +41,31 @@ public class User implements Config, Runnable {
 	private long runTimestamp = 0;
 	private long startTimestamp = 0;
 	
-	private boolean stopRunningSignal = false;
-	private int newOrderThinkMilliSecond;
-	private int paymentThinkMilliSecond;
-	private int orderStatusThinkMilliSecond;
-	private int deliveryThinkMilliSecond;
-	private int stockLevelThinkMilliSecond;
+	private volatile boolean stopRunningSignal = false;
+	private double runElapse = 0; //limit to runMinutes + 1 minutes
+	private int lastTransaction = NEW_ORDER;
+	private volatile int newOrderThinkMilliSecond;
+	private volatile int paymentThinkMilliSecond;
+	private volatile int orderStatusThinkMilliSecond;
+	private volatile int deliveryThinkMilliSecond;
+	private volatile int stockLevelThinkMilliSecond;
+	/** an inactive user checks again after this, see setActive() */
+	private final static int INACTIVE_POLL_MILLISECOND = 100;
+	private volatile boolean active = true;
 	private String databaseType = "";
-	private String selSQLPostfix = "";
-	private String qrySQLHint = "";
-	private String dmlSQLHint = "";
-	private boolean addWidHinttoSQL = false;
+	private SQLCatalog.Statements sql;
 	private PrintStream printStreamErrors;
+	private StatementCache statementCache = null;
+	/** indexed by NEW_ORDER .. STOCK_LEVEL, true runs one procedure call */
+	private boolean[] procedureTransactions;
+	/** New-Order sends stock updates and order lines as two JDBC batches */
+	private boolean newOrderBatch;
+	/** New-Order item and stock reads, LOOKUP_ROW, LOOKUP_SET or LOOKUP_VERIFY */
+	private int newOrderLookup;
+	/** open-loop arrivals, null runs the closed loop with think times */
+	private ArrivalScheduler arrivalScheduler;
+	/** JDBC statements executed by the current transaction */
+	private int statements = 0;
 
 	public User(String userName, int userWarehouseID, int userDistrictID,
 			ConnectionPool connectionPool, int paymentPercent,
@@ -56,7 +73,10 @@ public class User implements Config, Runnable {
 			int numWarehouses, int runMinutes, Slave parent, int newOrderThinkMilliSecond,
 			int paymentThinkMilliSecond, int orderStatusThinkMilliSecond,
 			int deliveryThinkMilliSecond, int stockLevelThinkMilliSecond,
-			String databaseType, String qrySQLHint, String dmlSQLHint, PrintStream printStreamErrors)
+			String databaseType, SQLCatalog sqlCatalog,
+			boolean[] procedureTransactions, boolean newOrderBatch,
+			int newOrderLookup, ArrivalScheduler arrivalScheduler,
+			PrintStream printStreamErrors)
 			throws SQLException {
 		this.newOrderThinkMilliSecond = newOrderThinkMilliSecond;
 		this.paymentThinkMilliSecond = paymentThinkMilliSecond;
@@ -76,40 +96,29 @@ public class User implements Config, Runnable {
 		this.runMinutes = runMinutes;
 		this.parent = parent;
 		this.databaseType = databaseType;
-		this.qrySQLHint = qrySQLHint;
-		this.dmlSQLHint = dmlSQLHint;
-		
-		if (databaseType.startsWith("DB2")) {
-			addWidHinttoSQL = true; //good
-			selSQLPostfix = " with ur"; // with ur for read 
-		} else if (databaseType.startsWith("Oracle")) {
-			addWidHinttoSQL = true; //good
-			selSQLPostfix = "";
-		} else if (databaseType.startsWith("Informix")) {
-			addWidHinttoSQL = true;
-			selSQLPostfix = "";
-		} else if (databaseType.startsWith("SQLServer")) {
-			addWidHinttoSQL = false;
-			selSQLPostfix = "";
-		} else if (databaseType.startsWith("MySQL")) {
-			addWidHinttoSQL = true; //good
-			selSQLPostfix = "";
-		} else if (databaseType.startsWith("PostgreSQL")) {
-			addWidHinttoSQL = true; //good
-			selSQLPostfix = "";
-		} else if (databaseType.startsWith("KDB")) {
-			addWidHinttoSQL = true; //good
-			selSQLPostfix = "";
-		} else {
-			addWidHinttoSQL = false;
-			selSQLPostfix = "";
-		}
+		// statements of the home warehouse, built once
+		this.sql = sqlCatalog.forWarehouse(userWarehouseID);
+		this.procedureTransactions = procedureTransactions;
+		this.newOrderBatch = newOrderBatch;
+		this.newOrderLookup = newOrderLookup;
+		this.arrivalScheduler = arrivalScheduler;
 		this.printStreamErrors = printStreamErrors;
 	}
 
 	public void run() {
-		gen = new Random(Util.genRandomSeed(Thread.currentThread().getId()));
-		executeTransactions();
+		begin(Thread.currentThread().getId());
+		while (executeNextTransaction()) {
+			try {
+				//use MilliSecond
+				Thread.sleep(getThinkMilliSecond());
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		end();
+	}
+
+	void end() {
 		parent.signalUserEnded(this);
 	}
 
@@ -117,86 +126,186 @@ public class User implements Config, Runnable {
 		stopRunningSignal = true;
 	}
 
-	public String sSQLAddWid(int w_id ) {
-		String sHint = new String ( (addWidHinttoSQL) ? "/* " + w_id + " */" : "");
-		return sHint;
+	public boolean getRunningSignal() {
+		return stopRunningSignal;
 	}
-	
-	public String sQrySQLAddHint() {
-		String sQryHint = new String ( (qrySQLHint!=null && qrySQLHint.length() > 0) ? qrySQLHint+" " : " ");
-		return sQryHint;
+
+	/**
+	 * An inactive user keeps its thread or terminal but runs no
+	 * transactions until it is active again.
+	 */
+	public void setActive(boolean active) {
+		this.active = active;
 	}
 
-	public String sDmlSQLAddHint() {
-		String sDmlHint = new String ( (dmlSQLHint!=null && dmlSQLHint.length() > 0) ? dmlSQLHint+" " : " " );
-		return sDmlHint;
+	/**
+	 * Change the mix and think times from the next transaction on.
+	 *
+	 * @param percents
+	 *            and thinks, New-Order, Payment, Order-Status, Delivery,
+	 *            Stock-Level
+	 */
+	public void setLoad(int[] percents, int[] thinks) {
+		this.paymentPercent = percents[1];
+		this.orderStatusPercent = percents[2];
+		this.deliveryPercent = percents[3];
+		this.stockLevelPercent = percents[4];
+		this.newOrderThinkMilliSecond = thinks[0];
+		this.paymentThinkMilliSecond = thinks[1];
+		this.orderStatusThinkMilliSecond = thinks[2];
+		this.deliveryThinkMilliSecond = thinks[3];
+		this.stockLevelThinkMilliSecond = thinks[4];
 	}
-	
-	public boolean getRunningSignal() {
-		return stopRunningSignal;
+
+	/**
+	 * Prepare through the statement cache of the current connection, if any.
+	 */
+	private PreparedStatement prepareStatement(Connection conn, String sql)
+			throws SQLException {
+		if (statementCache != null) {
+			return statementCache.prepareStatement(sql);
+		}
+		return conn.prepareStatement(sql);
 	}
 
-	private void executeTransactions() {
-		int result = 0;
-		double runElapse = 0; //limit to runMinutes + 1 minutes
+	private CallableStatement prepareCall(Connection conn, String sql)
+			throws SQLException {
+		if (statementCache != null) {
+			return statementCache.prepareCall(sql);
+		}
+		return conn.prepareCall(sql);
+	}
+
+	/**
+	 * Close a statement at the end of a transaction, cached statements are
+	 * kept open for the next execution.
+	 */
+	private void closeStatement(PreparedStatement stmt) throws SQLException {
+		if (stmt != null && statementCache == null) {
+			stmt.close();
+		}
+	}
+
+	private void closeBatchStatement(PreparedStatement stmt)
+			throws SQLException {
+		if (stmt != null && statementCache != null) {
+			// a cached statement must not carry a failed batch over
+			stmt.clearBatch();
+		}
+		closeStatement(stmt);
+	}
+
+	/**
+	 * Start the transaction loop, see TerminalEngine for the callers.
+	 *
+	 * @param seed
+	 *            unique per user, seeds the random generator
+	 */
+	void begin(long seed) {
+		gen = new Random(Util.genRandomSeed(seed));
 		this.startTimestamp = System.currentTimeMillis();
+	}
 
-		while ((!stopRunningSignal) && (runElapse < (runMinutes+1) ) ) {
-			runTimestamp = System.currentTimeMillis();
-			runElapse = (runTimestamp - startTimestamp)/1000/60;
+	/**
+	 * Run one transaction of the loop.
+	 *
+	 * @return false when the user stops, true when it thinks for
+	 *         getThinkMilliSecond() and runs the next one
+	 */
+	boolean executeNextTransaction() {
+		if (stopRunningSignal || runElapse >= runMinutes + 1) {
+			return false;
+		}
+		int result = 0;
+		runTimestamp = System.currentTimeMillis();
+		runElapse = (runTimestamp - startTimestamp)/1000/60;
+		if (!active) {
+			return !stopRunningSignal;
+		}
 
+		int transaction;
+		long connectionStart;
+		if (arrivalScheduler != null) {
+			// open loop: run the next queued arrival, timed from its intended
+			// start so that the queueing behind a slow database is counted
+			ArrivalScheduler.Arrival arrival = null;
+			try {
+				arrival = arrivalScheduler.poll(100);
+			} catch (InterruptedException e) {
+				return false;
+			}
+			if (arrival == null) {
+				return !stopRunningSignal;
+			}
+			transaction = arrival.transaction;
+			connectionStart = arrival.intendedStart;
+		} else {
 			long transactionType = Util.randomNumber(1, 100, gen);
-			String transactionTypeName;
-			long connectionStart = System.currentTimeMillis();
-			Connection conn = connectionPool.getConnection();
-			long transactionStart = System.currentTimeMillis();
 			if (transactionType <= paymentPercent) {
-				result = executeTransaction(PAYMENT, conn);
-				transactionTypeName = "Payment";
+				transaction = PAYMENT;
 			} else if (transactionType <= paymentPercent + stockLevelPercent) {
-				result = executeTransaction(STOCK_LEVEL, conn);
-				transactionTypeName = "Stock-Level";
+				transaction = STOCK_LEVEL;
 			} else if (transactionType <= paymentPercent + stockLevelPercent
 					+ orderStatusPercent) {
-				result = executeTransaction(ORDER_STATUS, conn);
-				transactionTypeName = "Order-Status";
+				transaction = ORDER_STATUS;
 			} else if (transactionType <= paymentPercent + stockLevelPercent
 					+ orderStatusPercent + deliveryPercent) {
-				result = executeTransaction(DELIVERY, conn);
-				transactionTypeName = "Delivery";
+				transaction = DELIVERY;
 			} else {
-				result = executeTransaction(NEW_ORDER, conn);
-				transactionTypeName = "New-Order";
+				transaction = NEW_ORDER;
 			}
-			long transactionEnd = System.currentTimeMillis();
-			connectionPool.recycle(conn);
-			long connectionEnd = System.currentTimeMillis();
+			connectionStart = System.nanoTime();
+		}
+		String transactionTypeName = transactionNames[transaction];
+		lastTransaction = transaction;
+		long acquireStart = System.nanoTime();
+		Connection conn = connectionPool.getConnection();
+		long transactionStart = System.nanoTime();
+		statements = 0;
+		if (conn != null) {
+			statementCache = connectionPool.getStatementCache(conn);
+			result = executeTransaction(transaction, conn);
+		} else {
+			// pool timeout or connect failure, count it as a failed transaction
+			error(transactionTypeName + ":CONNECTION:no connection available from pool");
+			result = 0;
+			transactionFailed++;
+		}
+		long transactionEnd = System.nanoTime();
+		connectionPool.recycle(conn, result <= 0);
+		long connectionEnd = System.nanoTime();
 
-			parent.signalUserEndedTransaction(this.userName,
-					transactionTypeName, connectionEnd - connectionStart,
-					transactionEnd - transactionStart, result);
+		// microseconds, sub-millisecond transactions do not round to 0
+		parent.signalUserEndedTransaction(this.userName,
+				transaction, (connectionEnd - connectionStart) / 1000,
+				(transactionEnd - transactionStart) / 1000, result, statements,
+				(transactionStart - acquireStart) / 1000);
 
-			if (stopRunningSignal) {
-				//stopRunning = true;
-				break;
-			}
-			try {
-				//use MilliSecond
-				if ("Payment".equals(transactionTypeName)) {
-					Thread.sleep(paymentThinkMilliSecond );
-				} else if ("Stock-Level".equals(transactionTypeName)) {
-					Thread.sleep(stockLevelThinkMilliSecond );
-				} else if ("Order-Status".equals(transactionTypeName)) {
-					Thread.sleep(orderStatusThinkMilliSecond );
-				} else if ("Delivery".equals(transactionTypeName)) {
-					Thread.sleep(deliveryThinkMilliSecond );
-				} else {
-					Thread.sleep(newOrderThinkMilliSecond );
-				}
-				
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
+		return !stopRunningSignal;
+	}
+
+	/**
+	 * @return think time after the last transaction, in milliseconds
+	 */
+	long getThinkMilliSecond() {
+		if (!active) {
+			return INACTIVE_POLL_MILLISECOND;
+		}
+		if (arrivalScheduler != null) {
+			// the arrival rate replaces the think time
+			return 0;
+		}
+		switch (lastTransaction) {
+		case PAYMENT:
+			return paymentThinkMilliSecond;
+		case STOCK_LEVEL:
+			return stockLevelThinkMilliSecond;
+		case ORDER_STATUS:
+			return orderStatusThinkMilliSecond;
+		case DELIVERY:
+			return deliveryThinkMilliSecond;
+		default:
+			return newOrderThinkMilliSecond;
 		}
 	}
 
@@ -233,9 +342,15 @@ public class User implements Config, Runnable {
 				orderQuantities[i] = Util.randomNumber(1, 10, gen);
 			}
 						
-			result = newOrderTransaction(userWarehouseID, districtID, customerID,
-					numItems, allLocal, itemIDs, supplierWarehouseIDs,
-					orderQuantities, conn);
+			if (procedureTransactions[NEW_ORDER]) {
+				result = newOrderProcedure(userWarehouseID, districtID,
+						customerID, numItems, allLocal, itemIDs,
+						supplierWarehouseIDs, orderQuantities, conn);
+			} else {
+				result = newOrderTransaction(userWarehouseID, districtID,
+						customerID, numItems, allLocal, itemIDs,
+						supplierWarehouseIDs, orderQuantities, conn);
+			}
 			break;
 
 		case PAYMENT:
@@ -264,15 +379,27 @@ public class User implements Config, Runnable {
 			customerID = Util.getCustomerID(gen);
 
 			float paymentAmount = (float) (Util.randomNumber(100, 500000, gen) / 100.0);
-			result = paymentTransaction(userWarehouseID, customerWarehouseID,
-					paymentAmount, districtID, customerDistrictID, customerID,
-					customerLastName, customerByName, conn);
+			if (procedureTransactions[PAYMENT]) {
+				result = paymentProcedure(userWarehouseID, customerWarehouseID,
+						paymentAmount, districtID, customerDistrictID,
+						customerID, customerLastName, customerByName, conn);
+			} else {
+				result = paymentTransaction(userWarehouseID,
+						customerWarehouseID, paymentAmount, districtID,
+						customerDistrictID, customerID, customerLastName,
+						customerByName, conn);
+			}
 			break;
 
 		case STOCK_LEVEL:
 			int threshold = Util.randomNumber(10, 20, gen);
-			result = stockLevelTransaction(userWarehouseID, userDistrictID, threshold,
-					conn);
+			if (procedureTransactions[STOCK_LEVEL]) {
+				result = stockLevelProcedure(userWarehouseID, userDistrictID,
+						threshold, conn);
+			} else {
+				result = stockLevelTransaction(userWarehouseID, userDistrictID,
+						threshold, conn);
+			}
 			break;
 
 		case ORDER_STATUS:
@@ -290,12 +417,22 @@ public class User implements Config, Runnable {
 				customerLastName = Util.getLastName(gen);
 				customerID = Util.getCustomerID(gen);
 			}
-			result = orderStatusTransaction(userWarehouseID, districtID, customerID,
-					customerLastName, customerByName, conn);
+			if (procedureTransactions[ORDER_STATUS]) {
+				result = orderStatusProcedure(userWarehouseID, districtID,
+						customerID, customerLastName, customerByName, conn);
+			} else {
+				result = orderStatusTransaction(userWarehouseID, districtID,
+						customerID, customerLastName, customerByName, conn);
+			}
 			break;
 		case DELIVERY:
 			int orderCarrierID = Util.randomNumber(1, 10, gen);
-			result = deliveryTransaction(userWarehouseID, orderCarrierID, conn);
+			if (procedureTransactions[DELIVERY]) {
+				result = deliveryProcedure(userWarehouseID, orderCarrierID, conn);
+			} else {
+				result = deliveryTransaction(userWarehouseID, orderCarrierID,
+						conn);
+			}
 			break;
 		default:
 			error("EMPTY-TYPE");
@@ -338,13 +475,11 @@ public class User implements Config, Runnable {
 					
 					no_o_id = -1;
 					if (delivGetOrderId == null) {
-						delivGetOrderId = conn
-								.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " no_o_id FROM new_order WHERE no_d_id = ?"
-										+ " AND no_w_id = ?"
-										+ " ORDER BY no_o_id ASC" + selSQLPostfix);
+						delivGetOrderId = prepareStatement(conn, sql.get(SQLCatalog.DELIV_GET_ORDER_ID));
 					}
 					delivGetOrderId.setInt(1, d_id);
 					delivGetOrderId.setInt(2, w_id);
+					statements++;
 					ResultSet rs = delivGetOrderId.executeQuery();
 					if (rs.next())
 						no_o_id = rs.getInt("no_o_id");
@@ -355,16 +490,13 @@ public class User implements Config, Runnable {
 					if (no_o_id != -1) {
 						new_order.no_o_id = no_o_id;
 						if (delivDeleteNewOrder == null) {
-							delivDeleteNewOrder = conn
-									.prepareStatement(sDmlSQLAddHint()+"DELETE " + sSQLAddWid(w_id) + " FROM new_order"
-											+ " WHERE no_d_id = ?"
-											+ " AND no_w_id = ?"
-											+ " AND no_o_id = ?");
+							delivDeleteNewOrder = prepareStatement(conn, sql.get(SQLCatalog.DELIV_DELETE_NEW_ORDER));
 						}
 						delivDeleteNewOrder.setInt(1, d_id);
 						delivDeleteNewOrder.setInt(2, w_id);
 						delivDeleteNewOrder.setInt(3, no_o_id);
 						try {
+							statements++;
 							result = delivDeleteNewOrder.executeUpdate();
 						} catch (SQLException ed0) {
 								throw new Exception("DELIVERY:SQLException-Ed0:"+ed0.getSQLState()+";no_d_id="+d_id+" and no_w_id = "+w_id+" and no_o_id ="+ no_o_id+";Err-"+ ed0.getErrorCode()+"; Msg:"+ed0.getMessage());
@@ -384,13 +516,12 @@ public class User implements Config, Runnable {
 						no_o_id = (int) Util.randomNumber(2101, 3000, gen); 
 						
 						if (delivGetCustId == null) {
-							delivGetCustId = conn.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " o_c_id"
-								+ " FROM oorder" + " WHERE o_id = ?"
-								+ " AND o_d_id = ?" + " AND o_w_id = ?" + selSQLPostfix);
+							delivGetCustId = prepareStatement(conn, sql.get(SQLCatalog.DELIV_GET_CUST_ID));
 						}
 						delivGetCustId.setInt(1, no_o_id);
 						delivGetCustId.setInt(2, d_id);
 						delivGetCustId.setInt(3, w_id);
+						statements++;
 						ResultSet rso = delivGetCustId.executeQuery();
           	
 						if (!rso.next())
@@ -400,16 +531,12 @@ public class User implements Config, Runnable {
 						rso.close();
 						
 						if (delivSumOrderAmount == null) {
-							delivSumOrderAmount = conn
-									.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " SUM(ol_amount) AS ol_total"
-											+ " FROM order_line"
-											+ " WHERE ol_o_id = ?"
-											+ " AND ol_d_id = ?"
-											+ " AND ol_w_id = ?" + selSQLPostfix);
+							delivSumOrderAmount = prepareStatement(conn, sql.get(SQLCatalog.DELIV_SUM_ORDER_AMOUNT));
 						}
 						delivSumOrderAmount.setInt(1, no_o_id);
 						delivSumOrderAmount.setInt(2, d_id);
 						delivSumOrderAmount.setInt(3, w_id);
+						statements++;
 						ResultSet rso1 = delivSumOrderAmount.executeQuery();
           	
 						if (!rso1.next())
@@ -420,13 +547,12 @@ public class User implements Config, Runnable {
 				}
 				else {
 					if (delivGetCustId == null) {
-						delivGetCustId = conn.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " o_c_id"
-								+ " FROM oorder" + " WHERE o_id = ?"
-								+ " AND o_d_id = ?" + " AND o_w_id = ?" + selSQLPostfix);
+						delivGetCustId = prepareStatement(conn, sql.get(SQLCatalog.DELIV_GET_CUST_ID));
 					}
 					delivGetCustId.setInt(1, no_o_id);
 					delivGetCustId.setInt(2, d_id);
 					delivGetCustId.setInt(3, w_id);
+					statements++;
 					ResultSet rs = delivGetCustId.executeQuery();
 
 					if (!rs.next())
@@ -435,17 +561,14 @@ public class User implements Config, Runnable {
 					c_id = rs.getInt("o_c_id");
 					rs.close();
 					if (delivUpdateCarrierId == null) {
-						delivUpdateCarrierId = conn
-								.prepareStatement(sDmlSQLAddHint()+"UPDATE " + sSQLAddWid(w_id) + " oorder SET o_carrier_id = ?"
-										+ " WHERE o_id = ?"
-										+ " AND o_d_id = ?"
-										+ " AND o_w_id = ?");
+						delivUpdateCarrierId = prepareStatement(conn, sql.get(SQLCatalog.DELIV_UPDATE_CARRIER_ID));
 					}
 					delivUpdateCarrierId.setInt(1, o_carrier_id);
 					delivUpdateCarrierId.setInt(2, no_o_id);
 					delivUpdateCarrierId.setInt(3, d_id);
 					delivUpdateCarrierId.setInt(4, w_id);
 					try {
+						statements++;
 						result = delivUpdateCarrierId.executeUpdate();
 					} catch (SQLException ed1) {
 					  throw new Exception("DELIVERY:SQLException-Ed1:"+ed1.getSQLState()+";Err-"+ ed1.getErrorCode()+"; Msg:"+ed1.getMessage());
@@ -455,11 +578,7 @@ public class User implements Config, Runnable {
 						throw new Exception("O_ID=" + no_o_id + " O_D_ID="
 								+ d_id + " O_W_ID=" + w_id + " not found!");
 					if (delivUpdateDeliveryDate == null) {
-						delivUpdateDeliveryDate = conn
-								.prepareStatement(sDmlSQLAddHint()+"UPDATE " + sSQLAddWid(w_id) + " order_line SET ol_delivery_d = ?"
-										+ " WHERE ol_o_id = ?"
-										+ " AND ol_d_id = ?"
-										+ " AND ol_w_id = ?");
+						delivUpdateDeliveryDate = prepareStatement(conn, sql.get(SQLCatalog.DELIV_UPDATE_DELIVERY_DATE));
 					}
 					delivUpdateDeliveryDate.setTimestamp(1, new Timestamp(
 							System.currentTimeMillis()));
@@ -467,6 +586,7 @@ public class User implements Config, Runnable {
 					delivUpdateDeliveryDate.setInt(3, d_id);
 					delivUpdateDeliveryDate.setInt(4, w_id);
 					try {
+						statements++;
 						result = delivUpdateDeliveryDate.executeUpdate();
 					} catch (SQLException ed2) {
 					  throw new Exception("DELIVERY:SQLException-Ed2:"+ed2.getSQLState()+";Err-"+ ed2.getErrorCode()+"; Msg:"+ed2.getMessage());
@@ -476,16 +596,12 @@ public class User implements Config, Runnable {
 						throw new Exception("OL_O_ID=" + no_o_id + " OL_D_ID="
 								+ d_id + " OL_W_ID=" + w_id + " not found!");
 					if (delivSumOrderAmount == null) {
-						delivSumOrderAmount = conn
-								.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " SUM(ol_amount) AS ol_total"
-										+ " FROM order_line"
-										+ " WHERE ol_o_id = ?"
-										+ " AND ol_d_id = ?"
-										+ " AND ol_w_id = ?" + selSQLPostfix);
+						delivSumOrderAmount = prepareStatement(conn, sql.get(SQLCatalog.DELIV_SUM_ORDER_AMOUNT));
 					}
 					delivSumOrderAmount.setInt(1, no_o_id);
 					delivSumOrderAmount.setInt(2, d_id);
 					delivSumOrderAmount.setInt(3, w_id);
+					statements++;
 					ResultSet rs1 = delivSumOrderAmount.executeQuery();
 
 					if (!rs1.next())
@@ -494,12 +610,7 @@ public class User implements Config, Runnable {
 					ol_total = rs1.getFloat("ol_total");
 					rs1.close();
 					if (delivUpdateCustBalDelivCnt == null) {
-						delivUpdateCustBalDelivCnt = conn
-								.prepareStatement(sDmlSQLAddHint()+"UPDATE " + sSQLAddWid(w_id) + " customer SET c_balance = c_balance + ?"
-										+ ", c_delivery_cnt = c_delivery_cnt + 1"
-										+ " WHERE c_id = ?"
-										+ " AND c_d_id = ?"
-										+ " AND c_w_id = ?");
+						delivUpdateCustBalDelivCnt = prepareStatement(conn, sql.get(SQLCatalog.DELIV_UPDATE_CUST_BAL_DELIV_CNT));
 					}
 					delivUpdateCustBalDelivCnt.setFloat(1, ol_total);
 					delivUpdateCustBalDelivCnt.setInt(2, c_id);
@@ -507,6 +618,7 @@ public class User implements Config, Runnable {
 					delivUpdateCustBalDelivCnt.setInt(4, w_id);
 					try
 					{
+						statements++;
 						result = delivUpdateCustBalDelivCnt.executeUpdate();
 					} catch (SQLException ed3) {
 					  throw new Exception("DELIVERY:SQLException-Ed3:"+ed3.getSQLState()+";Err-"+ ed3.getErrorCode()+"; Msg:"+ed3.getMessage());
@@ -543,27 +655,13 @@ public class User implements Config, Runnable {
 			}
 		} finally {
 			try {
-				if (delivGetOrderId != null) {
-					delivGetOrderId.close();
-				}
-				if (delivDeleteNewOrder != null) {
-					delivDeleteNewOrder.close();
-				}
-				if (delivGetCustId != null) {
-					delivGetCustId.close();
-				}
-				if (delivUpdateCarrierId != null) {
-					delivUpdateCarrierId.close();
-				}
-				if (delivUpdateDeliveryDate != null) {
-					delivUpdateDeliveryDate.close();
-				}
-				if (delivSumOrderAmount != null) {
-					delivSumOrderAmount.close();
-				}
-				if (delivUpdateCustBalDelivCnt != null) {
-					delivUpdateCustBalDelivCnt.close();
-				}
+				closeStatement(delivGetOrderId);
+				closeStatement(delivDeleteNewOrder);
+				closeStatement(delivGetCustId);
+				closeStatement(delivUpdateCarrierId);
+				closeStatement(delivUpdateDeliveryDate);
+				closeStatement(delivSumOrderAmount);
+				closeStatement(delivUpdateCustBalDelivCnt);
 			} catch (SQLException e) {
 				e.printStackTrace();
 			}
@@ -590,15 +688,12 @@ public class User implements Config, Runnable {
 			
 			if (c_by_name) {
 				if (ordStatCountCust == null) {
-					ordStatCountCust = conn
-							.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " count(*) AS namecnt FROM customer"
-									+ " WHERE c_last = ?"
-									+ " AND c_d_id = ?"
-									+ " AND c_w_id = ?" + selSQLPostfix);
+					ordStatCountCust = prepareStatement(conn, sql.get(SQLCatalog.ORDSTAT_COUNT_CUST));
 				}
 				ordStatCountCust.setString(1, c_last);
 				ordStatCountCust.setInt(2, d_id);
 				ordStatCountCust.setInt(3, w_id);
+				statements++;
 				ResultSet rsa = ordStatCountCust.executeQuery();
 
 				if (!rsa.next())
@@ -611,27 +706,18 @@ public class User implements Config, Runnable {
 				if (ordStatGetCust == null) {
 					if (namecnt>0)
 					{
-						ordStatGetCust = conn
-							.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " c_balance, c_first, c_middle, c_id FROM customer"
-									+ " WHERE c_last = ?"
-									+ " AND c_d_id = ?"
-									+ " AND c_w_id = ?"
-									+ " ORDER BY c_w_id, c_d_id, c_last, c_first" + selSQLPostfix);
+						ordStatGetCust = prepareStatement(conn, sql.get(SQLCatalog.ORDSTAT_GET_CUST_BY_NAME));
 						ordStatGetCust.setString(1, c_last);
 					}
 					else 
 					{
-						ordStatGetCust = conn
-							.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " c_balance, c_first, c_middle, c_id FROM customer"
-									+ " WHERE c_id = ?"
-									+ " AND c_d_id = ?"
-									+ " AND c_w_id = ?"
-									+ " ORDER BY c_w_id, c_d_id, c_last, c_first" + selSQLPostfix);
+						ordStatGetCust = prepareStatement(conn, sql.get(SQLCatalog.ORDSTAT_GET_CUST_BY_ID));
 						ordStatGetCust.setInt(1, c_id);
 					}
 				}
 				ordStatGetCust.setInt(2, d_id);
 				ordStatGetCust.setInt(3, w_id);
+				statements++;
 				ResultSet rs1 = ordStatGetCust.executeQuery();
 
 				if (!rs1.next())
@@ -651,15 +737,12 @@ public class User implements Config, Runnable {
 				rs1.close();
 			} else {
 				if (ordStatGetCustBal == null) {
-					ordStatGetCustBal = conn
-							.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " c_balance, c_first, c_middle, c_last"
-									+ " FROM customer"
-									+ " WHERE c_id = ?"
-									+ " AND c_d_id = ?" + " AND c_w_id = ?" + selSQLPostfix);
+					ordStatGetCustBal = prepareStatement(conn, sql.get(SQLCatalog.ORDSTAT_GET_CUST_BAL));
 				}
 				ordStatGetCustBal.setInt(1, c_id);
 				ordStatGetCustBal.setInt(2, d_id);
 				ordStatGetCustBal.setInt(3, w_id);
+				statements++;
 				ResultSet rsb = ordStatGetCustBal.executeQuery();
 
 				if (!rsb.next())
@@ -674,31 +757,25 @@ public class User implements Config, Runnable {
 
 			// find the newest order for the customer
 			if (ordStatGetNewestOrd == null) {
-				ordStatGetNewestOrd = conn
-						.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " MAX(o_id) AS maxorderid FROM oorder"
-								+ " WHERE o_w_id = ?"
-								+ " AND o_d_id = ?"
-								+ " AND o_c_id = ?" + selSQLPostfix);
+				ordStatGetNewestOrd = prepareStatement(conn, sql.get(SQLCatalog.ORDSTAT_GET_NEWEST_ORD));
 			}
 			ordStatGetNewestOrd.setInt(1, w_id);
 			ordStatGetNewestOrd.setInt(2, d_id);
 			ordStatGetNewestOrd.setInt(3, c_id);
+			statements++;
 			ResultSet rsc = ordStatGetNewestOrd.executeQuery();
 
 			if (rsc.next()) {
 				o_id = rsc.getInt("maxorderid");
 				// retrieve the carrier & order date for the most recent order.
 				if (ordStatGetOrder == null) {
-					ordStatGetOrder = conn
-							.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " o_carrier_id, o_entry_d"
-									+ " FROM oorder" + " WHERE o_w_id = ?"
-									+ " AND o_d_id = ?" + " AND o_c_id = ?"
-									+ " AND o_id = ?" + selSQLPostfix);
+					ordStatGetOrder = prepareStatement(conn, sql.get(SQLCatalog.ORDSTAT_GET_ORDER));
 				}
 				ordStatGetOrder.setInt(1, w_id);
 				ordStatGetOrder.setInt(2, d_id);
 				ordStatGetOrder.setInt(3, c_id);
 				ordStatGetOrder.setInt(4, o_id);
+				statements++;
 				ResultSet rsd = ordStatGetOrder.executeQuery();
 
 				if (rsd.next()) {
@@ -710,16 +787,12 @@ public class User implements Config, Runnable {
 			rsc.close();
 			// retrieve the order lines for the most recent order
 			if (ordStatGetOrderLines == null) {
-				ordStatGetOrderLines = conn
-						.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " ol_i_id, ol_supply_w_id, ol_quantity,"
-								+ " ol_amount, ol_delivery_d"
-								+ " FROM order_line"
-								+ " WHERE ol_o_id = ?"
-								+ " AND ol_d_id =?" + " AND ol_w_id = ?" + selSQLPostfix);
+				ordStatGetOrderLines = prepareStatement(conn, sql.get(SQLCatalog.ORDSTAT_GET_ORDER_LINES));
 			}
 			ordStatGetOrderLines.setInt(1, o_id);
 			ordStatGetOrderLines.setInt(2, d_id);
 			ordStatGetOrderLines.setInt(3, w_id);
+			statements++;
 			ResultSet rse = ordStatGetOrderLines.executeQuery();
 
 			if (rse.next()) {
@@ -752,24 +825,12 @@ public class User implements Config, Runnable {
 			logException(e);
 		} finally {
 			try {
-				if (ordStatCountCust != null) {
-					ordStatCountCust.close();
-				}
-				if (ordStatGetCust != null) {
-					ordStatGetCust.close();
-				}
-				if (ordStatGetCustBal != null) {
-					ordStatGetCustBal.close();
-				}
-				if (ordStatGetNewestOrd != null) {
-					ordStatGetNewestOrd.close();
-				}
-				if (ordStatGetOrder != null) {
-					ordStatGetOrder.close();
-				}
-				if (ordStatGetOrderLines != null) {
-					ordStatGetOrderLines.close();
-				}
+				closeStatement(ordStatCountCust);
+				closeStatement(ordStatGetCust);
+				closeStatement(ordStatGetCustBal);
+				closeStatement(ordStatGetNewestOrd);
+				closeStatement(ordStatGetOrder);
+				closeStatement(ordStatGetOrderLines);
 			} catch (SQLException e) {
 				e.printStackTrace();
 			}
@@ -817,15 +878,12 @@ public class User implements Config, Runnable {
 		try {
 			
 			if (stmtGetCustWhse == null) {
-				stmtGetCustWhse = conn
-						.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " c_discount, c_last, c_credit, w_tax"
-								+ "  FROM customer, warehouse"
-								+ " WHERE w_id = ? AND w_id = c_w_id"
-								+ " AND c_d_id = ? AND c_id = ?" + selSQLPostfix);
+				stmtGetCustWhse = prepareStatement(conn, sql.get(SQLCatalog.NEWORD_GET_CUST_WHSE));
 			}
 			stmtGetCustWhse.setInt(1, w_id);
 			stmtGetCustWhse.setInt(2, d_id);
 			stmtGetCustWhse.setInt(3, c_id);
+			statements++;
 			ResultSet rs = stmtGetCustWhse.executeQuery();
 			if (!rs.next())
 				throw new Exception("W_ID=" + w_id + " C_D_ID=" + d_id
@@ -839,19 +897,12 @@ public class User implements Config, Runnable {
 			if (!newOrderRowInserted) {
 
 				if (stmtGetDist == null) {
-					if ("SQLServer".equals(databaseType)) {
-						stmtGetDist = conn
-								.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " d_next_o_id, d_tax FROM district"
-										+ " WHERE d_id = ? AND d_w_id = ? " + selSQLPostfix);
-					} else {
-						stmtGetDist = conn
-								.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " d_next_o_id, d_tax FROM district"
-										+ " WHERE d_id = ? AND d_w_id = ? FOR UPDATE");
-					}
+					stmtGetDist = prepareStatement(conn, sql.get(SQLCatalog.NEWORD_GET_DIST));
 				}
 
 				stmtGetDist.setInt(1, d_id);
 				stmtGetDist.setInt(2, w_id);
+				statements++;
 				ResultSet rs1 = stmtGetDist.executeQuery();
 				if (!rs1.next())
 					throw new Exception("D_ID=" + d_id + " D_W_ID=" + w_id + " not found!");
@@ -861,24 +912,23 @@ public class User implements Config, Runnable {
 				irollback++;
 				o_id = d_next_o_id;
 				if (stmtUpdateDist == null) {
-					stmtUpdateDist = conn.prepareStatement(sDmlSQLAddHint()+"UPDATE " + sSQLAddWid(w_id) + " district SET d_next_o_id = d_next_o_id + 1 "
-								+ " WHERE d_id = ? AND d_w_id = ?");
+					stmtUpdateDist = prepareStatement(conn, sql.get(SQLCatalog.NEWORD_UPDATE_DIST));
 				}
 				stmtUpdateDist.setInt(1, d_id);
 				stmtUpdateDist.setInt(2, w_id);
+				statements++;
 				result = stmtUpdateDist.executeUpdate();
 				if (result == 0)
 					throw new Exception(
 						"Error!! Cannot update next_order_id on DISTRICT for D_ID="	+ d_id + " D_W_ID=" + w_id);
 				try {
 					if (stmtInsertNewOrder == null) {
-						stmtInsertNewOrder = conn
-								.prepareStatement(sDmlSQLAddHint()+"INSERT " + sSQLAddWid(w_id) + " INTO NEW_ORDER (no_o_id, no_d_id, no_w_id) "
-										+ "VALUES ( ?, ?, ?)");
+						stmtInsertNewOrder = prepareStatement(conn, sql.get(SQLCatalog.NEWORD_INSERT_NEW_ORDER));
 					}
 					stmtInsertNewOrder.setInt(1, o_id);
 					stmtInsertNewOrder.setInt(2, d_id);
 					stmtInsertNewOrder.setInt(3, w_id);
+					statements++;
 					stmtInsertNewOrder.executeUpdate();
 					newOrderRowInserted = true;
 				} catch (SQLException e2) {
@@ -888,10 +938,7 @@ public class User implements Config, Runnable {
 			
 			irollback++;
 			if (stmtInsertOOrder == null) {
-				stmtInsertOOrder = conn
-						.prepareStatement(sDmlSQLAddHint()+"INSERT " + sSQLAddWid(w_id) + " INTO OORDER "
-								+ " (o_id, o_d_id, o_w_id, o_c_id, o_entry_d, o_ol_cnt, o_all_local)"
-								+ " VALUES (?, ?, ?, ?, ?, ?, ?)");
+				stmtInsertOOrder = prepareStatement(conn, sql.get(SQLCatalog.NEWORD_INSERT_OORDER));
 			}
 			stmtInsertOOrder.setInt(1, o_id);
 			stmtInsertOOrder.setInt(2, d_id);
@@ -901,11 +948,26 @@ public class User implements Config, Runnable {
 			stmtInsertOOrder.setInt(6, o_ol_cnt);
 			stmtInsertOOrder.setInt(7, o_all_local);
 			try {
+				statements++;
 				stmtInsertOOrder.executeUpdate();
 			} catch (SQLException e3) {
 				throw new Exception("NEW-ORDER:SQLException-E3:"+e3.getSQLState()+";Err-"+ e3.getErrorCode()+"; Msg:"+e3.getMessage());
 			}
-			
+
+			String[] itemDatas = null, stockDatas = null, distInfos = null;
+			boolean[] itemFound = null, stockFound = null;
+			if (newOrderLookup != LOOKUP_ROW) {
+				itemDatas = new String[o_ol_cnt];
+				stockDatas = new String[o_ol_cnt];
+				distInfos = new String[o_ol_cnt];
+				itemFound = new boolean[o_ol_cnt];
+				stockFound = new boolean[o_ol_cnt];
+				lookupItemsAndStocks(d_id, o_ol_cnt, itemIDs,
+						supplierWarehouseIDs, itemFound, itemPrices, itemNames,
+						itemDatas, stockFound, stockQuantities, stockDatas,
+						distInfos, conn);
+			}
+
 			for (int ol_number = 1; ol_number <= o_ol_cnt; ol_number++) {
 				ol_supply_w_id = supplierWarehouseIDs[ol_number - 1];
 				ol_i_id = itemIDs[ol_number - 1];
@@ -921,55 +983,99 @@ public class User implements Config, Runnable {
 					throw new IllegalAccessException(
 							"Expected NEW-ORDER Illegal item id:" + ol_i_id + ", goto rollback functionality");
 				}
-				if (stmtGetItem == null) {
-					stmtGetItem = conn
-							.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " i_price, i_name , i_data FROM item WHERE i_id = ?" + selSQLPostfix);
-				}
-				stmtGetItem.setInt(1, ol_i_id);
-				rs = stmtGetItem.executeQuery();
-				if (!rs.next())
-					throw new IllegalAccessException("I_ID=" + ol_i_id + " not found!");
-				i_price = rs.getFloat("i_price");
-				i_name = rs.getString("i_name");
-				i_data = rs.getString("i_data");
-				rs.close();
-				rs = null;
+				if (newOrderLookup == LOOKUP_SET) {
+					// read by lookupItemsAndStocks() before the loop
+					if (!itemFound[ol_number - 1])
+						throw new IllegalAccessException("I_ID=" + ol_i_id + " not found!");
+					if (!stockFound[ol_number - 1])
+						throw new Exception("I_ID=" + ol_i_id + " not found!");
+					i_price = itemPrices[ol_number - 1];
+					i_data = itemDatas[ol_number - 1];
+					s_quantity = stockQuantities[ol_number - 1];
+					s_data = stockDatas[ol_number - 1];
+					ol_dist_info = distInfos[ol_number - 1];
+				} else {
+					if (stmtGetItem == null) {
+						stmtGetItem = prepareStatement(conn, sql.get(SQLCatalog.NEWORD_GET_ITEM));
+					}
+					stmtGetItem.setInt(1, ol_i_id);
+					statements++;
+					rs = stmtGetItem.executeQuery();
+					if (!rs.next())
+						throw new IllegalAccessException("I_ID=" + ol_i_id + " not found!");
+					i_price = rs.getFloat("i_price");
+					i_name = rs.getString("i_name");
+					i_data = rs.getString("i_data");
+					rs.close();
+					rs = null;
+
+					if (stmtGetStock == null) {
+						stmtGetStock = prepareStatement(conn, sql.get(SQLCatalog.NEWORD_GET_STOCK));
+					}
+					stmtGetStock.setInt(1, ol_i_id);
+					stmtGetStock.setInt(2, ol_supply_w_id);
+					statements++;
+					rs = stmtGetStock.executeQuery();
+					if (!rs.next())
+						throw new Exception("I_ID=" + ol_i_id + " not found!");
+					s_quantity = rs.getInt("s_quantity");
+					s_data = rs.getString("s_data");
+					s_dist_01 = rs.getString("s_dist_01");
+					s_dist_02 = rs.getString("s_dist_02");
+					s_dist_03 = rs.getString("s_dist_03");
+					s_dist_04 = rs.getString("s_dist_04");
+					s_dist_05 = rs.getString("s_dist_05");
+					s_dist_06 = rs.getString("s_dist_06");
+					s_dist_07 = rs.getString("s_dist_07");
+					s_dist_08 = rs.getString("s_dist_08");
+					s_dist_09 = rs.getString("s_dist_09");
+					s_dist_10 = rs.getString("s_dist_10");
+					rs.close();
+					rs = null;
+
+					switch ((int) d_id) {
+					case 1:
+						ol_dist_info = s_dist_01;
+						break;
+					case 2:
+						ol_dist_info = s_dist_02;
+						break;
+					case 3:
+						ol_dist_info = s_dist_03;
+						break;
+					case 4:
+						ol_dist_info = s_dist_04;
+						break;
+					case 5:
+						ol_dist_info = s_dist_05;
+						break;
+					case 6:
+						ol_dist_info = s_dist_06;
+						break;
+					case 7:
+						ol_dist_info = s_dist_07;
+						break;
+					case 8:
+						ol_dist_info = s_dist_08;
+						break;
+					case 9:
+						ol_dist_info = s_dist_09;
+						break;
+					case 10:
+						ol_dist_info = s_dist_10;
+						break;
+					}
 
-				itemPrices[ol_number - 1] = i_price;
-				itemNames[ol_number - 1] = i_name;
-
-				if (stmtGetStock == null) {
-					if ("SQLServer".equals(databaseType)) {
-						stmtGetStock = conn
-								.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " s_quantity, s_data, s_dist_01, s_dist_02, s_dist_03, s_dist_04, s_dist_05, "
-										+ "       s_dist_06, s_dist_07, s_dist_08, s_dist_09, s_dist_10"
-										+ " FROM stock WHERE s_i_id = ? AND s_w_id = ? " + selSQLPostfix);
-					} else {
-						stmtGetStock = conn
-								.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " s_quantity, s_data, s_dist_01, s_dist_02, s_dist_03, s_dist_04, s_dist_05, "
-										+ "       s_dist_06, s_dist_07, s_dist_08, s_dist_09, s_dist_10"
-										+ " FROM stock WHERE s_i_id = ? AND s_w_id = ? FOR UPDATE");
+					if (newOrderLookup == LOOKUP_VERIFY) {
+						verifyLookup(ol_number - 1, itemIDs, supplierWarehouseIDs,
+								itemFound, stockFound, i_price, i_name, i_data,
+								s_quantity, s_data, ol_dist_info, itemPrices,
+								itemNames, itemDatas, stockQuantities,
+								stockDatas, distInfos);
 					}
+					itemPrices[ol_number - 1] = i_price;
+					itemNames[ol_number - 1] = i_name;
 				}
-				stmtGetStock.setInt(1, ol_i_id);
-				stmtGetStock.setInt(2, ol_supply_w_id);
-				rs = stmtGetStock.executeQuery();
-				if (!rs.next())
-					throw new Exception("I_ID=" + ol_i_id + " not found!");
-				s_quantity = rs.getInt("s_quantity");
-				s_data = rs.getString("s_data");
-				s_dist_01 = rs.getString("s_dist_01");
-				s_dist_02 = rs.getString("s_dist_02");
-				s_dist_03 = rs.getString("s_dist_03");
-				s_dist_04 = rs.getString("s_dist_04");
-				s_dist_05 = rs.getString("s_dist_05");
-				s_dist_06 = rs.getString("s_dist_06");
-				s_dist_07 = rs.getString("s_dist_07");
-				s_dist_08 = rs.getString("s_dist_08");
-				s_dist_09 = rs.getString("s_dist_09");
-				s_dist_10 = rs.getString("s_dist_10");
-				rs.close();
-				rs = null;
 
 				stockQuantities[ol_number - 1] = s_quantity;
 
@@ -984,16 +1090,23 @@ public class User implements Config, Runnable {
 					s_remote_cnt_increment = 1;
 				}
 				if (stmtUpdateStock == null) {
-					stmtUpdateStock = conn
-							.prepareStatement(sDmlSQLAddHint()+"UPDATE " + sSQLAddWid(w_id) + " stock SET s_quantity = ? , s_ytd = s_ytd + ?, s_remote_cnt = s_remote_cnt + ? "
-									+ " WHERE s_i_id = ? AND s_w_id = ?");
+					stmtUpdateStock = prepareStatement(conn, sql.get(SQLCatalog.NEWORD_UPDATE_STOCK));
 				}
 				stmtUpdateStock.setInt(1, s_quantity);
 				stmtUpdateStock.setInt(2, ol_quantity);
 				stmtUpdateStock.setInt(3, s_remote_cnt_increment);
 				stmtUpdateStock.setInt(4, ol_i_id);
 				stmtUpdateStock.setInt(5, ol_supply_w_id);
-				stmtUpdateStock.addBatch();
+				if (newOrderBatch) {
+					stmtUpdateStock.addBatch();
+				} else {
+					try {
+						statements++;
+						stmtUpdateStock.executeUpdate();
+					} catch (SQLException e4) {
+						throw new Exception("NEW-ORDER:SQLException-E4:"+e4.getSQLState()+";Err-"+ e4.getErrorCode()+"; Msg:"+e4.getMessage());
+					}
+				}
 
 				ol_amount = ol_quantity * i_price;
 				orderLineAmounts[ol_number - 1] = ol_amount;
@@ -1006,42 +1119,8 @@ public class User implements Config, Runnable {
 					brandGeneric[ol_number - 1] = 'G';
 				}
 
-				switch ((int) d_id) {
-				case 1:
-					ol_dist_info = s_dist_01;
-					break;
-				case 2:
-					ol_dist_info = s_dist_02;
-					break;
-				case 3:
-					ol_dist_info = s_dist_03;
-					break;
-				case 4:
-					ol_dist_info = s_dist_04;
-					break;
-				case 5:
-					ol_dist_info = s_dist_05;
-					break;
-				case 6:
-					ol_dist_info = s_dist_06;
-					break;
-				case 7:
-					ol_dist_info = s_dist_07;
-					break;
-				case 8:
-					ol_dist_info = s_dist_08;
-					break;
-				case 9:
-					ol_dist_info = s_dist_09;
-					break;
-				case 10:
-					ol_dist_info = s_dist_10;
-					break;
-				}
 				if (stmtInsertOrderLine == null) {
-					stmtInsertOrderLine = conn
-							.prepareStatement(sDmlSQLAddHint()+"INSERT " + sSQLAddWid(w_id) + " INTO order_line (ol_o_id, ol_d_id, ol_w_id, ol_number, ol_i_id, ol_supply_w_id,"
-									+ "  ol_quantity, ol_amount, ol_dist_info) VALUES (?,?,?,?,?,?,?,?,?)");
+					stmtInsertOrderLine = prepareStatement(conn, sql.get(SQLCatalog.NEWORD_INSERT_ORDER_LINE));
 				}
 				stmtInsertOrderLine.setInt(1, o_id);
 				stmtInsertOrderLine.setInt(2, d_id);
@@ -1052,24 +1131,39 @@ public class User implements Config, Runnable {
 				stmtInsertOrderLine.setInt(7, ol_quantity);
 				stmtInsertOrderLine.setFloat(8, ol_amount);
 				stmtInsertOrderLine.setString(9, ol_dist_info);
-				stmtInsertOrderLine.addBatch();
+				if (newOrderBatch) {
+					stmtInsertOrderLine.addBatch();
+				} else {
+					try {
+						statements++;
+						stmtInsertOrderLine.executeUpdate();
+					} catch (SQLException e5) {
+						throw new Exception("NEW-ORDER:SQLException-E5:"+e5.getSQLState()+";Err-"+ e5.getErrorCode()+"; Msg:"+e5.getMessage());
+					}
+				}
 
 			} // end-for
-			try {
-				stmtUpdateStock.executeBatch();
-			} catch (SQLException e4) {
-				throw new Exception("NEW-ORDER:SQLException-E4:"+e4.getSQLState()+";Err-"+ e4.getErrorCode()+"; Msg:"+e4.getMessage());
-			}
-			
-			try {
-				stmtInsertOrderLine.executeBatch();
-			} catch (SQLException e5) {
-				throw new Exception("NEW-ORDER:SQLException-E5:"+e5.getSQLState()+";Err-"+ e5.getErrorCode()+"; Msg:"+e5.getMessage());
+			if (newOrderBatch) {
+				try {
+					statements++;
+					stmtUpdateStock.executeBatch();
+				} catch (SQLException e4) {
+					throw new Exception("NEW-ORDER:SQLException-E4:"+e4.getSQLState()+";Err-"+ e4.getErrorCode()+"; Msg:"+e4.getMessage());
+				}
+
+				try {
+					statements++;
+					stmtInsertOrderLine.executeBatch();
+				} catch (SQLException e5) {
+					throw new Exception("NEW-ORDER:SQLException-E5:"+e5.getSQLState()+";Err-"+ e5.getErrorCode()+"; Msg:"+e5.getMessage());
+				}
 			}
 			conn.commit();
 			iRetNewOrder++;
-			stmtInsertOrderLine.clearBatch();
-			stmtUpdateStock.clearBatch();
+			if (newOrderBatch) {
+				stmtInsertOrderLine.clearBatch();
+				stmtUpdateStock.clearBatch();
+			}
 			total_amount *= (1 + w_tax + d_tax) * (1 - c_discount);
 		} catch (SQLException ex) {
 		        error("NEW-ORDER:SQL-"+ex.getSQLState()+";Err-"+ ex.getErrorCode()+"; Msg:"+ex.getMessage());
@@ -1102,33 +1196,15 @@ public class User implements Config, Runnable {
 			}
 		} finally {
 			try {
-				if (stmtInsertOrderLine != null) {
-					stmtInsertOrderLine.close();
-				} 
-				if (stmtUpdateStock != null) {
-					stmtUpdateStock.close();
-				}
-				if (stmtGetCustWhse != null) {
-					stmtGetCustWhse.close();
-				} 
-				if (stmtGetDist != null) {
-					stmtGetDist.close();
-				}
-				if (stmtInsertNewOrder != null) {
-					stmtInsertNewOrder.close();
-				}
-				if (stmtUpdateDist != null) {
-					stmtUpdateDist.close();
-				}
-				if (stmtInsertOOrder != null) {
-					stmtInsertOOrder.close();
-				}
-				if (stmtGetItem != null) {
-					stmtGetItem.close();
-				}
-				if (stmtGetStock != null) {
-					stmtGetStock.close();
-				}
+				closeBatchStatement(stmtInsertOrderLine);
+				closeBatchStatement(stmtUpdateStock);
+				closeStatement(stmtGetCustWhse);
+				closeStatement(stmtGetDist);
+				closeStatement(stmtInsertNewOrder);
+				closeStatement(stmtUpdateDist);
+				closeStatement(stmtInsertOOrder);
+				closeStatement(stmtGetItem);
+				closeStatement(stmtGetStock);
 			} catch (SQLException e) {
 				e.printStackTrace();
 			}	
@@ -1136,6 +1212,148 @@ public class User implements Config, Runnable {
 		return iRetNewOrder;
 	}
 
+	private final static String[] distColumns = { null, "s_dist_01",
+			"s_dist_02", "s_dist_03", "s_dist_04", "s_dist_05", "s_dist_06",
+			"s_dist_07", "s_dist_08", "s_dist_09", "s_dist_10" };
+
+	/**
+	 * Read the items of all order lines with one IN-list query and lock the
+	 * stock of every supply warehouse with one IN-list SELECT ... FOR UPDATE.
+	 * Warehouses and item ids are visited in ascending order, the lock order
+	 * of all users is the same. The expected illegal item id -12345 is left
+	 * out, the item loop rolls it back as before.
+	 */
+	private void lookupItemsAndStocks(int d_id, int o_ol_cnt, int[] itemIDs,
+			int[] supplierWarehouseIDs, boolean[] itemFound,
+			float[] itemPrices, String[] itemNames, String[] itemDatas,
+			boolean[] stockFound, int[] stockQuantities, String[] stockDatas,
+			String[] distInfos, Connection conn) throws SQLException {
+		PreparedStatement stmtGetItems = null;
+		PreparedStatement stmtGetStocks = null;
+		try {
+			int[] keys = sortedKeys(itemIDs, supplierWarehouseIDs, o_ol_cnt, -1);
+			if (keys.length > 0) {
+				stmtGetItems = prepareStatement(conn, sql.get(
+						SQLCatalog.NEWORD_GET_ITEMS, keys.length));
+				for (int i = 0; i < keys.length; i++) {
+					stmtGetItems.setInt(i + 1, keys[i]);
+				}
+				statements++;
+				ResultSet rs = stmtGetItems.executeQuery();
+				while (rs.next()) {
+					int i_id = rs.getInt("i_id");
+					for (int k = 0; k < o_ol_cnt; k++) {
+						if (itemIDs[k] == i_id) {
+							itemFound[k] = true;
+							itemPrices[k] = rs.getFloat("i_price");
+							itemNames[k] = rs.getString("i_name");
+							itemDatas[k] = rs.getString("i_data");
+						}
+					}
+				}
+				rs.close();
+			}
+
+			int[] warehouses = sortedKeys(supplierWarehouseIDs, null, o_ol_cnt, -1);
+			for (int w = 0; w < warehouses.length; w++) {
+				int s_w_id = warehouses[w];
+				keys = sortedKeys(itemIDs, supplierWarehouseIDs, o_ol_cnt, s_w_id);
+				if (keys.length == 0) {
+					continue;
+				}
+				// a cached statement is rebound, one per IN-list size
+				stmtGetStocks = prepareStatement(conn, sql.get(
+						SQLCatalog.NEWORD_GET_STOCKS, keys.length));
+				stmtGetStocks.setInt(1, s_w_id);
+				for (int i = 0; i < keys.length; i++) {
+					stmtGetStocks.setInt(i + 2, keys[i]);
+				}
+				statements++;
+				ResultSet rs = stmtGetStocks.executeQuery();
+				while (rs.next()) {
+					int s_i_id = rs.getInt("s_i_id");
+					for (int k = 0; k < o_ol_cnt; k++) {
+						if (itemIDs[k] == s_i_id && supplierWarehouseIDs[k] == s_w_id) {
+							stockFound[k] = true;
+							stockQuantities[k] = rs.getInt("s_quantity");
+							stockDatas[k] = rs.getString("s_data");
+							distInfos[k] = rs.getString(distColumns[d_id]);
+						}
+					}
+				}
+				rs.close();
+				closeStatement(stmtGetStocks);
+				stmtGetStocks = null;
+			}
+		} finally {
+			closeStatement(stmtGetItems);
+			closeStatement(stmtGetStocks);
+		}
+	}
+
+	/**
+	 * @param filter
+	 *            only the lines of this supply warehouse, -1 for all
+	 * @return the distinct ids of the lines in ascending order, without the
+	 *         illegal item id
+	 */
+	private static int[] sortedKeys(int[] ids, int[] warehouseIDs, int count,
+			int filter) {
+		int[] keys = new int[count];
+		int n = 0;
+		for (int k = 0; k < count; k++) {
+			if (ids[k] != -12345
+					&& (filter < 0 || warehouseIDs[k] == filter)) {
+				keys[n++] = ids[k];
+			}
+		}
+		Arrays.sort(keys, 0, n);
+		int distinct = 0;
+		for (int k = 0; k < n; k++) {
+			if (distinct == 0 || keys[k] != keys[distinct - 1]) {
+				keys[distinct++] = keys[k];
+			}
+		}
+		return Arrays.copyOf(keys, distinct);
+	}
+
+	/**
+	 * Compare the row by row reads of an order line with the set-oriented
+	 * ones. A stock row already updated by an earlier line of the same order
+	 * is only comparable when the updates are batched after the loop.
+	 */
+	private void verifyLookup(int k, int[] itemIDs, int[] supplierWarehouseIDs,
+			boolean[] itemFound, boolean[] stockFound, float i_price,
+			String i_name, String i_data, int s_quantity, String s_data,
+			String ol_dist_info, float[] itemPrices, String[] itemNames,
+			String[] itemDatas, int[] stockQuantities, String[] stockDatas,
+			String[] distInfos) {
+		boolean stockComparable = true;
+		if (!newOrderBatch) {
+			for (int j = 0; j < k; j++) {
+				if (itemIDs[j] == itemIDs[k]
+						&& supplierWarehouseIDs[j] == supplierWarehouseIDs[k]) {
+					stockComparable = false;
+				}
+			}
+		}
+		boolean same = itemFound[k] && i_price == itemPrices[k]
+				&& equals(i_name, itemNames[k]) && equals(i_data, itemDatas[k]);
+		if (stockComparable) {
+			same = same && stockFound[k] && s_quantity == stockQuantities[k]
+					&& equals(s_data, stockDatas[k])
+					&& equals(ol_dist_info, distInfos[k]);
+		}
+		if (!same) {
+			error("NEW-ORDER:LOOKUP-MISMATCH I_ID=" + itemIDs[k] + " S_W_ID="
+					+ supplierWarehouseIDs[k]);
+		}
+	}
+
+	private static boolean equals(String a, String b) {
+		return (a == null) ? b == null : a.equals(b);
+	}
+
 	private int stockLevelTransaction(int w_id, int d_id, int threshold,
 			Connection conn) {
 		int o_id = 0;
@@ -1153,13 +1371,11 @@ public class User implements Config, Runnable {
 		try {
 			
 			if (stockGetDistOrderId == null) {
-				stockGetDistOrderId = conn
-						.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " d_next_o_id"
-								+ " FROM district" + " WHERE d_w_id = ?"
-								+ " AND d_id = ?" + selSQLPostfix);
+				stockGetDistOrderId = prepareStatement(conn, sql.get(SQLCatalog.STOCK_GET_DIST_ORDER_ID));
 			}
 			stockGetDistOrderId.setInt(1, w_id);
 			stockGetDistOrderId.setInt(2, d_id);
+			statements++;
 			ResultSet rs = stockGetDistOrderId.executeQuery();
 
 			if (!rs.next())
@@ -1169,16 +1385,7 @@ public class User implements Config, Runnable {
 			rs.close();
 			rs = null;
 			if (stockGetCountStock == null) {
-				stockGetCountStock = conn
-						.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " COUNT(DISTINCT (s_i_id)) AS stock_count"
-								+ " FROM order_line, stock"
-								+ " WHERE ol_w_id = s_w_id AND ol_w_id = ?"
-								+ " AND ol_d_id = ?"
-								+ " AND ol_o_id < ?"
-								+ " AND ol_o_id >= ? - 20"
-								+ " AND s_w_id = ?"
-								+ " AND s_i_id = ol_i_id"
-								+ " AND s_quantity < ?" + selSQLPostfix);
+				stockGetCountStock = prepareStatement(conn, sql.get(SQLCatalog.STOCK_GET_COUNT_STOCK));
 			}
 			stockGetCountStock.setInt(1, w_id);
 			stockGetCountStock.setInt(2, d_id);
@@ -1186,6 +1393,7 @@ public class User implements Config, Runnable {
 			stockGetCountStock.setInt(4, o_id);
 			stockGetCountStock.setInt(5, w_id);
 			stockGetCountStock.setInt(6, threshold);
+			statements++;
 			rs = stockGetCountStock.executeQuery();
 
 			if (!rs.next())
@@ -1204,12 +1412,8 @@ public class User implements Config, Runnable {
 			logException(e);
 		} finally {
 			try {
-				if (stockGetDistOrderId != null) {
-					stockGetDistOrderId.close();
-				}
-				if (stockGetCountStock != null) {
-					stockGetCountStock.close();
-				}
+				closeStatement(stockGetDistOrderId);
+				closeStatement(stockGetCountStock);
 		 	} catch (SQLException e) {
 					e.printStackTrace();
 			}
@@ -1249,20 +1453,19 @@ public class User implements Config, Runnable {
 			
 			irollback++;
 			if (payUpdateWhse == null) {
-				payUpdateWhse = conn
-						.prepareStatement(sDmlSQLAddHint()+"UPDATE " + sSQLAddWid(w_id) + " warehouse SET w_ytd = w_ytd + ?  WHERE w_id = ? ");
+				payUpdateWhse = prepareStatement(conn, sql.get(SQLCatalog.PAY_UPDATE_WHSE));
 			}
 			payUpdateWhse.setFloat(1, h_amount);
 			payUpdateWhse.setInt(2, w_id);
+			statements++;
 			result = payUpdateWhse.executeUpdate();
 			if (result == 0)
 				throw new Exception("W_ID=" + w_id + " not found!");
 			if (payGetWhse == null) {
-				payGetWhse = conn
-						.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " w_street_1, w_street_2, w_city, w_state, w_zip, w_name"
-								+ " FROM warehouse WHERE w_id = ?" + selSQLPostfix);
+				payGetWhse = prepareStatement(conn, sql.get(SQLCatalog.PAY_GET_WHSE));
 			}
 			payGetWhse.setInt(1, w_id);
+			statements++;
 			ResultSet rs = payGetWhse.executeQuery();
 			if (!rs.next())
 				throw new Exception("W_ID=" + w_id + " not found!");
@@ -1275,23 +1478,22 @@ public class User implements Config, Runnable {
 			rs.close();
 			rs = null;
 			if (payUpdateDist == null) {
-				payUpdateDist = conn
-						.prepareStatement(sDmlSQLAddHint()+"UPDATE " + sSQLAddWid(w_id) + " district SET d_ytd = d_ytd + ? WHERE d_w_id = ? AND d_id = ?");
+				payUpdateDist = prepareStatement(conn, sql.get(SQLCatalog.PAY_UPDATE_DIST));
 			}
 			payUpdateDist.setFloat(1, h_amount);
 			payUpdateDist.setInt(2, w_id);
 			payUpdateDist.setInt(3, d_id);
+			statements++;
 			result = payUpdateDist.executeUpdate();
 			if (result == 0)
 				throw new Exception("D_ID=" + d_id + " D_W_ID=" + w_id
 						+ " not found!");
 			if (payGetDist == null) {
-				payGetDist = conn
-						.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " d_street_1, d_street_2, d_city, d_state, d_zip, d_name"
-								+ " FROM district WHERE d_w_id = ? AND d_id = ?" + selSQLPostfix);
+				payGetDist = prepareStatement(conn, sql.get(SQLCatalog.PAY_GET_DIST));
 			}
 			payGetDist.setInt(1, w_id);
 			payGetDist.setInt(2, d_id);
+			statements++;
 			rs = payGetDist.executeQuery();
 			if (!rs.next())
 				throw new Exception("D_ID=" + d_id + " D_W_ID=" + w_id
@@ -1308,13 +1510,12 @@ public class User implements Config, Runnable {
 			if (c_by_name) {
 				// payment is by customer name
 				if (payCountCust == null) {
-					payCountCust = conn
-							.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " count(c_id) AS namecnt FROM customer "
-									+ " WHERE c_last = ?  AND c_d_id = ? AND c_w_id = ?" + selSQLPostfix);
+					payCountCust = prepareStatement(conn, sql.get(SQLCatalog.PAY_COUNT_CUST));
 				}
 				payCountCust.setString(1, c_last);
 				payCountCust.setInt(2, c_d_id);
 				payCountCust.setInt(3, c_w_id);
+				statements++;
 				rs = payCountCust.executeQuery();
 				if (!rs.next())
 					throw new Exception("C_LAST=" + c_last + " C_D_ID="
@@ -1323,15 +1524,12 @@ public class User implements Config, Runnable {
 				rs.close();
 				rs = null;
 				if (payCursorCustByName == null) {
-					payCursorCustByName = conn
-							.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " c_first, c_middle, c_id, c_street_1, c_street_2, c_city, c_state, c_zip,"
-									+ "       c_phone, c_credit, c_credit_lim, c_discount, c_balance, c_since "
-									+ "  FROM customer WHERE c_w_id = ? AND c_d_id = ? AND c_last = ? "
-									+ "ORDER BY c_w_id, c_d_id, c_last, c_first " + selSQLPostfix);
+					payCursorCustByName = prepareStatement(conn, sql.get(SQLCatalog.PAY_GET_CUST_BY_NAME));
 				}
 				payCursorCustByName.setInt(1, c_w_id);
 				payCursorCustByName.setInt(2, c_d_id);
 				payCursorCustByName.setString(3, c_last);
+				statements++;
 				rs = payCursorCustByName.executeQuery();
 				if (!rs.next())
 					throw new Exception("C_LAST=" + c_last + " C_D_ID="
@@ -1362,14 +1560,12 @@ public class User implements Config, Runnable {
 			} else {
 				// payment is by customer ID
 				if (payGetCust == null) {
-					payGetCust = conn
-							.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " c_first, c_middle, c_last, c_street_1, c_street_2, c_city, c_state, c_zip,"
-									+ "       c_phone, c_credit, c_credit_lim, c_discount, c_balance, c_since "
-									+ "  FROM customer WHERE c_w_id = ? AND c_d_id = ? AND c_id = ?" + selSQLPostfix);
+					payGetCust = prepareStatement(conn, sql.get(SQLCatalog.PAY_GET_CUST));
 				}
 				payGetCust.setInt(1, c_w_id);
 				payGetCust.setInt(2, c_d_id);
 				payGetCust.setInt(3, c_id);
+				statements++;
 				rs = payGetCust.executeQuery();
 				if (!rs.next())
 					throw new Exception("C_ID=" + c_id + " C_D_ID=" + c_d_id
@@ -1395,12 +1591,12 @@ public class User implements Config, Runnable {
 			c_balance += h_amount;
 			if (c_credit.equals("BC")) { // bad credit
 				if (payGetCustCdata == null) {
-					payGetCustCdata = conn
-							.prepareStatement(sQrySQLAddHint()+"SELECT " + sSQLAddWid(w_id) + " c_data FROM customer WHERE c_w_id = ? AND c_d_id = ? AND c_id = ?" + selSQLPostfix);
+					payGetCustCdata = prepareStatement(conn, sql.get(SQLCatalog.PAY_GET_CUST_CDATA));
 				}
 				payGetCustCdata.setInt(1, c_w_id);
 				payGetCustCdata.setInt(2, c_d_id);
 				payGetCustCdata.setInt(3, c_id);
+				statements++;
 				rs = payGetCustCdata.executeQuery();
 				if (!rs.next())
 					throw new Exception("C_ID=" + c_id + " C_W_ID=" + c_w_id
@@ -1420,15 +1616,14 @@ public class User implements Config, Runnable {
 				if (c_new_data.length() > 500)
 					c_new_data = c_new_data.substring(0, 500);
 				if (payUpdateCustBalCdata == null) {
-					payUpdateCustBalCdata = conn
-							.prepareStatement(sDmlSQLAddHint()+"UPDATE " + sSQLAddWid(w_id) + " customer SET c_balance = ?, c_data = ? "
-									+ " WHERE c_w_id = ? AND c_d_id = ? AND c_id = ?");
+					payUpdateCustBalCdata = prepareStatement(conn, sql.get(SQLCatalog.PAY_UPDATE_CUST_BAL_CDATA));
 				}
 				payUpdateCustBalCdata.setFloat(1, c_balance);
 				payUpdateCustBalCdata.setString(2, c_new_data);
 				payUpdateCustBalCdata.setInt(3, c_w_id);
 				payUpdateCustBalCdata.setInt(4, c_d_id);
 				payUpdateCustBalCdata.setInt(5, c_id);
+				statements++;
 				result = payUpdateCustBalCdata.executeUpdate();
 				if (result == 0)
 					throw new Exception(
@@ -1437,13 +1632,13 @@ public class User implements Config, Runnable {
 
 			} else { // GoodCredit
 				if (payUpdateCustBal == null) {
-					payUpdateCustBal = conn
-							.prepareStatement(sDmlSQLAddHint()+"UPDATE " + sSQLAddWid(w_id) + " customer SET c_balance = ? WHERE c_w_id = ? AND c_d_id = ? AND c_id = ?");
+					payUpdateCustBal = prepareStatement(conn, sql.get(SQLCatalog.PAY_UPDATE_CUST_BAL));
 				}
 				payUpdateCustBal.setFloat(1, c_balance);
 				payUpdateCustBal.setInt(2, c_w_id);
 				payUpdateCustBal.setInt(3, c_d_id);
 				payUpdateCustBal.setInt(4, c_id);
+				statements++;
 				result = payUpdateCustBal.executeUpdate();
 				if (result == 0)
 					throw new Exception("C_ID=" + c_id + " C_W_ID=" + c_w_id
@@ -1457,9 +1652,7 @@ public class User implements Config, Runnable {
 				d_name = d_name.substring(0, 10);
 			h_data = w_name + "    " + d_name;
 			if (payInsertHist == null) {
-				payInsertHist = conn
-						.prepareStatement(sDmlSQLAddHint()+"INSERT " + sSQLAddWid(w_id) + " INTO history (h_c_d_id, h_c_w_id, h_c_id, h_d_id, h_w_id, h_date, h_amount, h_data) "
-								+ " VALUES (?,?,?,?,?,?,?,?)");
+				payInsertHist = prepareStatement(conn, sql.get(SQLCatalog.PAY_INSERT_HIST));
 			}
 			payInsertHist.setInt(1, c_d_id);
 			payInsertHist.setInt(2, c_w_id);
@@ -1470,6 +1663,7 @@ public class User implements Config, Runnable {
 					.currentTimeMillis()));
 			payInsertHist.setFloat(7, h_amount);
 			payInsertHist.setString(8, h_data);
+			statements++;
 			payInsertHist.executeUpdate();
 			conn.commit();
 			iRetPayment++;
@@ -1498,39 +1692,108 @@ public class User implements Config, Runnable {
 			}
 		} finally {
 			try {
-				if (payUpdateWhse != null) {
-					payUpdateWhse.close();
-				}
-				if (payGetWhse != null) {
-					payGetWhse.close();
-				}
-				if (payUpdateDist != null) {
-					payUpdateDist.close();
-				}
-				if (payGetDist != null) {
-					payGetDist.close();
-				}
-				if (payCountCust != null) {
-					payCountCust.close();
-				}
-				if (payCursorCustByName != null) {
-					payCursorCustByName.close();
-				}
-				if (payGetCust != null) {
-					payGetCust.close();
-				}
-				if (payGetCustCdata != null) {
-					payGetCustCdata.close();
-				}
-				if (payUpdateCustBalCdata != null) {
-					payUpdateCustBalCdata.close();
-				}
-				if (payUpdateCustBal != null) {
-					payUpdateCustBal.close();
-				}
-				if (payInsertHist != null) {
-					payInsertHist.close();
+				closeStatement(payUpdateWhse);
+				closeStatement(payGetWhse);
+				closeStatement(payUpdateDist);
+				closeStatement(payGetDist);
+				closeStatement(payCountCust);
+				closeStatement(payCursorCustByName);
+				closeStatement(payGetCust);
+				closeStatement(payGetCustCdata);
+				closeStatement(payUpdateCustBalCdata);
+				closeStatement(payUpdateCustBal);
+				closeStatement(payInsertHist);
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+		return iRetPayment;
+	}
+
+	/**
+	 * New-Order as one call of dbm_new_order, see
+	 * sql/example/[db]/create_procedure.sql. The item lists are passed as
+	 * comma separated strings.
+	 */
+	private int newOrderProcedure(int w_id, int d_id, int c_id, int o_ol_cnt,
+			int o_all_local, int[] itemIDs, int[] supplierWarehouseIDs,
+			int[] orderQuantities, Connection conn) {
+		int iRetNewOrder = 0;
+		CallableStatement procNewOrder = null;
+		try {
+			procNewOrder = prepareCall(conn, sql.get(SQLCatalog.PROC_NEW_ORDER));
+			procNewOrder.setInt(1, w_id);
+			procNewOrder.setInt(2, d_id);
+			procNewOrder.setInt(3, c_id);
+			procNewOrder.setInt(4, o_ol_cnt);
+			procNewOrder.setInt(5, o_all_local);
+			procNewOrder.setString(6, joinIDs(itemIDs));
+			procNewOrder.setString(7, joinIDs(supplierWarehouseIDs));
+			procNewOrder.setString(8, joinIDs(orderQuantities));
+			procNewOrder.registerOutParameter(9, Types.INTEGER);
+			statements++;
+			procNewOrder.execute();
+			int status = procNewOrder.getInt(9);
+			if (status == 1) {
+				conn.commit();
+				iRetNewOrder++;
+			} else {
+				// 2 is the expected illegal item id, counted as done
+				conn.rollback();
+				if (status == 2) {
+					iRetNewOrder++;
 				}
+			}
+		} catch (SQLException ex) {
+			error("NEW-ORDER:SQL-"+ex.getSQLState()+";Err-"+ ex.getErrorCode()+"; Msg:"+ex.getMessage());
+			logException(ex);
+			rollback("NEW-ORDER", conn);
+		} finally {
+			try {
+				closeStatement(procNewOrder);
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+		return iRetNewOrder;
+	}
+
+	/**
+	 * Payment as one call of dbm_payment.
+	 */
+	private int paymentProcedure(int w_id, int c_w_id, float h_amount,
+			int d_id, int c_d_id, int c_id, String c_last, boolean c_by_name,
+			Connection conn) {
+		int iRetPayment = 0;
+		CallableStatement procPayment = null;
+		try {
+			procPayment = prepareCall(conn, sql.get(SQLCatalog.PROC_PAYMENT));
+			procPayment.setInt(1, w_id);
+			procPayment.setInt(2, d_id);
+			procPayment.setInt(3, c_w_id);
+			procPayment.setInt(4, c_d_id);
+			procPayment.setInt(5, c_id);
+			procPayment.setInt(6, c_by_name ? 1 : 0);
+			procPayment.setString(7, c_last == null ? "" : c_last);
+			procPayment.setFloat(8, h_amount);
+			procPayment.registerOutParameter(9, Types.INTEGER);
+			statements++;
+			procPayment.execute();
+			if (procPayment.getInt(9) == 1) {
+				conn.commit();
+				iRetPayment++;
+			} else {
+				error("PAYMENT:C_ID=" + c_id + " C_D_ID=" + c_d_id
+						+ " C_W_ID=" + c_w_id + " not found!");
+				conn.rollback();
+			}
+		} catch (SQLException ex) {
+			error("PAYMENT:SQL-"+ex.getSQLState()+";Err-"+ ex.getErrorCode()+"; Msg:"+ex.getMessage());
+			logException(ex);
+			rollback("PAYMENT", conn);
+		} finally {
+			try {
+				closeStatement(procPayment);
 			} catch (SQLException e) {
 				e.printStackTrace();
 			}
@@ -1538,6 +1801,125 @@ public class User implements Config, Runnable {
 		return iRetPayment;
 	}
 
+	/**
+	 * Order-Status as one call of dbm_order_status, read only.
+	 */
+	private int orderStatusProcedure(int w_id, int d_id, int c_id,
+			String c_last, boolean c_by_name, Connection conn) {
+		int iRetOrderStatus = 0;
+		CallableStatement procOrderStatus = null;
+		try {
+			procOrderStatus = prepareCall(conn, sql.get(SQLCatalog.PROC_ORDER_STATUS));
+			procOrderStatus.setInt(1, w_id);
+			procOrderStatus.setInt(2, d_id);
+			procOrderStatus.setInt(3, c_id);
+			procOrderStatus.setInt(4, c_by_name ? 1 : 0);
+			procOrderStatus.setString(5, c_last == null ? "" : c_last);
+			procOrderStatus.registerOutParameter(6, Types.INTEGER);
+			statements++;
+			procOrderStatus.execute();
+			if (procOrderStatus.getInt(6) == 1) {
+				iRetOrderStatus++;
+			} else {
+				error("ORDER-STATUS:C_ID=" + c_id + " C_D_ID=" + d_id
+						+ " C_W_ID=" + w_id + " not found!");
+			}
+		} catch (SQLException ex) {
+			error("ORDER-STATUS:SQL-"+ex.getSQLState()+";Err-"+ ex.getErrorCode()+"; Msg:"+ex.getMessage());
+			logException(ex);
+		} finally {
+			try {
+				closeStatement(procOrderStatus);
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+		return iRetOrderStatus;
+	}
+
+	/**
+	 * Delivery as one call of dbm_delivery, the two districts are chosen here
+	 * as in deliveryTransaction().
+	 */
+	private int deliveryProcedure(int w_id, int o_carrier_id, Connection conn) {
+		int iRetDeliveries = 0;
+		CallableStatement procDelivery = null;
+		try {
+			procDelivery = prepareCall(conn, sql.get(SQLCatalog.PROC_DELIVERY));
+			procDelivery.setInt(1, w_id);
+			procDelivery.setInt(2, o_carrier_id);
+			procDelivery.setString(3, Util.randomNumber(1, 10, gen) + ","
+					+ Util.randomNumber(1, 10, gen));
+			procDelivery.registerOutParameter(4, Types.INTEGER);
+			statements++;
+			procDelivery.execute();
+			int delivered = procDelivery.getInt(4);
+			conn.commit();
+			iRetDeliveries = delivered;
+		} catch (SQLException ex) {
+			error("DELIVERY:SQL-"+ex.getSQLState()+";Err-"+ ex.getErrorCode()+"; Msg:"+ex.getMessage());
+			logException(ex);
+			rollback("DELIVERY", conn);
+		} finally {
+			try {
+				closeStatement(procDelivery);
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+		return iRetDeliveries;
+	}
+
+	/**
+	 * Stock-Level as one call of dbm_stock_level, read only.
+	 */
+	private int stockLevelProcedure(int w_id, int d_id, int threshold,
+			Connection conn) {
+		int iRetStockLevel = 0;
+		CallableStatement procStockLevel = null;
+		try {
+			procStockLevel = prepareCall(conn, sql.get(SQLCatalog.PROC_STOCK_LEVEL));
+			procStockLevel.setInt(1, w_id);
+			procStockLevel.setInt(2, d_id);
+			procStockLevel.setInt(3, threshold);
+			procStockLevel.registerOutParameter(4, Types.INTEGER);
+			statements++;
+			procStockLevel.execute();
+			procStockLevel.getInt(4);
+			iRetStockLevel++;
+		} catch (SQLException ex) {
+			error("STOCK-LEVEL:SQL-"+ex.getSQLState()+";Err-"+ ex.getErrorCode()+"; Msg:"+ex.getMessage());
+			logException(ex);
+		} finally {
+			try {
+				closeStatement(procStockLevel);
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+		return iRetStockLevel;
+	}
+
+	private static String joinIDs(int[] ids) {
+		StringBuilder joined = new StringBuilder(ids.length * 6);
+		for (int i = 0; i < ids.length; i++) {
+			if (i > 0) {
+				joined.append(',');
+			}
+			joined.append(ids[i]);
+		}
+		return joined.toString();
+	}
+
+	private void rollback(String type, Connection conn) {
+		try {
+			conn.rollback();
+		} catch (Exception e1) {
+			error(type + "-ROLLBACK:ErrMsg-"+e1.getMessage());
+			logException(e1);
+		}
+	}
+
 	private void error(String type) {
 		synchronized (printStreamErrors) {
 			this.printStreamErrors.println("[ERROR] USER=" + userName
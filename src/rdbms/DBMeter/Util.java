@@ -7,7 +7,11 @@
  */
 package rdbms.DBMeter;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.text.SimpleDateFormat;
+import java.util.Properties;
 import java.util.Random;
 
 /**
@@ -94,6 +98,44 @@ public class Util implements Config {
 		return (++randomSeed1 + randomSeed3) % (++randomSeed2);
 	}
 
+	/**
+	 * One REPORT_VALUE row, times are given in microseconds and printed in
+	 * milliseconds.
+	 *
+	 * @param histograms
+	 *            response times indexed by reportTypes, the one of type fills
+	 *            the percentile columns
+	 */
+	public static String formatReportValue(Object timestamp, String type,
+			double tpm, double avg_rt, long max_rt, double avg_db_rt,
+			long max_db_rt, LatencyHistogram[] histograms) {
+		LatencyHistogram histogram = histograms[0];
+		for (int i = 1; i < reportTypes.length; i++) {
+			if (reportTypes[i].equals(type)) {
+				histogram = histograms[i];
+			}
+		}
+		return String.format(REPORT_VALUE, timestamp, type, tpm,
+				avg_rt / 1000, max_rt / 1000.0, avg_db_rt / 1000,
+				max_db_rt / 1000.0,
+				histogram.getValueAtPercentile(50.0) / 1000.0,
+				histogram.getValueAtPercentile(95.0) / 1000.0,
+				histogram.getValueAtPercentile(99.0) / 1000.0,
+				histogram.getValueAtPercentile(99.9) / 1000.0);
+	}
+
+	public static Properties loadProperties(String propertiesFile)
+			throws IOException {
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(propertiesFile);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		return properties;
+	}
+
 	public static String getFileNameSuffix() {
 		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMddHHmmss");
 		return dateFormat.format(new java.util.Date());